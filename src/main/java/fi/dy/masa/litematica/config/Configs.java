@@ -34,7 +34,10 @@ public class Configs implements IConfigHandler
         public static final ConfigBoolean       EASY_PLACE_HOLD_ENABLED = new ConfigBoolean(    "easyPlaceHoldEnabled", false, "When enabled, then simply holding down the use key\nand looking at different schematic blocks will place them");
         public static final ConfigBoolean       EXECUTE_REQUIRE_TOOL    = new ConfigBoolean(    "executeRequireHoldingTool", true, "Require holding an enabled tool item\nfor the executeOperation hotkey to work");
         public static final ConfigBoolean       FIX_RAIL_ROTATION       = new ConfigBoolean(    "fixRailRotation", true, "If true, then a fix is applied for the vanilla bug in rails,\nwhere the 180 degree rotations of straight north-south and\neast-west rails rotate 90 degrees counterclockwise instead >_>");
+        public static final ConfigBoolean       INCREMENTAL_PLACEMENT_MOVE = new ConfigBoolean( "incrementalPlacementMove", true, "If enabled, then moving (for example nudging) a placement\nshifts the already placed blocks in the schematic world\nto the new position on a background thread, instead of\nwiping and re-placing all the chunks from the schematic.\nThis is only done when the affected chunks don't have other placements.");
         public static final ConfigBoolean       LOAD_ENTIRE_SCHEMATICS  = new ConfigBoolean(    "loadEntireSchematics", false, "If true, then the entire schematic is always loaded at once.\nIf false, then only the part that is within the client's view distance is loaded.");
+        public static final ConfigBoolean       PADDED_BLOCK_STATE_STORAGE = new ConfigBoolean( "paddedBlockStateStorage", false, "If enabled, then the schematic block data is kept in memory\nin a word-aligned format, where the entries never span\nacross two longs. This makes accessing the blocks faster,\nat the cost of using a bit more memory for some palette sizes.\nThe schematic files are not affected by this option.\nNote: This only affects schematics loaded or created after changing it.");
+        public static final ConfigBoolean       PARALLEL_COMPRESSION    = new ConfigBoolean(    "parallelSchematicCompression", true, "If enabled, then the schematic files are compressed\nusing multiple threads when saving them.\nThe files are still normal gzip files, which can be\nread by any tools, but they may be very slightly larger.");
         public static final ConfigInteger       PASTE_COMMAND_INTERVAL  = new ConfigInteger(    "pasteCommandInterval", 1, 1, 1000, "The interval in game ticks the Paste schematic task runs at,\nin the command-based mode");
         public static final ConfigInteger       PASTE_COMMAND_LIMIT     = new ConfigInteger(    "pasteCommandLimit", 64, 1, 1000000, "Max number of commands sent per game tick,\nwhen using the Paste schematic feature in the\ncommand mode on a server");
         public static final ConfigString        PASTE_COMMAND_SETBLOCK  = new ConfigString(     "pasteCommandNameSetblock", "setblock", "The setblock command name to use for the\nPaste schematic feature on servers, when\nusing the command-based paste mode");
@@ -43,10 +46,14 @@ public class Configs implements IConfigHandler
         public static final ConfigBoolean       PLACEMENT_RESTRICTION   = new ConfigBoolean(    "placementRestriction", false, "When enabled, the use key can only be used\nwhen holding the correct item for the targeted position,\nand the targeted position must have a missing block in the schematic", "Placement Restriction");
         public static final ConfigBoolean       RENDER_MATERIALS_IN_GUI = new ConfigBoolean(    "renderMaterialListInGuis", true, "Whether or not the material list should\nbe rendered inside GUIs");
         public static final ConfigBoolean       RENDER_THREAD_NO_TIMEOUT = new ConfigBoolean(   "renderThreadNoTimeout", true, "Removes the timeout from the rendering worker threads.\nIf you get very stuttery rendering when moving around\nor dealing with large schematics, try disabling this. It will however make\nthe schematic rendering a lot slower in some cases.");
+        public static final ConfigInteger       SCHEMATIC_COMPRESSION_LEVEL = new ConfigInteger("schematicCompressionLevel", 6, 0, 9, "The gzip compression level used when saving schematic files.\nLower values are faster but produce larger files,\nhigher values are slower but produce smaller files.\n0 = no compression, 6 = the vanilla/default level.");
+        public static final ConfigBoolean       SCHEMATIC_DATA_CACHE    = new ConfigBoolean(    "schematicDataCache", false, "If enabled, then the decoded block data of loaded schematics\nis cached uncompressed on disk (in config/litematica/schematic_cache/),\nso that loading the same unchanged schematic again is a lot faster.\nThe cache files can be much larger than the schematic files.\nDisabling this option deletes the existing cache files.");
+        public static final ConfigInteger       SCHEMATIC_DATA_CACHE_SIZE = new ConfigInteger(  "schematicDataCacheMaxSize", 1024, 1, 1000000, "The maximum total size of the schematic data cache files,\nin megabytes. The least recently used cache files\nget deleted when the cache grows larger than this.");
         public static final ConfigOptionList    SELECTION_CORNERS_MODE  = new ConfigOptionList( "selectionCornersMode", CornerSelectionMode.CORNERS, "The Area Selection corners mode to use (Corners, or Expand)");
         public static final ConfigOptionList    TOOL_HUD_ALIGNMENT      = new ConfigOptionList( "toolHudAlignment", HudAlignment.BOTTOM_LEFT, "The alignment of the \"tool HUD\", when holding the configured \"tool\"");
         public static final ConfigString        TOOL_ITEM               = new ConfigString(     "toolItem", "minecraft:stick", "The item to use as the \"tool\" for selections etc.");
         public static final ConfigBoolean       TOOL_ITEM_ENABLED       = new ConfigBoolean(    "toolItemEnabled", true, "If true, then the \"tool\" item can be used to control selections etc.", "Tool Item Enabled");
+        public static final ConfigBoolean       VERIFIER_LIVE_UPDATES   = new ConfigBoolean(    "verifierLiveUpdates", true, "If enabled, then the Schematic Verifier keeps its results up to date\nafter the verification has finished, by re-checking\nany changed blocks and re-loaded chunks within the placement.\nIf disabled, then only the already mismatched positions are re-checked.");
 
         public static final ImmutableList<IConfigBase> OPTIONS = ImmutableList.of(
                 BETTER_RENDER_ORDER,
@@ -55,7 +62,10 @@ public class Configs implements IConfigHandler
                 EASY_PLACE_HOLD_ENABLED,
                 EXECUTE_REQUIRE_TOOL,
                 FIX_RAIL_ROTATION,
+                INCREMENTAL_PLACEMENT_MOVE,
                 LOAD_ENTIRE_SCHEMATICS,
+                PADDED_BLOCK_STATE_STORAGE,
+                PARALLEL_COMPRESSION,
                 PICK_BLOCK_ENABLED,
                 PLACEMENT_RESTRICTION,
                 RENDER_MATERIALS_IN_GUI,
@@ -63,11 +73,15 @@ public class Configs implements IConfigHandler
                 SELECTION_CORNERS_MODE,
                 TOOL_HUD_ALIGNMENT,
                 TOOL_ITEM_ENABLED,
+                VERIFIER_LIVE_UPDATES,
 
                 PASTE_COMMAND_INTERVAL,
                 PASTE_COMMAND_LIMIT,
                 PASTE_COMMAND_SETBLOCK,
                 PICK_BLOCKABLE_SLOTS,
+                SCHEMATIC_COMPRESSION_LEVEL,
+                SCHEMATIC_DATA_CACHE,
+                SCHEMATIC_DATA_CACHE_SIZE,
                 TOOL_ITEM
         );
     }
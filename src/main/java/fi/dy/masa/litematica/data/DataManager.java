@@ -17,6 +17,7 @@ import fi.dy.masa.litematica.materials.MaterialCache;
 import fi.dy.masa.litematica.materials.MaterialListBase;
 import fi.dy.masa.litematica.materials.MaterialListHudRenderer;
 import fi.dy.masa.litematica.render.infohud.InfoHud;
+import fi.dy.masa.litematica.schematic.SchematicMetadataCache;
 import fi.dy.masa.litematica.schematic.placement.SchematicPlacementManager;
 import fi.dy.masa.litematica.schematic.projects.SchematicProjectsManager;
 import fi.dy.masa.litematica.selection.AreaSelectionSimple;
@@ -237,6 +238,7 @@ public class DataManager implements IDirectoryCache
     {
         save(false);
         MaterialCache.getInstance().writeToFile();
+        SchematicMetadataCache.getInstance().writeToFile();
     }
 
     public static void save(boolean forceSave)
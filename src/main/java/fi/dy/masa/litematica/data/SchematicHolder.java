@@ -1,16 +1,30 @@
 package fi.dy.masa.litematica.data;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import javax.annotation.Nullable;
+import fi.dy.masa.litematica.LiteModLitematica;
 import fi.dy.masa.litematica.schematic.LitematicaSchematic;
 
+/**
+ * Holds the loaded schematics. Schematics loaded from files are shared between all the
+ * placements using them, so that the same unchanged file only gets loaded once.
+ * The schematics that were loaded only for placements (and not by the user via
+ * {@link #addSchematic(LitematicaSchematic, boolean)}) are not in the list of loaded schematics.
+ * They are reference counted, and they get released once the last placement using them is removed.
+ * A shared schematic that gets edited in memory is no longer shared with any later loads of the file.
+ */
 public class SchematicHolder
 {
     private static final SchematicHolder INSTANCE = new SchematicHolder();
     private final List<LitematicaSchematic> schematics = new ArrayList<>();
+    private final Map<String, SharedSchematic> sharedSchematicsByKey = new HashMap<>();
+    private final Map<LitematicaSchematic, SharedSchematic> sharedSchematics = new HashMap<>();
 
     public static SchematicHolder getInstance()
     {
@@ -20,24 +34,36 @@ public class SchematicHolder
     public void clearLoadedSchematics()
     {
         this.schematics.clear();
+        this.sharedSchematicsByKey.clear();
+        this.sharedSchematics.clear();
     }
 
+    /**
+     * Returns the already loaded schematic for the given file, if the file hasn't changed since it was loaded,
+     * or otherwise loads it. A newly loaded schematic gets removed once the last placement using it is removed,
+     * unless it also gets added via {@link #addSchematic(LitematicaSchematic, boolean)}.
+     */
     @Nullable
     public LitematicaSchematic getOrLoad(File file)
     {
-        for (LitematicaSchematic schematic : this.schematics)
+        if (file.getName().endsWith(LitematicaSchematic.FILE_EXTENSION) == false)
         {
-            if (file.equals(schematic.getFile()))
-            {
-                return schematic;
-            }
+            file = new File(file.getParentFile(), file.getName() + LitematicaSchematic.FILE_EXTENSION);
+        }
+
+        String key = getContentKey(file);
+        SharedSchematic shared = key != null ? this.sharedSchematicsByKey.get(key) : null;
+
+        if (shared != null)
+        {
+            return shared.schematic;
         }
 
         LitematicaSchematic schematic = LitematicaSchematic.createFromFile(file.getParentFile(), file.getName());
 
         if (schematic != null)
         {
-            this.schematics.add(schematic);
+            this.registerShared(schematic, key, false);
         }
 
         return schematic;
@@ -45,6 +71,20 @@ public class SchematicHolder
 
     public void addSchematic(LitematicaSchematic schematic, boolean allowDuplicates)
     {
+        SharedSchematic shared = this.sharedSchematics.get(schematic);
+
+        // An already loaded shared schematic, now loaded explicitly by the user
+        if (shared != null)
+        {
+            if (shared.pinned == false)
+            {
+                shared.pinned = true;
+                this.schematics.add(schematic);
+            }
+
+            return;
+        }
+
         if (allowDuplicates || this.schematics.contains(schematic) == false)
         {
             if (allowDuplicates == false && schematic.getFile() != null)
@@ -59,6 +99,11 @@ public class SchematicHolder
             }
 
             this.schematics.add(schematic);
+
+            if (schematic.getFile() != null)
+            {
+                this.registerShared(schematic, getContentKey(schematic.getFile()), true);
+            }
         }
     }
 
@@ -66,6 +111,7 @@ public class SchematicHolder
     {
         if (this.schematics.remove(schematic))
         {
+            this.unregisterShared(schematic);
             DataManager.getSchematicPlacementManager().removeAllPlacementsOfSchematic(schematic);
             return true;
         }
@@ -73,8 +119,147 @@ public class SchematicHolder
         return false;
     }
 
+    /**
+     * Called when a placement using the given schematic is added
+     */
+    public void retainSchematic(LitematicaSchematic schematic)
+    {
+        SharedSchematic shared = this.sharedSchematics.get(schematic);
+
+        if (shared != null)
+        {
+            shared.refCount++;
+        }
+    }
+
+    /**
+     * Called when a placement using the given schematic is removed.
+     * Removes the schematic if it was only loaded for the placements, and this was the last one of them.
+     */
+    public void releaseSchematic(LitematicaSchematic schematic)
+    {
+        SharedSchematic shared = this.sharedSchematics.get(schematic);
+
+        if (shared != null && --shared.refCount <= 0 && shared.pinned == false)
+        {
+            this.unregisterShared(schematic);
+        }
+    }
+
+    /**
+     * Releases the given schematic, if it was loaded only for placements, and no placement is using it.
+     * This is used when creating the placement for a just loaded schematic failed.
+     */
+    public void releaseIfUnused(LitematicaSchematic schematic)
+    {
+        SharedSchematic shared = this.sharedSchematics.get(schematic);
+
+        if (shared != null && shared.refCount <= 0 && shared.pinned == false)
+        {
+            this.unregisterShared(schematic);
+        }
+    }
+
+    /**
+     * Returns true if the given schematic is used by more than one placement, only because
+     * they were loaded from the same unchanged file, and not because the user created them
+     * from the same loaded schematic. Such a schematic needs to be copied before editing it.
+     */
+    public boolean isSharedByLoadsOnly(LitematicaSchematic schematic)
+    {
+        SharedSchematic shared = this.sharedSchematics.get(schematic);
+        return shared != null && shared.pinned == false && shared.refCount > 1;
+    }
+
+    /**
+     * Called before the given schematic gets edited in memory.
+     * Any later loads of the same file will read it from the disk again,
+     * instead of sharing the edited schematic.
+     */
+    public void onSchematicEdited(LitematicaSchematic schematic)
+    {
+        SharedSchematic shared = this.sharedSchematics.get(schematic);
+
+        if (shared != null)
+        {
+            this.unregisterKey(shared);
+        }
+    }
+
     public Collection<LitematicaSchematic> getAllSchematics()
     {
         return this.schematics;
     }
+
+    private void registerShared(LitematicaSchematic schematic, @Nullable String key, boolean pinned)
+    {
+        SharedSchematic shared = new SharedSchematic(schematic, key, pinned);
+        this.sharedSchematics.put(schematic, shared);
+
+        // Files without a valid content key are still reference counted, but never shared
+        if (key != null)
+        {
+            SharedSchematic old = this.sharedSchematicsByKey.get(key);
+
+            // Keep sharing the first instance, if the same file gets loaded again as a duplicate
+            if (old == null)
+            {
+                this.sharedSchematicsByKey.put(key, shared);
+            }
+        }
+    }
+
+    private void unregisterShared(LitematicaSchematic schematic)
+    {
+        SharedSchematic shared = this.sharedSchematics.remove(schematic);
+
+        if (shared != null)
+        {
+            this.unregisterKey(shared);
+        }
+    }
+
+    private void unregisterKey(SharedSchematic shared)
+    {
+        if (shared.key != null && this.sharedSchematicsByKey.get(shared.key) == shared)
+        {
+            this.sharedSchematicsByKey.remove(shared.key);
+        }
+    }
+
+    /**
+     * Creates the key identifying the contents of the given schematic file.
+     * The gzip trailer at the end of the file contains the CRC32 and the size of the
+     * uncompressed data, so it works as a content checksum without having to read the whole file.
+     * @return the key, or null if the file can't be read
+     */
+    @Nullable
+    private static String getContentKey(File file)
+    {
+        try
+        {
+            final long checksum = LitematicaSchematic.getFileContentChecksum(file);
+            return String.format("%s:%d:%016X", file.getCanonicalPath(), file.length(), checksum);
+        }
+        catch (IOException e)
+        {
+            LiteModLitematica.logger.warn("Failed to read the checksum of the schematic file '{}'", file.getAbsolutePath());
+            return null;
+        }
+    }
+
+    private static class SharedSchematic
+    {
+        private final LitematicaSchematic schematic;
+        @Nullable private final String key;
+        private boolean pinned;
+        private int refCount;
+
+        public SharedSchematic(LitematicaSchematic schematic, @Nullable String key, boolean pinned)
+        {
+            this.schematic = schematic;
+            this.key = key;
+            this.pinned = pinned;
+        }
+    }
 }
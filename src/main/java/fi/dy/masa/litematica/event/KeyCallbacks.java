@@ -14,6 +14,7 @@ import fi.dy.masa.litematica.gui.GuiSchematicPlacementsList;
 import fi.dy.masa.litematica.gui.GuiSchematicVerifier;
 import fi.dy.masa.litematica.gui.GuiSubRegionConfiguration;
 import fi.dy.masa.litematica.materials.MaterialListBase;
+import fi.dy.masa.litematica.schematic.SchematicContainerCache;
 import fi.dy.masa.litematica.schematic.placement.SchematicPlacement;
 import fi.dy.masa.litematica.schematic.placement.SubRegionPlacement;
 import fi.dy.masa.litematica.selection.AreaSelection;
@@ -28,6 +29,7 @@ import fi.dy.masa.litematica.util.SchematicWorldRefresher;
 import fi.dy.masa.litematica.util.ToolUtils;
 import fi.dy.masa.litematica.util.WorldUtils;
 import fi.dy.masa.malilib.config.IConfigBoolean;
+import fi.dy.masa.malilib.config.options.ConfigBoolean;
 import fi.dy.masa.malilib.config.options.ConfigString;
 import fi.dy.masa.malilib.hotkeys.IHotkeyCallback;
 import fi.dy.masa.malilib.hotkeys.IKeybind;
@@ -48,6 +50,7 @@ public class KeyCallbacks
         ValueChangeCallback valueChangeCallback = new ValueChangeCallback();
 
         Configs.Generic.PICK_BLOCKABLE_SLOTS.setValueChangeCallback(valueChangeCallback);
+        Configs.Generic.SCHEMATIC_DATA_CACHE.setValueChangeCallback(new ValueChangeCallbackBoolean());
 
         Hotkeys.EXECUTE_OPERATION.getKeybind().setCallback(callbackHotkeys);
         Hotkeys.LAYER_MODE_NEXT.getKeybind().setCallback(callbackHotkeys);
@@ -115,6 +118,18 @@ public class KeyCallbacks
         }
     }
 
+    private static class ValueChangeCallbackBoolean implements IValueChangeCallback<ConfigBoolean>
+    {
+        @Override
+        public void onValueChanged(ConfigBoolean config)
+        {
+            if (config == Configs.Generic.SCHEMATIC_DATA_CACHE && config.getBooleanValue() == false)
+            {
+                SchematicContainerCache.clearCache();
+            }
+        }
+    }
+
     private static class RenderToggle extends KeyCallbackToggleBooleanConfigWithMessage
     {
         public RenderToggle(IConfigBoolean config)
@@ -7,6 +7,9 @@ import fi.dy.masa.litematica.data.SchematicHolder;
 import fi.dy.masa.litematica.gui.GuiMainMenu.ButtonListenerChangeMenu;
 import fi.dy.masa.litematica.gui.base.GuiSchematicBrowserBase;
 import fi.dy.masa.litematica.materials.MaterialListSchematic;
+import fi.dy.masa.litematica.scheduler.TaskScheduler;
+import fi.dy.masa.litematica.scheduler.tasks.TaskLoadSchematic;
+import fi.dy.masa.litematica.schematic.ISchematicLoadListener;
 import fi.dy.masa.litematica.schematic.LitematicaSchematic;
 import fi.dy.masa.litematica.schematic.placement.SchematicPlacement;
 import fi.dy.masa.litematica.schematic.placement.SchematicPlacementManager;
@@ -143,7 +146,12 @@ public class GuiSchematicLoad extends GuiSchematicBrowserBase
             FileType fileType = FileType.fromFile(entry.getFullPath());
             boolean warnType = false;
 
-            if (fileType == FileType.LITEMATICA_SCHEMATIC)
+            if (fileType == FileType.LITEMATICA_SCHEMATIC && this.type == Type.LOAD_SCHEMATIC)
+            {
+                this.loadSchematicAsync(file);
+                return;
+            }
+            else if (fileType == FileType.LITEMATICA_SCHEMATIC)
             {
                 schematic = LitematicaSchematic.createFromFile(entry.getDirectory(), entry.getName());
             }
@@ -166,20 +174,7 @@ public class GuiSchematicLoad extends GuiSchematicBrowserBase
             {
                 if (this.type == Type.LOAD_SCHEMATIC)
                 {
-                    SchematicHolder.getInstance().addSchematic(schematic, true);
-                    this.gui.addMessage(MessageType.SUCCESS, "litematica.info.schematic_load.schematic_loaded", file.getName());
-
-                    if (this.gui.checkboxCreatePlacementOnLoad.isChecked())
-                    {
-                        BlockPos pos = new BlockPos(this.gui.mc.player.getPositionVector());
-                        String name = schematic.getMetadata().getName();
-                        boolean enabled = GuiScreen.isShiftKeyDown() == false;
-
-                        SchematicPlacementManager manager = DataManager.getSchematicPlacementManager();
-                        SchematicPlacement placement = SchematicPlacement.createFor(schematic, pos, name, enabled, enabled);
-                        manager.addSchematicPlacement(placement, true);
-                        manager.setSelectedSchematicPlacement(placement);
-                    }
+                    this.createLoadListener(file).onSchematicLoaded(schematic);
                 }
                 else if (this.type == Type.MATERIAL_LIST)
                 {
@@ -207,6 +202,37 @@ public class GuiSchematicLoad extends GuiSchematicBrowserBase
             }
         }
 
+        private void loadSchematicAsync(File file)
+        {
+            TaskScheduler scheduler = TaskScheduler.getInstance();
+
+            // Pressing the button again for a schematic that is still loading cancels the loading
+            for (TaskLoadSchematic task : scheduler.getTasksOfType(TaskLoadSchematic.class))
+            {
+                if (task.getFile().equals(file))
+                {
+                    task.cancel();
+                    return;
+                }
+            }
+
+            scheduler.scheduleTask(new TaskLoadSchematic(file, this.createLoadListener(file)), 1);
+            this.gui.addMessage(MessageType.INFO, "litematica.message.schematic_load_started", file.getName());
+        }
+
+        /**
+         * Creates the listener for registering the loaded schematic. The GUI state is captured
+         * here, because the GUI may have been closed by the time the schematic finishes loading.
+         */
+        private ISchematicLoadListener createLoadListener(File file)
+        {
+            boolean createPlacement = this.gui.checkboxCreatePlacementOnLoad.isChecked();
+            boolean enabled = GuiScreen.isShiftKeyDown() == false;
+            BlockPos pos = new BlockPos(this.gui.mc.player.getPositionVector());
+
+            return new SchematicLoadListener(file.getName(), createPlacement, enabled, pos);
+        }
+
         @Override
         public void actionPerformedWithButton(ButtonGeneric control, int mouseButton)
         {
@@ -232,6 +258,38 @@ public class GuiSchematicLoad extends GuiSchematicBrowserBase
         }
     }
 
+    private static class SchematicLoadListener implements ISchematicLoadListener
+    {
+        private final String fileName;
+        private final boolean createPlacement;
+        private final boolean enabled;
+        private final BlockPos pos;
+
+        public SchematicLoadListener(String fileName, boolean createPlacement, boolean enabled, BlockPos pos)
+        {
+            this.fileName = fileName;
+            this.createPlacement = createPlacement;
+            this.enabled = enabled;
+            this.pos = pos;
+        }
+
+        @Override
+        public void onSchematicLoaded(LitematicaSchematic schematic)
+        {
+            SchematicHolder.getInstance().addSchematic(schematic, true);
+            InfoUtils.showGuiOrInGameMessage(MessageType.SUCCESS, "litematica.info.schematic_load.schematic_loaded", this.fileName);
+
+            if (this.createPlacement)
+            {
+                String name = schematic.getMetadata().getName();
+                SchematicPlacementManager manager = DataManager.getSchematicPlacementManager();
+                SchematicPlacement placement = SchematicPlacement.createFor(schematic, this.pos, name, this.enabled, this.enabled);
+                manager.addSchematicPlacement(placement, true);
+                manager.setSelectedSchematicPlacement(placement);
+            }
+        }
+    }
+
     private static class CheckboxListener implements ISelectionListener<WidgetCheckBox>
     {
         @Override
@@ -119,11 +119,8 @@ public class GuiSchematicSave extends GuiSchematicSaveBase implements ICompletio
                     LitematicaSchematic schematic = this.gui.schematic;
                     schematic.getMetadata().setTimeModified(System.currentTimeMillis());
 
-                    if (schematic.writeToFile(dir, fileName, GuiScreen.isShiftKeyDown()))
-                    {
-                        this.gui.addMessage(MessageType.SUCCESS, "litematica.message.schematic_saved_as", fileName);
-                        this.gui.getListWidget().refreshEntries();
-                    }
+                    // The GUI gets refreshed via onTaskCompleted() once the schematic has been written
+                    schematic.writeToFileAsync(dir, fileName, GuiScreen.isShiftKeyDown(), this.gui);
                 }
                 else
                 {
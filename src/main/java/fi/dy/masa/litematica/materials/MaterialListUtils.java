@@ -27,7 +27,6 @@ import net.minecraft.init.Blocks;
 import net.minecraft.item.ItemStack;
 import net.minecraft.util.EnumFacing;
 import net.minecraft.util.math.BlockPos;
-import net.minecraft.util.math.Vec3i;
 import net.minecraft.world.World;
 
 public class MaterialListUtils
@@ -47,20 +46,14 @@ public class MaterialListUtils
 
             if (container != null)
             {
-                Vec3i size = container.getSize();
-                final int sizeX = size.getX();
-                final int sizeY = size.getY();
-                final int sizeZ = size.getZ();
+                // The counts per palette id are cached in the container until it gets modified
+                int[] counts = container.getBlockCounts();
 
-                for (int y = 0; y < sizeY; ++y)
+                for (int id = 0; id < counts.length; ++id)
                 {
-                    for (int z = 0; z < sizeZ; ++z)
+                    if (counts[id] > 0)
                     {
-                        for (int x = 0; x < sizeX; ++x)
-                        {
-                            IBlockState state = container.get(x, y, z);
-                            countsTotal.addTo(state, 1);
-                        }
+                        countsTotal.addTo(container.getStateForId(id), counts[id]);
                     }
                 }
             }
@@ -0,0 +1,189 @@
+package fi.dy.masa.litematica.scheduler.tasks;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import javax.annotation.Nullable;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import fi.dy.masa.litematica.LiteModLitematica;
+import fi.dy.masa.litematica.render.infohud.IInfoHudRenderer;
+import fi.dy.masa.litematica.render.infohud.InfoHud;
+import fi.dy.masa.litematica.render.infohud.RenderPhase;
+import fi.dy.masa.litematica.scheduler.TaskBase;
+import fi.dy.masa.litematica.schematic.ISchematicLoadListener;
+import fi.dy.masa.litematica.schematic.LitematicaSchematic;
+import fi.dy.masa.litematica.schematic.SchematicLoadProgress;
+import fi.dy.masa.malilib.gui.Message.MessageType;
+import fi.dy.masa.malilib.util.InfoUtils;
+import net.minecraft.client.resources.I18n;
+import net.minecraft.util.text.TextFormatting;
+
+/**
+ * Reads a schematic file on a background thread, and shows the progress in the info HUD.
+ * The loaded schematic is passed to the listener on the client thread, once the task finishes.
+ * If the task gets cancelled or removed before that, the reading is stopped
+ * and the partially read schematic is discarded.
+ */
+public class TaskLoadSchematic extends TaskBase implements IInfoHudRenderer
+{
+    private static final ThreadFactory THREAD_FACTORY = (new ThreadFactoryBuilder()).setNameFormat("Litematica Schematic Loader %d").setDaemon(true).build();
+    private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor(THREAD_FACTORY);
+
+    private final File file;
+    private final SchematicLoadProgress progress;
+    private final ISchematicLoadListener listener;
+    private final List<String> infoHudLines = new ArrayList<>();
+    @Nullable private Future<LitematicaSchematic> future;
+    private boolean finished;
+
+    public TaskLoadSchematic(File file, ISchematicLoadListener listener)
+    {
+        this.file = file;
+        this.listener = listener;
+        this.progress = new SchematicLoadProgress(file.length());
+    }
+
+    public File getFile()
+    {
+        return this.file;
+    }
+
+    /**
+     * Cancels the loading. The task will be removed on the next tick.
+     */
+    public void cancel()
+    {
+        this.progress.cancel();
+    }
+
+    @Override
+    public void init()
+    {
+        final File file = this.file;
+        final SchematicLoadProgress progress = this.progress;
+
+        this.future = EXECUTOR.submit(new Callable<LitematicaSchematic>()
+        {
+            @Override
+            public LitematicaSchematic call() throws Exception
+            {
+                return LitematicaSchematic.readFromFile(file, progress);
+            }
+        });
+
+        this.updateInfoHudLines();
+        InfoHud.getInstance().addInfoHudRenderer(this, true);
+    }
+
+    @Override
+    public boolean canExecute()
+    {
+        return this.future != null;
+    }
+
+    @Override
+    public boolean shouldRemove()
+    {
+        return this.progress.isCancelled();
+    }
+
+    @Override
+    public boolean execute()
+    {
+        this.updateInfoHudLines();
+        this.finished = this.future.isDone();
+
+        return this.finished;
+    }
+
+    @Override
+    public void stop()
+    {
+        InfoHud.getInstance().removeInfoHudRenderer(this, false);
+
+        Future<LitematicaSchematic> future = this.future;
+        // Don't keep the reference to the result or the partially read schematic
+        this.future = null;
+
+        if (future == null)
+        {
+            return;
+        }
+
+        if (this.finished == false || this.progress.isCancelled())
+        {
+            this.progress.cancel();
+            future.cancel(false);
+            InfoUtils.showGuiOrInGameMessage(MessageType.WARNING, "litematica.message.schematic_load_cancelled", this.file.getName());
+            return;
+        }
+
+        try
+        {
+            LitematicaSchematic schematic = future.get();
+
+            if (schematic != null)
+            {
+                this.listener.onSchematicLoaded(schematic);
+            }
+            else
+            {
+                InfoUtils.showGuiOrInGameMessage(MessageType.ERROR, "litematica.error.schematic_read_from_file_failed.cant_read", this.file.getAbsolutePath());
+            }
+        }
+        catch (ExecutionException e)
+        {
+            if ((e.getCause() instanceof CancellationException) == false)
+            {
+                LiteModLitematica.logger.warn("Exception while reading the schematic from file '{}'", this.file.getAbsolutePath(), e.getCause());
+                InfoUtils.showGuiOrInGameMessage(MessageType.ERROR, "litematica.error.schematic_read_from_file_failed.exception", this.file.getAbsolutePath());
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            LiteModLitematica.logger.warn("Interrupted while waiting for the schematic to load from file '{}'", this.file.getAbsolutePath());
+        }
+        catch (Exception e)
+        {
+            LiteModLitematica.logger.warn("Exception while finishing the loading of the schematic from file '{}'", this.file.getAbsolutePath(), e);
+            InfoUtils.showGuiOrInGameMessage(MessageType.ERROR, "litematica.error.schematic_read_from_file_failed.exception", this.file.getAbsolutePath());
+        }
+    }
+
+    private void updateInfoHudLines()
+    {
+        this.infoHudLines.clear();
+
+        final long total = Math.max(this.progress.getTotalBytes(), 1L);
+        final long read = Math.min(this.progress.getBytesRead(), total);
+        final int percent = (int) (read * 100L / total);
+
+        String pre = TextFormatting.WHITE.toString() + TextFormatting.BOLD.toString();
+        String title = I18n.format("litematica.gui.label.schematic_load.loading", this.file.getName());
+        this.infoHudLines.add(String.format("%s%s%s", pre, title, TextFormatting.RESET.toString()));
+        this.infoHudLines.add(I18n.format("litematica.gui.label.schematic_load.progress_bytes",
+                String.format("%.1f", read / 1048576.0), String.format("%.1f", total / 1048576.0), percent));
+        this.infoHudLines.add(I18n.format("litematica.gui.label.schematic_load.progress_regions",
+                this.progress.getRegionsRead(), this.progress.getRegionCount()));
+    }
+
+    @Override
+    public boolean getShouldRenderText(RenderPhase phase)
+    {
+        return phase == RenderPhase.POST;
+    }
+
+    @Override
+    public List<String> getText(RenderPhase phase)
+    {
+        return this.infoHudLines;
+    }
+}
@@ -2,10 +2,7 @@ package fi.dy.masa.litematica.scheduler.tasks;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
-import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.ImmutableCollection;
 import fi.dy.masa.litematica.config.Configs;
 import fi.dy.masa.litematica.render.infohud.IInfoHudRenderer;
@@ -18,6 +15,10 @@ import fi.dy.masa.litematica.world.SchematicWorldHandler;
 import fi.dy.masa.litematica.world.WorldSchematic;
 import fi.dy.masa.malilib.gui.Message.MessageType;
 import fi.dy.masa.malilib.util.InfoUtils;
+import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
 import net.minecraft.block.Block;
 import net.minecraft.block.state.IBlockState;
 import net.minecraft.client.Minecraft;
@@ -38,7 +39,8 @@ import net.minecraft.world.gen.structure.StructureBoundingBox;
 
 public class TaskPasteSchematicSetblock extends TaskBase implements IInfoHudRenderer
 {
-    private final ArrayListMultimap<ChunkPos, StructureBoundingBox> boxesInChunks = ArrayListMultimap.create();
+    /** Keyed by <b>ChunkPos.asLong()</b>. The insertion order is kept, so that the box in progress is continued on the next tick. */
+    private final Long2ObjectLinkedOpenHashMap<List<StructureBoundingBox>> boxesInChunks = new Long2ObjectLinkedOpenHashMap<>();
     private final List<String> infoHudLines = new ArrayList<>();
     private final int maxCommandsPerTick;
     private final boolean changedBlockOnly;
@@ -55,12 +57,17 @@ public class TaskPasteSchematicSetblock extends TaskBase implements IInfoHudRend
         this.changedBlockOnly = changedBlocksOnly;
         this.maxCommandsPerTick = Configs.Generic.PASTE_COMMAND_LIMIT.getIntegerValue();
 
-        Set<ChunkPos> touchedChunks = placement.getTouchedChunks();
+        LongIterator iter = placement.getTouchedChunkKeys().iterator();
 
-        for (ChunkPos pos : touchedChunks)
+        while (iter.hasNext())
         {
-            ImmutableCollection<StructureBoundingBox> boxes = placement.getBoxesWithinChunk(pos.x, pos.z).values();
-            this.boxesInChunks.putAll(pos, boxes);
+            long chunkKey = iter.nextLong();
+            ImmutableCollection<StructureBoundingBox> boxes = placement.getBoxesWithinChunk(PositionUtils.getChunkKeyX(chunkKey), PositionUtils.getChunkKeyZ(chunkKey)).values();
+
+            if (boxes.isEmpty() == false)
+            {
+                this.boxesInChunks.put(chunkKey, new ArrayList<>(boxes));
+            }
         }
 
         InfoHud.getInstance().addInfoHudRenderer(this, true);
@@ -98,26 +105,31 @@ public class TaskPasteSchematicSetblock extends TaskBase implements IInfoHudRend
 
         if (this.boxesInChunks.isEmpty() == false)
         {
-            Set<ChunkPos> keys = new HashSet<>(this.boxesInChunks.keySet());
+            ObjectIterator<Long2ObjectMap.Entry<List<StructureBoundingBox>>> iter = this.boxesInChunks.long2ObjectEntrySet().fastIterator();
 
-            for (ChunkPos pos : keys)
+            while (iter.hasNext())
             {
-                if (this.canProcessChunk(pos, worldSchematic, worldClient))
+                Long2ObjectMap.Entry<List<StructureBoundingBox>> entry = iter.next();
+                long chunkKey = entry.getLongKey();
+                final int chunkX = PositionUtils.getChunkKeyX(chunkKey);
+                final int chunkZ = PositionUtils.getChunkKeyZ(chunkKey);
+
+                if (this.canProcessChunk(chunkX, chunkZ, worldSchematic, worldClient))
                 {
-                    List<StructureBoundingBox> boxes = this.boxesInChunks.get(pos);
+                    List<StructureBoundingBox> boxes = entry.getValue();
 
                     for (int i = 0; i < boxes.size(); ++i)
                     {
                         StructureBoundingBox box = boxes.get(i);
 
-                        if (this.processBox(pos, box, worldSchematic, worldClient, mc.player))
+                        if (this.processBox(chunkX, chunkZ, box, worldSchematic, worldClient, mc.player))
                         {
                             boxes.remove(i);
                             --i;
 
                             if (boxes.isEmpty())
                             {
-                                this.boxesInChunks.remove(pos, boxes);
+                                iter.remove();
                                 ++processed;
                             }
                         }
@@ -145,16 +157,16 @@ public class TaskPasteSchematicSetblock extends TaskBase implements IInfoHudRend
         return false;
     }
 
-    protected boolean canProcessChunk(ChunkPos pos, World worldSchematic, World worldClient)
+    protected boolean canProcessChunk(int chunkX, int chunkZ, World worldSchematic, World worldClient)
     {
-        if (worldSchematic.getChunkProvider().isChunkGeneratedAt(pos.x, pos.z) == false)
+        if (worldSchematic.getChunkProvider().isChunkGeneratedAt(chunkX, chunkZ) == false)
         {
             return false;
         }
 
-        for (int cx = pos.x - 1; cx <= pos.x + 1; ++cx)
+        for (int cx = chunkX - 1; cx <= chunkX + 1; ++cx)
         {
-            for (int cz = pos.z - 1; cz <= pos.z + 1; ++cz)
+            for (int cz = chunkZ - 1; cz <= chunkZ + 1; ++cz)
             {
                 if (worldClient.getChunkProvider().isChunkGeneratedAt(cx, cz) == false)
                 {
@@ -167,7 +179,7 @@ public class TaskPasteSchematicSetblock extends TaskBase implements IInfoHudRend
         return true;
     }
 
-    protected boolean processBox(ChunkPos pos, StructureBoundingBox box,
+    protected boolean processBox(int chunkX, int chunkZ, StructureBoundingBox box,
             WorldSchematic worldSchematic, WorldClient worldClient, EntityPlayerSP player)
     {
         final int minX = box.minX;
@@ -177,8 +189,8 @@ public class TaskPasteSchematicSetblock extends TaskBase implements IInfoHudRend
         final int maxY = box.maxY;
         final int maxZ = box.maxZ;
         BlockPos.MutableBlockPos posMutable = new BlockPos.MutableBlockPos();
-        Chunk chunkSchematic = worldSchematic.getChunkProvider().getLoadedChunk(pos.x, pos.z);
-        Chunk chunkClient = worldClient.getChunkProvider().getLoadedChunk(pos.x, pos.z);
+        Chunk chunkSchematic = worldSchematic.getChunkProvider().getLoadedChunk(chunkX, chunkZ);
+        Chunk chunkClient = worldClient.getChunkProvider().getLoadedChunk(chunkX, chunkZ);
 
         if (this.boxInProgress == false)
         {
@@ -315,7 +327,13 @@ public class TaskPasteSchematicSetblock extends TaskBase implements IInfoHudRend
         if (player != null)
         {
             List<ChunkPos> list = new ArrayList<>();
-            list.addAll(this.boxesInChunks.keySet());
+            LongIterator iter = this.boxesInChunks.keySet().iterator();
+
+            while (iter.hasNext())
+            {
+                list.add(PositionUtils.getChunkPosFromKey(iter.nextLong()));
+            }
+
             PositionUtils.CHUNK_POS_COMPARATOR.setReferencePosition(new BlockPos(player.getPositionVector()));
             PositionUtils.CHUNK_POS_COMPARATOR.setClosestFirst(true);
             Collections.sort(list, PositionUtils.CHUNK_POS_COMPARATOR);
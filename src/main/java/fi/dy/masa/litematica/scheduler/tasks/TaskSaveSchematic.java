@@ -5,7 +5,6 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 import java.util.UUID;
@@ -25,6 +24,8 @@ import fi.dy.masa.malilib.gui.Message.MessageType;
 import fi.dy.masa.malilib.interfaces.ICompletionListener;
 import fi.dy.masa.malilib.util.InfoUtils;
 import fi.dy.masa.malilib.util.WorldUtils;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
 import net.minecraft.client.Minecraft;
 import net.minecraft.client.resources.I18n;
 import net.minecraft.entity.player.EntityPlayer;
@@ -39,7 +40,7 @@ public class TaskSaveSchematic extends TaskBase implements IInfoHudRenderer
     private final LitematicaSchematic schematic;
     private final BlockPos origin;
     private final ImmutableMap<String, Box> subRegions;
-    private final Set<ChunkPos> requiredChunks = new HashSet<>();
+    private final LongOpenHashSet requiredChunks = new LongOpenHashSet();
     private final Set<UUID> existingEntities = new HashSet<>();
     private final List<String> infoHudLines = new ArrayList<>();
     @Nullable private final File dir;
@@ -59,7 +60,7 @@ public class TaskSaveSchematic extends TaskBase implements IInfoHudRenderer
         this.schematic = schematic;
         this.origin = area.getEffectiveOrigin();
         this.subRegions = area.getAllSubRegions();
-        this.requiredChunks.addAll(PositionUtils.getTouchedChunksForBoxes(area.getAllSubRegionBoxes()));
+        this.requiredChunks.addAll(PositionUtils.getTouchedChunkKeysForBoxes(area.getAllSubRegionBoxes()));
         this.dir = dir;
         this.fileName = fileName;
         this.takeEntities = takeEntities;
@@ -94,14 +95,14 @@ public class TaskSaveSchematic extends TaskBase implements IInfoHudRenderer
 
         if (world != null && worldClient != null)
         {
-            Iterator<ChunkPos> iter = this.requiredChunks.iterator();
+            LongIterator iter = this.requiredChunks.iterator();
             int processed = 0;
 
             while (iter.hasNext())
             {
-                ChunkPos pos = iter.next();
-                int chunkX = pos.x;
-                int chunkZ = pos.z;
+                long chunkKey = iter.nextLong();
+                int chunkX = PositionUtils.getChunkKeyX(chunkKey);
+                int chunkZ = PositionUtils.getChunkKeyZ(chunkKey);
                 int count = 0;
 
                 for (int cx = chunkX - 1; cx <= chunkX + 1; ++cx)
@@ -119,7 +120,7 @@ public class TaskSaveSchematic extends TaskBase implements IInfoHudRenderer
                 if (count == 9)
                 {
                     ImmutableMap<String, StructureBoundingBox> volumes = PositionUtils.getBoxesWithinChunk(chunkX, chunkZ, this.subRegions);
-                    this.schematic.takeBlocksFromWorldWithinChunk(world, pos.x, pos.z, volumes, this.subRegions);
+                    this.schematic.takeBlocksFromWorldWithinChunk(world, chunkX, chunkZ, volumes, this.subRegions);
 
                     if (this.takeEntities)
                     {
@@ -152,14 +153,17 @@ public class TaskSaveSchematic extends TaskBase implements IInfoHudRenderer
             this.schematic.getMetadata().setTimeCreated(time);
             this.schematic.getMetadata().setTimeModified(time);
             this.schematic.getMetadata().setTotalBlocks(this.schematic.getTotalBlocks());
+            this.schematic.compactContainers();
+
+            boolean writeStarted = false;
 
             if (this.dir != null)
             {
-                if (this.schematic.writeToFile(this.dir, this.fileName, this.overrideFile))
-                {
-                    InfoUtils.showGuiOrActionBarMessage(MessageType.SUCCESS, "litematica.message.schematic_saved_as", this.fileName);
-                }
-                else
+                // The result message is shown and the completion listener is called once the writing finishes.
+                // The schematic was created for this task and it's not used anywhere else, so it doesn't need to be copied.
+                writeStarted = this.schematic.writeToFileAsync(this.dir, this.fileName, this.overrideFile, false, this.completionListener);
+
+                if (writeStarted == false)
                 {
                     InfoUtils.showGuiOrActionBarMessage(MessageType.ERROR, "litematica.message.error.schematic_save_failed", this.fileName);
                 }
@@ -172,7 +176,7 @@ public class TaskSaveSchematic extends TaskBase implements IInfoHudRenderer
                 InfoUtils.showGuiOrActionBarMessage(MessageType.SUCCESS, "litematica.message.in_memory_schematic_created", name);
             }
 
-            if (this.completionListener != null)
+            if (this.completionListener != null && writeStarted == false)
             {
                 this.completionListener.onTaskCompleted();
             }
@@ -193,7 +197,13 @@ public class TaskSaveSchematic extends TaskBase implements IInfoHudRenderer
         if (player != null)
         {
             List<ChunkPos> list = new ArrayList<>();
-            list.addAll(this.requiredChunks);
+            LongIterator iter = this.requiredChunks.iterator();
+
+            while (iter.hasNext())
+            {
+                list.add(PositionUtils.getChunkPosFromKey(iter.nextLong()));
+            }
+
             PositionUtils.CHUNK_POS_COMPARATOR.setReferencePosition(new BlockPos(player.getPositionVector()));
             PositionUtils.CHUNK_POS_COMPARATOR.setClosestFirst(true);
             Collections.sort(list, PositionUtils.CHUNK_POS_COMPARATOR);
@@ -0,0 +1,10 @@
+package fi.dy.masa.litematica.schematic;
+
+public interface ISchematicLoadListener
+{
+    /**
+     * Called on the client thread when a schematic has been successfully loaded
+     * @param schematic the loaded schematic
+     */
+    void onSchematicLoaded(LitematicaSchematic schematic);
+}
@@ -1,8 +1,19 @@
 package fi.dy.masa.litematica.schematic;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
@@ -10,32 +21,47 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.GZIPInputStream;
 import javax.annotation.Nullable;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Sets;
+import com.google.common.io.CountingInputStream;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import fi.dy.masa.litematica.LiteModLitematica;
-import fi.dy.masa.litematica.mixin.IMixinNBTTagLongArray;
+import fi.dy.masa.litematica.config.Configs;
 import fi.dy.masa.litematica.schematic.container.LitematicaBlockStateContainer;
 import fi.dy.masa.litematica.schematic.placement.SchematicPlacement;
 import fi.dy.masa.litematica.schematic.placement.SubRegionPlacement;
 import fi.dy.masa.litematica.selection.AreaSelection;
 import fi.dy.masa.litematica.selection.Box;
 import fi.dy.masa.litematica.util.EntityUtils;
+import fi.dy.masa.litematica.util.NBTStreamReader;
+import fi.dy.masa.litematica.util.NBTStreamWriter;
+import fi.dy.masa.litematica.util.ParallelGzipOutputStream;
 import fi.dy.masa.litematica.util.PositionUtils;
 import fi.dy.masa.litematica.util.WorldUtils;
+import fi.dy.masa.litematica.world.ChunkSchematic;
+import fi.dy.masa.litematica.world.WorldSchematic;
 import fi.dy.masa.malilib.gui.Message.MessageType;
+import fi.dy.masa.malilib.interfaces.ICompletionListener;
 import fi.dy.masa.malilib.interfaces.IStringConsumer;
 import fi.dy.masa.malilib.util.Constants;
 import fi.dy.masa.malilib.util.InfoUtils;
 import fi.dy.masa.malilib.util.NBTUtils;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
 import net.minecraft.block.Block;
+import net.minecraft.block.ITileEntityProvider;
 import net.minecraft.block.state.IBlockState;
+import net.minecraft.client.Minecraft;
 import net.minecraft.client.resources.I18n;
 import net.minecraft.entity.Entity;
 import net.minecraft.entity.EntityLivingBase;
 import net.minecraft.init.Blocks;
 import net.minecraft.inventory.IInventory;
-import net.minecraft.nbt.CompressedStreamTools;
-import net.minecraft.nbt.NBTBase;
 import net.minecraft.nbt.NBTTagCompound;
 import net.minecraft.nbt.NBTTagList;
 import net.minecraft.nbt.NBTTagLongArray;
@@ -51,22 +77,35 @@ import net.minecraft.util.math.Vec3i;
 import net.minecraft.world.NextTickListEntry;
 import net.minecraft.world.World;
 import net.minecraft.world.WorldServer;
+import net.minecraft.world.chunk.Chunk;
 import net.minecraft.world.gen.structure.StructureBoundingBox;
 
 public class LitematicaSchematic
 {
     public static final String FILE_EXTENSION = ".litematic";
     public static final int SCHEMATIC_VERSION = 4;
-    private final Map<String, LitematicaBlockStateContainer> blockContainers = new HashMap<>();
-    private final Map<String, Map<BlockPos, NBTTagCompound>> tileEntities = new HashMap<>();
-    private final Map<String, Map<BlockPos, NextTickListEntry>> pendingBlockTicks = new HashMap<>();
-    private final Map<String, List<EntityInfo>> entities = new HashMap<>();
+    private static final ThreadFactory WRITER_THREAD_FACTORY = (new ThreadFactoryBuilder()).setNameFormat("Litematica Schematic Writer %d").setDaemon(true).build();
+    private static final ExecutorService WRITER_EXECUTOR = Executors.newSingleThreadExecutor(WRITER_THREAD_FACTORY);
+    // These are concurrent maps, because the sub-regions of loaded schematics get decoded on first access,
+    // which can happen from the schematic world worker threads
+    private final Map<String, LitematicaBlockStateContainer> blockContainers = new ConcurrentHashMap<>();
+    private final Map<String, Map<BlockPos, NBTTagCompound>> tileEntities = new ConcurrentHashMap<>();
+    private final Map<String, Map<BlockPos, NextTickListEntry>> pendingBlockTicks = new ConcurrentHashMap<>();
+    private final Map<String, List<EntityInfo>> entities = new ConcurrentHashMap<>();
+    private final Map<String, PendingSubRegion> pendingSubRegions = new ConcurrentHashMap<>();
     private final Map<String, BlockPos> subRegionPositions = new HashMap<>();
     private final Map<String, BlockPos> subRegionSizes = new HashMap<>();
+    private final Map<String, TransformedPalette[]> transformedPalettes = new HashMap<>();
     private final SchematicMetadata metadata = new SchematicMetadata();
     private int totalBlocks;
     @Nullable
     private final File schematicFile;
+    // The format version and the state of the file the schematic was loaded from,
+    // for decoding the not yet decoded sub-regions from the file later
+    private int fileVersion;
+    private long fileLength;
+    private long fileLastModified;
+    private long fileChecksum;
 
     private LitematicaSchematic(@Nullable File file)
     {
@@ -96,7 +135,35 @@ public class LitematicaSchematic
 
     public int getSubRegionCount()
     {
-        return this.blockContainers.size();
+        // The positions are set for all the sub-regions when the schematic is created or read,
+        // and never changed when the sub-regions get decoded
+        return this.subRegionPositions.size();
+    }
+
+    /**
+     * Returns true if any of the sub-regions have entities
+     */
+    public boolean hasEntities()
+    {
+        // Check the not yet decoded sub-regions without decoding them. These are checked first,
+        // because a sub-region only gets removed from the pending map after its entities have been added.
+        for (PendingSubRegion pending : this.pendingSubRegions.values())
+        {
+            if (pending.hasEntities())
+            {
+                return true;
+            }
+        }
+
+        for (List<EntityInfo> list : this.entities.values())
+        {
+            if (list.isEmpty() == false)
+            {
+                return true;
+            }
+        }
+
+        return false;
     }
 
     @Nullable
@@ -252,6 +319,8 @@ public class LitematicaSchematic
 
             if (placement.isEnabled())
             {
+                this.decodeSubRegion(regionName);
+
                 BlockPos regionPos = placement.getPos();
                 BlockPos regionSize = this.subRegionSizes.get(regionName);
                 LitematicaBlockStateContainer container = this.blockContainers.get(regionName);
@@ -261,7 +330,7 @@ public class LitematicaSchematic
 
                 if (regionPos != null && regionSize != null && container != null && tileMap != null)
                 {
-                    this.placeBlocksToWorld(world, origin, regionPos, regionSize, schematicPlacement, placement, container, tileMap, scheduledTicks, notifyNeighbors);
+                    this.placeBlocksToWorld(world, regionName, origin, regionPos, regionSize, schematicPlacement, placement, container, tileMap, scheduledTicks, notifyNeighbors);
                 }
                 else
                 {
@@ -280,7 +349,7 @@ public class LitematicaSchematic
         return true;
     }
 
-    private boolean placeBlocksToWorld(World world, BlockPos origin, BlockPos regionPos, BlockPos regionSize,
+    private boolean placeBlocksToWorld(World world, String regionName, BlockPos origin, BlockPos regionPos, BlockPos regionSize,
             SchematicPlacement schematicPlacement, SubRegionPlacement placement,
             LitematicaBlockStateContainer container, Map<BlockPos, NBTTagCompound> tileMap,
             @Nullable Map<BlockPos, NextTickListEntry> scheduledTicks, boolean notifyNeighbors)
@@ -315,13 +384,15 @@ public class LitematicaSchematic
             mirrorSub = mirrorSub == Mirror.FRONT_BACK ? Mirror.LEFT_RIGHT : Mirror.FRONT_BACK;
         }
 
+        TransformedPalette palette = this.getTransformedPalette(regionName, container, mirrorMain, mirrorSub, rotationCombined);
+
         for (int y = 0; y < sizeY; ++y)
         {
             for (int z = 0; z < sizeZ; ++z)
             {
                 for (int x = 0; x < sizeX; ++x)
                 {
-                    IBlockState state = container.get(x, y, z);
+                    IBlockState state = palette.getState(container.getId(x, y, z));
 
                     posMutable.setPos(x, y, z);
                     NBTTagCompound teNBT = tileMap.get(posMutable);
@@ -334,10 +405,6 @@ public class LitematicaSchematic
                     BlockPos pos = PositionUtils.getTransformedPlacementPosition(posMutable, schematicPlacement, placement);
                     pos = pos.add(regionPosTransformed).add(origin);
 
-                    if (mirrorMain != Mirror.NONE) { state = state.withMirror(mirrorMain); }
-                    if (mirrorSub != Mirror.NONE)  { state = state.withMirror(mirrorSub); }
-                    if (rotationCombined != Rotation.NONE) { state = state.withRotation(rotationCombined); }
-
                     if (world.getBlockState(pos).getActualState(world, pos) == state)
                     {
                         continue;
@@ -459,6 +526,15 @@ public class LitematicaSchematic
     {
         Set<String> regionsTouchingChunk = schematicPlacement.getRegionsTouchingChunk(chunkPos.x, chunkPos.z);
         BlockPos origin = schematicPlacement.getOrigin();
+        ChunkSchematic schematicChunk = null;
+        Map<BlockPos, PendingTileEntity> schematicChunkTiles = null;
+
+        // The schematic world gets populated via the bulk path, which writes directly into the chunk
+        if (notifyNeighbors == false && world instanceof WorldSchematic)
+        {
+            schematicChunk = (ChunkSchematic) world.getChunk(chunkPos.x, chunkPos.z);
+            schematicChunkTiles = new HashMap<>();
+        }
 
         for (String regionName : regionsTouchingChunk)
         {
@@ -466,6 +542,8 @@ public class LitematicaSchematic
 
             if (placement.isEnabled())
             {
+                this.decodeSubRegion(regionName);
+
                 BlockPos regionPos = placement.getPos();
                 BlockPos regionSize = this.subRegionSizes.get(regionName);
                 LitematicaBlockStateContainer container = this.blockContainers.get(regionName);
@@ -474,7 +552,8 @@ public class LitematicaSchematic
 
                 if (regionPos != null && regionSize != null && container != null && tileMap != null)
                 {
-                    this.placeBlocksWithinChunk(world, chunkPos, regionName, origin, regionPos, regionSize, schematicPlacement, placement, container, tileMap, notifyNeighbors);
+                    this.placeBlocksWithinChunk(world, chunkPos, regionName, origin, regionPos, regionSize, schematicPlacement, placement,
+                            container, tileMap, notifyNeighbors, schematicChunk, schematicChunkTiles);
                 }
                 else
                 {
@@ -488,13 +567,130 @@ public class LitematicaSchematic
             }
         }
 
+        if (schematicChunk != null)
+        {
+            for (Map.Entry<BlockPos, PendingTileEntity> entry : schematicChunkTiles.entrySet())
+            {
+                BlockPos pos = entry.getKey();
+                TileEntity te = entry.getValue().createTileEntity(world);
+
+                // Remove any tile entity left over from an earlier overlapping placement at the same position
+                if (schematicChunk.getTileEntity(pos, Chunk.EnumCreateEntityType.CHECK) != null)
+                {
+                    world.removeTileEntity(pos);
+                }
+
+                if (te != null)
+                {
+                    world.setTileEntity(pos, te);
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Places the blocks of the given placement that are within the given schematic world chunk into that chunk.
+     * The chunk doesn't need to be added to the world yet. This only writes to the block storage
+     * of the chunk, so this can be called from a worker thread. The data for the tile entities
+     * is added to the given map, and the tile entities need to be created from it and added
+     * to the world on the client thread, after the chunk has been added to the world.
+     * @return false if any of the block containers were modified on another thread while they were read,
+     * in which case the chunk contents are not consistent, and the chunk needs to be built again
+     */
+    public boolean placeBlocksToSchematicChunk(ChunkSchematic chunk, SchematicPlacement schematicPlacement, Map<BlockPos, PendingTileEntity> tileEntitiesOut)
+    {
+        ChunkPos chunkPos = chunk.getPos();
+        Set<String> regionsTouchingChunk = schematicPlacement.getRegionsTouchingChunk(chunkPos.x, chunkPos.z);
+        BlockPos origin = schematicPlacement.getOrigin();
+
+        for (String regionName : regionsTouchingChunk)
+        {
+            SubRegionPlacement placement = schematicPlacement.getRelativeSubRegionPlacement(regionName);
+
+            if (placement != null && placement.isEnabled())
+            {
+                this.decodeSubRegion(regionName);
+
+                BlockPos regionPos = placement.getPos();
+                BlockPos regionSize = this.subRegionSizes.get(regionName);
+                LitematicaBlockStateContainer container = this.blockContainers.get(regionName);
+                Map<BlockPos, NBTTagCompound> tileMap = this.tileEntities.get(regionName);
+
+                if (regionPos != null && regionSize != null && container != null && tileMap != null)
+                {
+                    final long stamp = container.getReadStamp();
+
+                    try
+                    {
+                        this.placeBlocksWithinChunk(chunk.getWorld(), chunkPos, regionName, origin, regionPos, regionSize, schematicPlacement, placement,
+                                container, tileMap, false, chunk, tileEntitiesOut);
+                    }
+                    catch (RuntimeException e)
+                    {
+                        // The reads can fail if the container was being modified at the same time
+                        if (container.isReadStampValid(stamp))
+                        {
+                            throw e;
+                        }
+                    }
+
+                    if (container.isReadStampValid(stamp) == false)
+                    {
+                        return false;
+                    }
+                }
+                else
+                {
+                    LiteModLitematica.logger.warn("Invalid/missing schematic data in schematic '{}' for sub-region '{}'", this.metadata.getName(), regionName);
+                }
+            }
+        }
+
         return true;
     }
 
+    /**
+     * Spawns the entities of the given placement that are within the given chunk into the world.
+     * This is the counterpart of {@link #placeBlocksToSchematicChunk(ChunkSchematic, SchematicPlacement, Map)}
+     * and must be called on the client thread.
+     */
+    public void placeEntitiesToWorldWithinChunk(World world, ChunkPos chunkPos, SchematicPlacement schematicPlacement)
+    {
+        if (schematicPlacement.ignoreEntities())
+        {
+            return;
+        }
+
+        Set<String> regionsTouchingChunk = schematicPlacement.getRegionsTouchingChunk(chunkPos.x, chunkPos.z);
+        BlockPos origin = schematicPlacement.getOrigin();
+
+        for (String regionName : regionsTouchingChunk)
+        {
+            SubRegionPlacement placement = schematicPlacement.getRelativeSubRegionPlacement(regionName);
+
+            if (placement != null && placement.isEnabled() && placement.ignoreEntities() == false)
+            {
+                this.decodeSubRegion(regionName);
+
+                BlockPos regionPos = placement.getPos();
+                BlockPos regionSize = this.subRegionSizes.get(regionName);
+                List<EntityInfo> entityList = this.entities.get(regionName);
+
+                if (regionPos != null && regionSize != null && entityList != null)
+                {
+                    this.placeEntitiesToWorldWithinChunk(world, chunkPos, origin, regionPos, regionSize, schematicPlacement, placement, entityList);
+                }
+            }
+        }
+    }
+
     private void placeBlocksWithinChunk(World world, ChunkPos chunkPos, String regionName,
             BlockPos origin, BlockPos regionPos, BlockPos regionSize,
             SchematicPlacement schematicPlacement, SubRegionPlacement placement,
-            LitematicaBlockStateContainer container, Map<BlockPos, NBTTagCompound> tileMap, boolean notifyNeighbors)
+            LitematicaBlockStateContainer container, Map<BlockPos, NBTTagCompound> tileMap, boolean notifyNeighbors,
+            @Nullable ChunkSchematic schematicChunk, @Nullable Map<BlockPos, PendingTileEntity> schematicChunkTiles)
     {
         StructureBoundingBox bounds = schematicPlacement.getBoxWithinChunkForRegion(regionName, chunkPos.x, chunkPos.z);
 
@@ -558,13 +754,27 @@ public class LitematicaSchematic
             mirrorSub = mirrorSub == Mirror.FRONT_BACK ? Mirror.LEFT_RIGHT : Mirror.FRONT_BACK;
         }
 
+        TransformedPalette palette = this.getTransformedPalette(regionName, container, mirrorMain, mirrorSub, rotationCombined);
+
+        if (schematicChunk != null && schematicChunkTiles != null)
+        {
+            this.placeBlocksWithinSchematicChunk(schematicChunk, schematicChunkTiles, origin, regionPos, regionPosTransformed, posMinRel,
+                    startX, startZ, endX, endZ, endY, schematicPlacement, placement, container, tileMap, palette, mirrorMain, mirrorSub, rotationCombined);
+            return;
+        }
+
+        final int rowLength = endX - startX + 1;
+        final int[] rowIds = new int[rowLength];
+
         for (int y = startY; y <= endY; ++y)
         {
             for (int z = startZ; z <= endZ; ++z)
             {
+                container.getIdsAlongX(startX, y, z, rowLength, rowIds);
+
                 for (int x = startX; x <= endX; ++x)
                 {
-                    IBlockState state = container.get(x, y, z);
+                    IBlockState state = palette.getState(rowIds[x - startX]);
 
                     if (state.getBlock() == Blocks.AIR)
                     {
@@ -581,10 +791,6 @@ public class LitematicaSchematic
                     BlockPos pos = PositionUtils.getTransformedPlacementPosition(posMutable, schematicPlacement, placement);
                     pos = pos.add(regionPosTransformed).add(origin);
 
-                    if (mirrorMain != Mirror.NONE) { state = state.withMirror(mirrorMain); }
-                    if (mirrorSub != Mirror.NONE)  { state = state.withMirror(mirrorSub); }
-                    if (rotationCombined != Rotation.NONE) { state = state.withRotation(rotationCombined); }
-
                     if (teNBT != null)
                     {
                         TileEntity te = world.getTileEntity(pos);
@@ -648,6 +854,147 @@ public class LitematicaSchematic
         }
     }
 
+    /**
+     * Bulk version of the block placement for the schematic world. The block states are written
+     * directly into the block storage of the chunk, using the cached transformed palette
+     * of the sub-region. The tile entity data is prepared in a separate pass after all the blocks
+     * have been placed, and it's only added to the given map. The tile entities themselves
+     * are created from it on the client thread.
+     */
+    private void placeBlocksWithinSchematicChunk(ChunkSchematic chunk, Map<BlockPos, PendingTileEntity> tileEntitiesOut,
+            BlockPos origin, BlockPos regionPos, BlockPos regionPosTransformed, BlockPos posMinRel,
+            int startX, int startZ, int endX, int endZ, int endY,
+            SchematicPlacement schematicPlacement, SubRegionPlacement placement,
+            LitematicaBlockStateContainer container, Map<BlockPos, NBTTagCompound> tileMap,
+            TransformedPalette palette, Mirror mirrorMain, Mirror mirrorSub, Rotation rotationCombined)
+    {
+        // The placement transform is linear, so the world position of each block is
+        // base + x * step along the sub-region's x-axis + y + z * step along its z-axis.
+        BlockPos base = PositionUtils.getTransformedPlacementPosition(posMinRel.subtract(regionPos), schematicPlacement, placement);
+        base = base.add(regionPosTransformed).add(origin);
+        BlockPos stepX = PositionUtils.getTransformedPlacementPosition(new BlockPos(1, 0, 0), schematicPlacement, placement);
+        BlockPos stepZ = PositionUtils.getTransformedPlacementPosition(new BlockPos(0, 0, 1), schematicPlacement, placement);
+        final int baseX = base.getX();
+        final int baseY = base.getY();
+        final int baseZ = base.getZ();
+        final int stepXX = stepX.getX();
+        final int stepXZ = stepX.getZ();
+        final int stepZX = stepZ.getX();
+        final int stepZZ = stepZ.getZ();
+        final int chunkMinX = chunk.x << 4;
+        final int chunkMinZ = chunk.z << 4;
+
+        final int rowLength = endX - startX + 1;
+        final int[] rowIds = new int[rowLength];
+        List<BlockPos> tileEntityPositions = new ArrayList<>();
+        IntArrayList tileEntityIds = new IntArrayList();
+        // An earlier overlapping sub-region may have already added tile entities to this chunk
+        final boolean hasEarlierTiles = tileEntitiesOut.isEmpty() == false;
+
+        for (int y = 0; y <= endY; ++y)
+        {
+            final int worldY = baseY + y;
+
+            if (worldY < 0 || worldY >= 256)
+            {
+                continue;
+            }
+
+            final int uniformId = container.getSectionUniformId(y / LitematicaBlockStateContainer.SECTION_HEIGHT);
+
+            // Skip the layers of entirely empty sections
+            if (uniformId >= 0 && palette.isAir(uniformId))
+            {
+                continue;
+            }
+
+            for (int z = startZ; z <= endZ; ++z)
+            {
+                container.getIdsAlongX(startX, y, z, rowLength, rowIds);
+
+                for (int x = startX; x <= endX; ++x)
+                {
+                    final int id = rowIds[x - startX];
+
+                    if (palette.isAir(id))
+                    {
+                        continue;
+                    }
+
+                    final int worldX = baseX + x * stepXX + z * stepZX;
+                    final int worldZ = baseZ + x * stepXZ + z * stepZZ;
+
+                    chunk.setBlockStateDirect(worldX - chunkMinX, worldY, worldZ - chunkMinZ, palette.getState(id));
+
+                    if (palette.hasTileEntity(id))
+                    {
+                        tileEntityPositions.add(new BlockPos(x, y, z));
+                        tileEntityIds.add(id);
+                    }
+                    // Remove the tile entity of a block that this region overwrote
+                    else if (hasEarlierTiles)
+                    {
+                        tileEntitiesOut.remove(new BlockPos(worldX, worldY, worldZ));
+                    }
+                }
+            }
+        }
+
+        final int tileCount = tileEntityPositions.size();
+
+        for (int i = 0; i < tileCount; ++i)
+        {
+            BlockPos posRel = tileEntityPositions.get(i);
+            BlockPos pos = new BlockPos(baseX + posRel.getX() * stepXX + posRel.getZ() * stepZX,
+                                        baseY + posRel.getY(),
+                                        baseZ + posRel.getX() * stepXZ + posRel.getZ() * stepZZ);
+            // Use the state that this region wrote, instead of reading it back from the chunk
+            IBlockState state = palette.getState(tileEntityIds.getInt(i));
+            NBTTagCompound teNBT = tileMap.get(posRel);
+
+            if (teNBT != null)
+            {
+                teNBT = teNBT.copy();
+                teNBT.setInteger("x", pos.getX());
+                teNBT.setInteger("y", pos.getY());
+                teNBT.setInteger("z", pos.getZ());
+            }
+
+            tileEntitiesOut.put(pos, new PendingTileEntity(pos, state, teNBT, mirrorMain, mirrorSub, rotationCombined));
+        }
+
+        chunk.markDirty();
+    }
+
+    /**
+     * Returns the palette of the given sub-region transformed with the given mirrors and rotation.
+     * The transformed palettes are cached per orientation, so that the block states don't need
+     * to be transformed again for every block, every chunk or every time a placement is moved.
+     */
+    private synchronized TransformedPalette getTransformedPalette(String regionName, LitematicaBlockStateContainer container,
+            Mirror mirrorMain, Mirror mirrorSub, Rotation rotation)
+    {
+        TransformedPalette[] palettes = this.transformedPalettes.get(regionName);
+
+        if (palettes == null)
+        {
+            palettes = new TransformedPalette[Mirror.values().length * Mirror.values().length * Rotation.values().length];
+            this.transformedPalettes.put(regionName, palettes);
+        }
+
+        final int index = (mirrorMain.ordinal() * Mirror.values().length + mirrorSub.ordinal()) * Rotation.values().length + rotation.ordinal();
+        TransformedPalette palette = palettes[index];
+
+        // The palette only grows when the container gets modified, or the container gets replaced
+        if (palette == null || palette.isValidFor(container) == false)
+        {
+            palette = new TransformedPalette(container, mirrorMain, mirrorSub, rotation);
+            palettes[index] = palette;
+        }
+
+        return palette;
+    }
+
     private void placeEntitiesToWorldWithinChunk(World world, ChunkPos chunkPos, BlockPos origin, BlockPos regionPos, BlockPos regionSize,
             SchematicPlacement schematicPlacement, SubRegionPlacement placement, List<EntityInfo> entityList)
     {
@@ -795,7 +1142,6 @@ public class LitematicaSchematic
             final int sizeX = Math.abs(size.getX());
             final int sizeY = Math.abs(size.getY());
             final int sizeZ = Math.abs(size.getZ());
-            LitematicaBlockStateContainer container = new LitematicaBlockStateContainer(sizeX, sizeY, sizeZ);
             Map<BlockPos, NBTTagCompound> tileEntityMap = new HashMap<>();
             Map<BlockPos, NextTickListEntry> tickMap = new HashMap<>();
 
@@ -807,6 +1153,9 @@ public class LitematicaSchematic
             final int startY = minCorner.getY();
             final int startZ = minCorner.getZ();
 
+            final int paletteSizeEstimate = estimatePaletteSize(world, minCorner, sizeX, sizeY, sizeZ);
+            LitematicaBlockStateContainer container = new LitematicaBlockStateContainer(sizeX, sizeY, sizeZ, paletteSizeEstimate);
+
             for (int y = 0; y < sizeY; ++y)
             {
                 for (int z = 0; z < sizeZ; ++z)
@@ -873,12 +1222,46 @@ public class LitematicaSchematic
                 }
             }
 
+            container.compactSections();
+
             this.blockContainers.put(box.getName(), container);
             this.tileEntities.put(box.getName(), tileEntityMap);
             this.pendingBlockTicks.put(box.getName(), tickMap);
         }
     }
 
+    /**
+     * Estimates the number of different block states in the given volume by sampling
+     * the world on a sparse grid. This is used to reserve enough bits in the container up front,
+     * so that it doesn't need to be re-packed every time the palette grows while it's being filled.
+     * Only the raw states are sampled, without resolving the actual states, to keep this cheap.
+     * The actual state variants can make the palette somewhat larger than the estimate,
+     * but the rounding up to the next bit size usually leaves room for them.
+     */
+    private static int estimatePaletteSize(World world, BlockPos minCorner, int sizeX, int sizeY, int sizeZ)
+    {
+        final double volume = (double) sizeX * (double) sizeY * (double) sizeZ;
+        // Aim for at most about 4k samples
+        final int step = Math.max(1, (int) Math.ceil(Math.cbrt(volume / 4096.0)));
+        BlockPos.MutableBlockPos posMutable = new BlockPos.MutableBlockPos();
+        Set<IBlockState> states = Sets.newIdentityHashSet();
+        states.add(LitematicaBlockStateContainer.AIR_BLOCK_STATE);
+
+        for (int y = 0; y < sizeY; y += step)
+        {
+            for (int z = 0; z < sizeZ; z += step)
+            {
+                for (int x = 0; x < sizeX; x += step)
+                {
+                    posMutable.setPos(minCorner.getX() + x, minCorner.getY() + y, minCorner.getZ() + z);
+                    states.add(world.getBlockState(posMutable));
+                }
+            }
+        }
+
+        return states.size();
+    }
+
     public void takeBlocksFromWorldWithinChunk(World world, int chunkX, int chunkZ,
             ImmutableMap<String, StructureBoundingBox> volumes, ImmutableMap<String, Box> boxes)
     {
@@ -1008,9 +1391,23 @@ public class LitematicaSchematic
     @Nullable
     public LitematicaBlockStateContainer getSubRegionContainer(String regionName)
     {
+        this.decodeSubRegion(regionName);
         return this.blockContainers.get(regionName);
     }
 
+    /**
+     * Releases the block storage of any sub-region sections that only contain
+     * a single block state. This should be called after the schematic has been
+     * filled in pieces, for example by the chunk-wise schematic creation.
+     */
+    public void compactContainers()
+    {
+        for (LitematicaBlockStateContainer container : this.blockContainers.values())
+        {
+            container.compactSections();
+        }
+    }
+
     private NBTTagCompound writeToNBT()
     {
         NBTTagCompound nbt = new NBTTagCompound();
@@ -1026,6 +1423,8 @@ public class LitematicaSchematic
     {
         NBTTagCompound wrapper = new NBTTagCompound();
 
+        this.decodeAllSubRegions();
+
         if (this.blockContainers.isEmpty() == false)
         {
             for (String regionName : this.blockContainers.keySet())
@@ -1038,7 +1437,7 @@ public class LitematicaSchematic
                 NBTTagCompound tag = new NBTTagCompound();
 
                 tag.setTag("BlockStatePalette", blockContainer.getPalette().writeToNBT());
-                tag.setTag("BlockStates", new NBTTagLongArray(blockContainer.getBackingLongArray()));
+                tag.setTag("BlockStates", new NBTTagLongArray(blockContainer.getTightlyPackedLongArray()));
                 tag.setTag("TileEntities", this.writeTileEntitiesToNBT(tileMap));
 
                 if (pendingTicks != null)
@@ -1124,87 +1523,444 @@ public class LitematicaSchematic
         return tagList;
     }
 
-    private boolean readFromNBT(NBTTagCompound nbt)
+    /**
+     * Reads the schematic directly from the NBT stream, without first reading the entire NBT tree.
+     * Only the position, size and the entity presence of each sub-region are read here, and the stream
+     * offset of each sub-region is recorded, so that the sub-region can be decoded from the file
+     * on first access. The only exception is a schematic with just one sub-region (if the metadata
+     * says so before the regions), where the block states are decoded right away, because
+     * that sub-region is going to be needed as soon as the schematic gets used.
+     * @param counter the stream the reader reads from, for the offsets in the uncompressed data
+     */
+    private boolean readFromStream(NBTStreamReader reader, CountingInputStream counter, @Nullable SchematicLoadProgress progress) throws IOException
     {
         this.blockContainers.clear();
         this.tileEntities.clear();
         this.entities.clear();
+        this.pendingBlockTicks.clear();
+        this.pendingSubRegions.clear();
         this.subRegionPositions.clear();
         this.subRegionSizes.clear();
+        this.transformedPalettes.clear();
+
+        if (reader.readTagType() != Constants.NBT.TAG_COMPOUND)
+        {
+            return false;
+        }
 
-        final int version = nbt.getInteger("Version");
+        reader.readName();
 
-        if (version >= 1 && version <= SCHEMATIC_VERSION)
+        NBTTagCompound metadataTag = new NBTTagCompound();
+        int regionCount = -1;
+        int version = 0;
+        byte type;
+
+        while ((type = reader.readTagType()) != Constants.NBT.TAG_END)
         {
-            this.metadata.readFromNBT(nbt.getCompoundTag("Metadata"));
-            this.readSubRegionsFromNBT(nbt.getCompoundTag("Regions"), version);
+            String name = reader.readName();
+
+            if (type == Constants.NBT.TAG_INT && name.equals("Version"))
+            {
+                version = reader.readInt();
+
+                if (version < 1 || version > SCHEMATIC_VERSION)
+                {
+                    return false;
+                }
+            }
+            else if (type == Constants.NBT.TAG_COMPOUND && name.equals("Metadata"))
+            {
+                metadataTag = (NBTTagCompound) reader.readPayload(type);
+                regionCount = metadataTag.getInteger("RegionCount");
+
+                if (progress != null)
+                {
+                    progress.setRegionCount(regionCount);
+                }
+            }
+            else if (type == Constants.NBT.TAG_COMPOUND && name.equals("Regions"))
+            {
+                this.readSubRegionsFromStream(reader, counter, regionCount == 1, progress);
+            }
+            else
+            {
+                reader.skipPayload(type);
+            }
+        }
 
+        // The version is normally written before the regions, but don't rely on it
+        if (version >= 1 && version <= SCHEMATIC_VERSION)
+        {
+            this.fileVersion = version;
+            this.metadata.readFromNBT(metadataTag);
             return true;
         }
 
         return false;
     }
 
-    private void readSubRegionsFromNBT(NBTTagCompound tag, int version)
+    /**
+     * Reads the schematic from the index of a cache file. None of the sub-regions
+     * are decoded here, except for the only sub-region of a single-region schematic.
+     */
+    private boolean readFromCachedIndex(SchematicContainerCache.CachedIndex index)
     {
-        for (String regionName : tag.getKeySet())
+        if (index.version < 1 || index.version > SCHEMATIC_VERSION)
         {
-            if (tag.getTag(regionName).getId() == Constants.NBT.TAG_COMPOUND)
-            {
-                NBTTagCompound regionTag = tag.getCompoundTag(regionName);
-                BlockPos regionPos = NBTUtils.readBlockPos(regionTag.getCompoundTag("Position"));
-                BlockPos regionSize = NBTUtils.readBlockPos(regionTag.getCompoundTag("Size"));
+            return false;
+        }
 
-                if (regionPos != null && regionSize != null)
-                {
-                    this.subRegionPositions.put(regionName, regionPos);
-                    this.subRegionSizes.put(regionName, regionSize);
+        this.fileVersion = index.version;
+        this.metadata.readFromNBT(index.metadataTag);
 
-                    if (version >= 2)
-                    {
-                        this.tileEntities.put(regionName, this.readTileEntitiesFromNBT(regionTag.getTagList("TileEntities", Constants.NBT.TAG_COMPOUND)));
-                        this.entities.put(regionName, this.readEntitiesFromNBT(regionTag.getTagList("Entities", Constants.NBT.TAG_COMPOUND)));
-                    }
-                    else if (version == 1)
-                    {
-                        this.tileEntities.put(regionName, this.readTileEntitiesFromNBT_v1(regionTag.getTagList("TileEntities", Constants.NBT.TAG_COMPOUND)));
-                        this.entities.put(regionName, this.readEntitiesFromNBT_v1(regionTag.getTagList("Entities", Constants.NBT.TAG_COMPOUND)));
-                    }
+        for (SchematicContainerCache.CachedRegion region : index.regions)
+        {
+            this.subRegionPositions.put(region.name, region.position);
+            this.subRegionSizes.put(region.name, region.size);
+            this.pendingSubRegions.put(region.name, new PendingSubRegion(null, region.hasEntities, region.sourceOffset, region.dataOffset));
+        }
 
-                    if (version >= 3)
-                    {
-                        this.pendingBlockTicks.put(regionName, this.readBlockTicksFromNBT(regionTag.getTagList("PendingBlockTicks", Constants.NBT.TAG_COMPOUND)));
-                    }
+        if (index.regions.size() == 1)
+        {
+            this.decodeAllSubRegions();
+        }
 
-                    NBTBase nbtBase = regionTag.getTag("BlockStates");
+        return true;
+    }
 
-                    // There are no convenience methods in NBTTagCompound yet in 1.12, so we'll have to do it the ugly way...
-                    if (nbtBase != null && nbtBase.getId() == Constants.NBT.TAG_LONG_ARRAY)
-                    {
-                        NBTTagList palette = regionTag.getTagList("BlockStatePalette", Constants.NBT.TAG_COMPOUND);
-                        long[] blockStateArr = ((IMixinNBTTagLongArray) nbtBase).getArray();
+    /**
+     * Decodes the data of the given sub-region, if it hasn't been decoded yet
+     */
+    private void decodeSubRegion(String regionName)
+    {
+        PendingSubRegion pending = this.pendingSubRegions.get(regionName);
 
-                        BlockPos posEndRel = PositionUtils.getRelativeEndPositionFromAreaSize(regionSize).add(regionPos);
-                        BlockPos posMin = PositionUtils.getMinCorner(regionPos, posEndRel);
-                        BlockPos posMax = PositionUtils.getMaxCorner(regionPos, posEndRel);
-                        BlockPos size = posMax.subtract(posMin).add(1, 1, 1);
+        if (pending != null)
+        {
+            synchronized (pending)
+            {
+                // Another thread may have already decoded it while this one was waiting for the lock
+                if (this.pendingSubRegions.get(regionName) == pending)
+                {
+                    NBTTagCompound regionTag = pending.regionTag;
 
-                        LitematicaBlockStateContainer container = LitematicaBlockStateContainer.createFrom(palette, blockStateArr, size);
-                        this.blockContainers.put(regionName, container);
+                    // The block states of the sub-regions read with their data have already been decoded
+                    if (regionTag == null)
+                    {
+                        regionTag = new NBTTagCompound();
+                        this.blockContainers.put(regionName, this.readSubRegionFromFile(regionName, pending, regionTag));
                     }
+
+                    this.readSubRegionFromNBT(regionName, regionTag, this.fileVersion);
+                    this.pendingSubRegions.remove(regionName);
                 }
             }
         }
     }
 
-    private List<EntityInfo> readEntitiesFromNBT(NBTTagList tagList)
+    private void decodeAllSubRegions()
     {
-        List<EntityInfo> entityList = new ArrayList<>();
-        final int size = tagList.tagCount();
-
-        for (int i = 0; i < size; ++i)
+        if (this.pendingSubRegions.isEmpty() == false)
         {
-            NBTTagCompound entityData = tagList.getCompoundTagAt(i);
+            for (String regionName : new ArrayList<>(this.pendingSubRegions.keySet()))
+            {
+                this.decodeSubRegion(regionName);
+            }
+        }
+    }
+
+    /**
+     * Reads the block states of one not yet decoded sub-region into a new container,
+     * and the rest of its data into the given tag. The data is read from the cache file, if the region
+     * was read from one and it's still valid, and otherwise from the schematic file.
+     * If the schematic file has been modified since it was loaded, or the reading fails,
+     * then an empty container is returned, and the region will be missing its blocks.
+     */
+    private LitematicaBlockStateContainer readSubRegionFromFile(String regionName, PendingSubRegion pending, NBTTagCompound regionTag)
+    {
+        LitematicaBlockStateContainer container = null;
+
+        if (pending.cacheOffset >= 0)
+        {
+            container = SchematicContainerCache.readCachedRegion(this.schematicFile, pending.cacheOffset,
+                    this.fileLength, this.fileLastModified, this.fileChecksum, regionTag);
+        }
+
+        if (container == null)
+        {
+            try
+            {
+                if (this.schematicFile.length() == this.fileLength &&
+                    this.schematicFile.lastModified() == this.fileLastModified &&
+                    getFileContentChecksum(this.schematicFile) == this.fileChecksum)
+                {
+                    container = this.readSubRegionFromSource(pending.sourceOffset, regionTag);
+                }
+                else
+                {
+                    LiteModLitematica.logger.warn("The schematic file '{}' has been modified since it was loaded, can't read the sub-region '{}'",
+                            this.schematicFile.getAbsolutePath(), regionName);
+                }
+            }
+            catch (Exception e)
+            {
+                LiteModLitematica.logger.warn("Failed to read the sub-region '{}' from the schematic file '{}'",
+                        regionName, this.schematicFile.getAbsolutePath(), e);
+            }
+        }
+
+        if (container == null)
+        {
+            BlockPos size = getContainerSize(this.subRegionPositions.get(regionName), this.subRegionSizes.get(regionName));
+            container = new LitematicaBlockStateContainer(size.getX(), size.getY(), size.getZ());
+        }
+
+        return container;
+    }
+
+    /**
+     * Reads one sub-region from the schematic file, starting from the given offset in the uncompressed data
+     */
+    @Nullable
+    private LitematicaBlockStateContainer readSubRegionFromSource(long offset, NBTTagCompound regionTag) throws IOException
+    {
+        DataInputStream is = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(this.schematicFile))));
+
+        try
+        {
+            NBTStreamReader reader = new NBTStreamReader(is);
+            reader.skip(offset);
+            return readSubRegionFromStream(reader, regionTag);
+        }
+        finally
+        {
+            is.close();
+        }
+    }
+
+    /**
+     * Reads the sub-regions from the stream. Only the position, size and entity presence of each
+     * sub-region are read, and the rest of the region data is skipped, unless decodeNow is true.
+     */
+    private void readSubRegionsFromStream(NBTStreamReader reader, CountingInputStream counter,
+            boolean decodeNow, @Nullable SchematicLoadProgress progress) throws IOException
+    {
+        byte type;
+
+        while ((type = reader.readTagType()) != Constants.NBT.TAG_END)
+        {
+            String regionName = reader.readName();
+
+            if (type == Constants.NBT.TAG_COMPOUND)
+            {
+                final long offset = counter.getCount();
+                NBTTagCompound regionTag = new NBTTagCompound();
+                LitematicaBlockStateContainer container = null;
+                boolean hasEntities;
+
+                if (decodeNow)
+                {
+                    container = readSubRegionFromStream(reader, regionTag);
+                    hasEntities = regionTag.getTagList("Entities", Constants.NBT.TAG_COMPOUND).tagCount() > 0;
+                }
+                else
+                {
+                    hasEntities = this.readSubRegionHeaderFromStream(reader, regionTag);
+                }
+
+                BlockPos regionPos = NBTUtils.readBlockPos(regionTag.getCompoundTag("Position"));
+                BlockPos regionSize = NBTUtils.readBlockPos(regionTag.getCompoundTag("Size"));
+
+                if (regionPos != null && regionSize != null)
+                {
+                    this.subRegionPositions.put(regionName, regionPos);
+                    this.subRegionSizes.put(regionName, regionSize);
+
+                    if (decodeNow)
+                    {
+                        if (container != null)
+                        {
+                            this.blockContainers.put(regionName, container);
+                        }
+
+                        this.pendingSubRegions.put(regionName, new PendingSubRegion(regionTag, hasEntities, offset, -1));
+                    }
+                    else
+                    {
+                        this.pendingSubRegions.put(regionName, new PendingSubRegion(null, hasEntities, offset, -1));
+                    }
+                }
+
+                if (progress != null)
+                {
+                    progress.onRegionRead();
+                }
+            }
+            else
+            {
+                reader.skipPayload(type);
+            }
+        }
+    }
+
+    /**
+     * Reads only the position and size of one sub-region into the given tag,
+     * and skips all the other data of the region.
+     * @return true if the sub-region has any entities
+     */
+    private boolean readSubRegionHeaderFromStream(NBTStreamReader reader, NBTTagCompound regionTag) throws IOException
+    {
+        boolean hasEntities = false;
+        byte type;
+
+        while ((type = reader.readTagType()) != Constants.NBT.TAG_END)
+        {
+            String name = reader.readName();
+
+            if (type == Constants.NBT.TAG_COMPOUND && (name.equals("Position") || name.equals("Size")))
+            {
+                regionTag.setTag(name, reader.readPayload(type));
+            }
+            else if (type == Constants.NBT.TAG_LIST && name.equals("Entities"))
+            {
+                // Only the length of the list is needed, the entities themselves are skipped
+                final byte listType = reader.getInput().readByte();
+                final int length = reader.getInput().readInt();
+
+                for (int i = 0; i < length; ++i)
+                {
+                    reader.skipPayload(listType);
+                }
+
+                hasEntities = length > 0;
+            }
+            else
+            {
+                reader.skipPayload(type);
+            }
+        }
+
+        return hasEntities;
+    }
+
+    /**
+     * Reads the block states of one sub-region into a container, and all the other data into the given tag.
+     * The block state array is decoded directly from the stream, if the region's palette, position and size
+     * have already been read, which is the case for all the files written by {@link #writeToFileAtomic(NBTTagCompound, File, boolean)}.
+     * Otherwise the raw array of this one region is buffered until the end of the region's compound tag.
+     * @return the block state container, or null if the region has no valid block state array
+     */
+    @Nullable
+    static LitematicaBlockStateContainer readSubRegionFromStream(NBTStreamReader reader, NBTTagCompound regionTag) throws IOException
+    {
+        LitematicaBlockStateContainer container = null;
+        long[] blockStateArr = null;
+        byte type;
+
+        while ((type = reader.readTagType()) != Constants.NBT.TAG_END)
+        {
+            String name = reader.readName();
+
+            if (type == Constants.NBT.TAG_LONG_ARRAY && name.equals("BlockStates"))
+            {
+                BlockPos size = getContainerSize(regionTag);
+                final int longCount = reader.readArrayLength();
+
+                if (size != null && regionTag.hasKey("BlockStatePalette", Constants.NBT.TAG_LIST))
+                {
+                    NBTTagList palette = regionTag.getTagList("BlockStatePalette", Constants.NBT.TAG_COMPOUND);
+                    container = LitematicaBlockStateContainer.createFromStream(palette, reader.getInput(), longCount, size);
+                    blockStateArr = null;
+                }
+                else
+                {
+                    blockStateArr = new long[longCount];
+
+                    for (int i = 0; i < longCount; ++i)
+                    {
+                        blockStateArr[i] = reader.getInput().readLong();
+                    }
+                }
+            }
+            else
+            {
+                regionTag.setTag(name, reader.readPayload(type));
+            }
+        }
+
+        if (blockStateArr != null)
+        {
+            BlockPos size = getContainerSize(regionTag);
+
+            if (size != null)
+            {
+                NBTTagList palette = regionTag.getTagList("BlockStatePalette", Constants.NBT.TAG_COMPOUND);
+                container = LitematicaBlockStateContainer.createFrom(palette, blockStateArr, size);
+            }
+        }
+
+        return container;
+    }
+
+    /**
+     * Returns the block state container size for the region in the given tag,
+     * or null if the region's position and size haven't been read (yet).
+     */
+    @Nullable
+    static BlockPos getContainerSize(NBTTagCompound regionTag)
+    {
+        BlockPos regionPos = NBTUtils.readBlockPos(regionTag.getCompoundTag("Position"));
+        BlockPos regionSize = NBTUtils.readBlockPos(regionTag.getCompoundTag("Size"));
+
+        if (regionPos != null && regionSize != null)
+        {
+            return getContainerSize(regionPos, regionSize);
+        }
+
+        return null;
+    }
+
+    private static BlockPos getContainerSize(BlockPos regionPos, BlockPos regionSize)
+    {
+        BlockPos posEndRel = PositionUtils.getRelativeEndPositionFromAreaSize(regionSize).add(regionPos);
+        BlockPos posMin = PositionUtils.getMinCorner(regionPos, posEndRel);
+        BlockPos posMax = PositionUtils.getMaxCorner(regionPos, posEndRel);
+
+        return posMax.subtract(posMin).add(1, 1, 1);
+    }
+
+    /**
+     * Decodes the rest of the data of one sub-region. The sub-region position and size
+     * have already been read when the schematic was loaded, and they are not touched here,
+     * because this can run on the worker threads while the client thread reads them.
+     */
+    private void readSubRegionFromNBT(String regionName, NBTTagCompound regionTag, int version)
+    {
+        if (version >= 2)
+        {
+            this.tileEntities.put(regionName, this.readTileEntitiesFromNBT(regionTag.getTagList("TileEntities", Constants.NBT.TAG_COMPOUND)));
+            this.entities.put(regionName, this.readEntitiesFromNBT(regionTag.getTagList("Entities", Constants.NBT.TAG_COMPOUND)));
+        }
+        else if (version == 1)
+        {
+            this.tileEntities.put(regionName, this.readTileEntitiesFromNBT_v1(regionTag.getTagList("TileEntities", Constants.NBT.TAG_COMPOUND)));
+            this.entities.put(regionName, this.readEntitiesFromNBT_v1(regionTag.getTagList("Entities", Constants.NBT.TAG_COMPOUND)));
+        }
+
+        if (version >= 3)
+        {
+            this.pendingBlockTicks.put(regionName, this.readBlockTicksFromNBT(regionTag.getTagList("PendingBlockTicks", Constants.NBT.TAG_COMPOUND)));
+        }
+    }
+
+    private List<EntityInfo> readEntitiesFromNBT(NBTTagList tagList)
+    {
+        List<EntityInfo> entityList = new ArrayList<>();
+        final int size = tagList.tagCount();
+
+        for (int i = 0; i < size; ++i)
+        {
+            NBTTagCompound entityData = tagList.getCompoundTagAt(i);
             Vec3d posVec = NBTUtils.readEntityPositionFromTag(entityData);
 
             if (posVec != null && entityData.isEmpty() == false)
@@ -1313,6 +2069,158 @@ public class LitematicaSchematic
     }
 
     public boolean writeToFile(File dir, String fileNameIn, boolean override)
+    {
+        File fileSchematic = getFileForWriting(dir, fileNameIn, override);
+
+        if (fileSchematic == null)
+        {
+            return false;
+        }
+
+        try
+        {
+            writeToFileAtomic(this.writeToNBT(), fileSchematic, override);
+            return true;
+        }
+        catch (FileAlreadyExistsException e)
+        {
+            InfoUtils.showGuiOrInGameMessage(MessageType.ERROR, "litematica.error.schematic_write_to_file_failed.exists", fileSchematic.getAbsolutePath());
+        }
+        catch (Exception e)
+        {
+            InfoUtils.showGuiOrInGameMessage(MessageType.ERROR, "litematica.error.schematic_write_to_file_failed.exception", fileSchematic.getAbsolutePath());
+            InfoUtils.showGuiOrInGameMessage(MessageType.ERROR, e.getMessage());
+        }
+
+        return false;
+    }
+
+    /**
+     * Writes the schematic to the file on a background thread. The block data is copied
+     * before returning, so the schematic can be modified while it's being written.
+     * The result message is shown and the completion listener is called on the client thread,
+     * once the writing has finished, whether it succeeded or not.
+     * @return true if the writing was started, false if the file can't be written to
+     */
+    public boolean writeToFileAsync(File dir, String fileNameIn, boolean override, @Nullable ICompletionListener listener)
+    {
+        return this.writeToFileAsync(dir, fileNameIn, override, true, listener);
+    }
+
+    /**
+     * Writes the schematic to the file on a background thread.
+     * @param copyData if false, then the schematic itself is written without copying it first.
+     * This must only be used when nothing else has access to the schematic anymore.
+     * @return true if the writing was started, false if the file can't be written to
+     */
+    public boolean writeToFileAsync(File dir, String fileNameIn, final boolean override, boolean copyData, @Nullable final ICompletionListener listener)
+    {
+        final File fileSchematic = getFileForWriting(dir, fileNameIn, override);
+
+        if (fileSchematic == null)
+        {
+            return false;
+        }
+
+        final LitematicaSchematic snapshot = copyData ? this.createSnapshot() : this;
+        final String fileName = fileNameIn;
+
+        WRITER_EXECUTOR.submit(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                Exception exception = null;
+
+                try
+                {
+                    writeToFileAtomic(snapshot.writeToNBT(), fileSchematic, override);
+                }
+                catch (Exception e)
+                {
+                    LiteModLitematica.logger.warn("Failed to write the schematic to file '{}'", fileSchematic.getAbsolutePath(), e);
+                    exception = e;
+                }
+
+                final Exception error = exception;
+
+                Minecraft.getMinecraft().addScheduledTask(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        if (error == null)
+                        {
+                            InfoUtils.showGuiOrActionBarMessage(MessageType.SUCCESS, "litematica.message.schematic_saved_as", fileName);
+                        }
+                        else if (error instanceof FileAlreadyExistsException)
+                        {
+                            InfoUtils.showGuiOrInGameMessage(MessageType.ERROR, "litematica.error.schematic_write_to_file_failed.exists", fileSchematic.getAbsolutePath());
+                        }
+                        else
+                        {
+                            InfoUtils.showGuiOrInGameMessage(MessageType.ERROR, "litematica.error.schematic_write_to_file_failed.exception", fileSchematic.getAbsolutePath());
+                            InfoUtils.showGuiOrInGameMessage(MessageType.ERROR, String.valueOf(error.getMessage()));
+                        }
+
+                        if (listener != null)
+                        {
+                            listener.onTaskCompleted();
+                        }
+                    }
+                });
+            }
+        });
+
+        return true;
+    }
+
+    /**
+     * Returns a copy of this schematic, for writing it to a file on another thread,
+     * or for editing it without affecting the other users of this schematic.
+     * The block containers and the data maps are copied, the individual
+     * tile entity and entity NBT tags are shared, as they are not modified after creation.
+     */
+    public LitematicaSchematic createSnapshot()
+    {
+        LitematicaSchematic snapshot = new LitematicaSchematic(this.schematicFile);
+
+        this.decodeAllSubRegions();
+
+        for (Map.Entry<String, LitematicaBlockStateContainer> entry : this.blockContainers.entrySet())
+        {
+            snapshot.blockContainers.put(entry.getKey(), entry.getValue().copy());
+        }
+
+        for (Map.Entry<String, Map<BlockPos, NBTTagCompound>> entry : this.tileEntities.entrySet())
+        {
+            snapshot.tileEntities.put(entry.getKey(), new HashMap<>(entry.getValue()));
+        }
+
+        for (Map.Entry<String, Map<BlockPos, NextTickListEntry>> entry : this.pendingBlockTicks.entrySet())
+        {
+            snapshot.pendingBlockTicks.put(entry.getKey(), new HashMap<>(entry.getValue()));
+        }
+
+        for (Map.Entry<String, List<EntityInfo>> entry : this.entities.entrySet())
+        {
+            snapshot.entities.put(entry.getKey(), new ArrayList<>(entry.getValue()));
+        }
+
+        snapshot.subRegionPositions.putAll(this.subRegionPositions);
+        snapshot.subRegionSizes.putAll(this.subRegionSizes);
+        snapshot.metadata.readFromNBT(this.metadata.writeToNBT());
+        snapshot.totalBlocks = this.totalBlocks;
+
+        return snapshot;
+    }
+
+    /**
+     * Returns the file to write the schematic to, or null if the directory can't be created
+     * or the file already exists and overriding is not allowed.
+     */
+    @Nullable
+    private static File getFileForWriting(File dir, String fileNameIn, boolean override)
     {
         String fileName = fileNameIn;
 
@@ -1323,33 +2231,81 @@ public class LitematicaSchematic
 
         File fileSchematic = new File(dir, fileName);
 
+        if (dir.exists() == false && dir.mkdirs() == false)
+        {
+            InfoUtils.showGuiOrInGameMessage(MessageType.ERROR, "litematica.error.schematic_write_to_file_failed.directory_creation_failed", dir.getAbsolutePath());
+            return null;
+        }
+
+        if (override == false && fileSchematic.exists())
+        {
+            InfoUtils.showGuiOrInGameMessage(MessageType.ERROR, "litematica.error.schematic_write_to_file_failed.exists", fileSchematic.getAbsolutePath());
+            return null;
+        }
+
+        return fileSchematic;
+    }
+
+    /**
+     * Writes the NBT data compressed into a temporary file in the same directory first,
+     * and then renames it as the target file, so that a crash or an error while writing
+     * never leaves behind a truncated schematic file.
+     */
+    private static void writeToFileAtomic(NBTTagCompound nbt, File file, boolean override) throws IOException
+    {
+        File tmpFile = File.createTempFile(file.getName() + ".", ".tmp", file.getParentFile());
+        boolean success = false;
+
         try
         {
-            if (dir.exists() == false && dir.mkdirs() == false)
+            FileOutputStream fos = new FileOutputStream(tmpFile);
+
+            try
             {
-                InfoUtils.showGuiOrInGameMessage(MessageType.ERROR, "litematica.error.schematic_write_to_file_failed.directory_creation_failed", dir.getAbsolutePath());
-                return false;
+                final int level = Configs.Generic.SCHEMATIC_COMPRESSION_LEVEL.getIntegerValue();
+                final boolean parallel = Configs.Generic.PARALLEL_COMPRESSION.getBooleanValue();
+                ParallelGzipOutputStream gzip = new ParallelGzipOutputStream(fos, level, parallel);
+                DataOutputStream os = new DataOutputStream(new BufferedOutputStream(gzip));
+                // The Version and Metadata tags are written first for the metadata-only reads,
+                // and the position, size and palette of each region before its block state array,
+                // so that the array can be decoded directly from the stream when reading
+                (new NBTStreamWriter(os, "Version", "Metadata", "Position", "Size", "BlockStatePalette")).writeRoot(nbt);
+                os.flush();
+                gzip.finish();
+                fos.getFD().sync();
             }
-
-            if (override == false && fileSchematic.exists())
+            finally
             {
-                InfoUtils.showGuiOrInGameMessage(MessageType.ERROR, "litematica.error.schematic_write_to_file_failed.exists", fileSchematic.getAbsolutePath());
-                return false;
+                fos.close();
             }
 
-            FileOutputStream os = new FileOutputStream(fileSchematic);
-            CompressedStreamTools.writeCompressed(this.writeToNBT(), os);
-            os.close();
+            if (override)
+            {
+                try
+                {
+                    Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                }
+                catch (AtomicMoveNotSupportedException e)
+                {
+                    Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            else
+            {
+                // Without REPLACE_EXISTING the move itself fails with a FileAlreadyExistsException,
+                // if the file has been created by someone else since it was checked
+                Files.move(tmpFile.toPath(), file.toPath());
+            }
 
-            return true;
+            success = true;
         }
-        catch (Exception e)
+        finally
         {
-            InfoUtils.showGuiOrInGameMessage(MessageType.ERROR, "litematica.error.schematic_write_to_file_failed.exception", fileSchematic.getAbsolutePath());
-            InfoUtils.showGuiOrInGameMessage(MessageType.ERROR, e.getMessage());
+            if (success == false)
+            {
+                tmpFile.delete();
+            }
         }
-
-        return false;
     }
 
     @Nullable
@@ -1370,28 +2326,340 @@ public class LitematicaSchematic
 
         try
         {
-            FileInputStream is = new FileInputStream(fileSchematic);
-            NBTTagCompound nbt = CompressedStreamTools.readCompressed(is);
-            is.close();
+            return readFromFile(fileSchematic, null);
+        }
+        catch (Exception e)
+        {
+            InfoUtils.showGuiOrInGameMessage(MessageType.ERROR, "litematica.error.schematic_read_from_file_failed.exception", fileSchematic.getAbsolutePath());
+        }
+
+        return null;
+    }
 
-            if (nbt != null)
+    /**
+     * Reads the schematic from the given file. This doesn't show any messages,
+     * so it can also be called from other threads than the client thread.
+     * @param progress an optional progress tracker, which can also be used to cancel the reading
+     * @return the schematic, or null if the file is not a valid schematic
+     * @throws java.util.concurrent.CancellationException if the reading was cancelled via the progress tracker
+     */
+    @Nullable
+    public static LitematicaSchematic readFromFile(File file, @Nullable SchematicLoadProgress progress) throws IOException
+    {
+        final boolean useCache = Configs.Generic.SCHEMATIC_DATA_CACHE.getBooleanValue();
+        LitematicaSchematic schematic = new LitematicaSchematic(file);
+
+        schematic.fileLength = file.length();
+        schematic.fileLastModified = file.lastModified();
+        schematic.fileChecksum = getFileContentChecksum(file);
+
+        if (useCache)
+        {
+            SchematicContainerCache.CachedIndex index = SchematicContainerCache.readCachedIndex(file,
+                    schematic.fileLength, schematic.fileLastModified, schematic.fileChecksum);
+
+            if (index != null && schematic.readFromCachedIndex(index))
             {
-                LitematicaSchematic schematic = new LitematicaSchematic(fileSchematic);
+                return schematic;
+            }
+        }
+
+        InputStream fis = new FileInputStream(file);
+
+        if (progress != null)
+        {
+            fis = progress.wrapInputStream(fis);
+        }
 
-                if (schematic.readFromNBT(nbt))
+        CountingInputStream counter = new CountingInputStream(new BufferedInputStream(new GZIPInputStream(fis)));
+        DataInputStream is = new DataInputStream(counter);
+
+        try
+        {
+            if (schematic.readFromStream(new NBTStreamReader(is), counter, progress))
+            {
+                if (useCache)
                 {
-                    return schematic;
+                    SchematicContainerCache.writeCachedDataAsync(file);
                 }
+
+                return schematic;
+            }
+        }
+        finally
+        {
+            is.close();
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns a checksum of the contents of the given schematic file. This is the CRC32 and the size
+     * of the uncompressed data from the gzip trailer at the end of the file,
+     * so the file doesn't need to be read and decompressed for it.
+     */
+    public static long getFileContentChecksum(File file) throws IOException
+    {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"))
+        {
+            final long length = raf.length();
+
+            if (length < 18)
+            {
+                throw new IOException("File too short for a gzip file");
+            }
+
+            byte[] trailer = new byte[8];
+            raf.seek(length - 8);
+            raf.readFully(trailer);
+            long checksum = 0;
+
+            for (int i = 7; i >= 0; --i)
+            {
+                checksum = (checksum << 8) | (trailer[i] & 0xFF);
+            }
+
+            return checksum;
+        }
+    }
+
+    /**
+     * Reads only the metadata of the given schematic file. The decompression stops
+     * as soon as the Metadata compound has been read, so the region data is never read.
+     * @return the metadata, or null if the file is not a valid schematic
+     */
+    @Nullable
+    public static SchematicMetadata readMetadataFromFile(File file)
+    {
+        if (file.exists() == false || file.canRead() == false)
+        {
+            return null;
+        }
+
+        try
+        {
+            DataInputStream is = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))));
+
+            try
+            {
+                return readMetadataFromStream(new NBTStreamReader(is));
+            }
+            finally
+            {
+                is.close();
             }
         }
         catch (Exception e)
         {
-            InfoUtils.showGuiOrInGameMessage(MessageType.ERROR, "litematica.error.schematic_read_from_file_failed.exception", fileSchematic.getAbsolutePath());
+            LiteModLitematica.logger.warn("Failed to read the schematic metadata from file '{}'", file.getAbsolutePath(), e);
+        }
+
+        return null;
+    }
+
+    @Nullable
+    private static SchematicMetadata readMetadataFromStream(NBTStreamReader reader) throws IOException
+    {
+        if (reader.readTagType() != Constants.NBT.TAG_COMPOUND)
+        {
+            return null;
+        }
+
+        reader.readName();
+
+        NBTTagCompound metadataTag = null;
+        int version = 0;
+        byte type;
+
+        while ((type = reader.readTagType()) != Constants.NBT.TAG_END)
+        {
+            String name = reader.readName();
+
+            if (type == Constants.NBT.TAG_INT && name.equals("Version"))
+            {
+                version = reader.readInt();
+
+                if (version < 1 || version > SCHEMATIC_VERSION)
+                {
+                    return null;
+                }
+            }
+            else if (type == Constants.NBT.TAG_COMPOUND && name.equals("Metadata"))
+            {
+                metadataTag = (NBTTagCompound) reader.readPayload(type);
+            }
+            else
+            {
+                reader.skipPayload(type);
+            }
+
+            // The Version and Metadata tags are written before the Regions tag,
+            // so normally the rest of the file never gets decompressed
+            if (version != 0 && metadataTag != null)
+            {
+                break;
+            }
+        }
+
+        if (version >= 1 && version <= SCHEMATIC_VERSION)
+        {
+            SchematicMetadata metadata = new SchematicMetadata();
+            metadata.readFromNBT(metadataTag != null ? metadataTag : new NBTTagCompound());
+            return metadata;
         }
 
         return null;
     }
 
+    private static class TransformedPalette
+    {
+        private final LitematicaBlockStateContainer container;
+        private final IBlockState[] states;
+        private final boolean[] isAir;
+        private final boolean[] hasTileEntity;
+
+        public TransformedPalette(LitematicaBlockStateContainer container, Mirror mirrorMain, Mirror mirrorSub, Rotation rotation)
+        {
+            final int paletteSize = container.getPalette().getPaletteSize();
+
+            this.container = container;
+            this.states = new IBlockState[paletteSize];
+            this.isAir = new boolean[paletteSize];
+            this.hasTileEntity = new boolean[paletteSize];
+
+            for (int id = 0; id < paletteSize; ++id)
+            {
+                IBlockState state = container.getStateForId(id);
+
+                if (mirrorMain != Mirror.NONE) { state = state.withMirror(mirrorMain); }
+                if (mirrorSub != Mirror.NONE)  { state = state.withMirror(mirrorSub); }
+                if (rotation != Rotation.NONE) { state = state.withRotation(rotation); }
+
+                this.states[id] = state;
+                this.isAir[id] = state.getBlock() == Blocks.AIR;
+                this.hasTileEntity[id] = state.getBlock() instanceof ITileEntityProvider;
+            }
+        }
+
+        public boolean isValidFor(LitematicaBlockStateContainer container)
+        {
+            return this.container == container && this.states.length == container.getPalette().getPaletteSize();
+        }
+
+        /**
+         * Returns the transformed state for the given palette id. Missing ids are returned as air.
+         */
+        public IBlockState getState(int id)
+        {
+            return id < this.states.length ? this.states[id] : LitematicaBlockStateContainer.AIR_BLOCK_STATE;
+        }
+
+        public boolean isAir(int id)
+        {
+            return id >= this.isAir.length || this.isAir[id];
+        }
+
+        public boolean hasTileEntity(int id)
+        {
+            return id < this.hasTileEntity.length && this.hasTileEntity[id];
+        }
+    }
+
+    /**
+     * The not yet decoded data of one sub-region of a loaded schematic. The data is either already
+     * read into the region tag (with the block states already decoded), or it gets read from
+     * the cache file (if the offset is not -1) or the schematic file at the given offsets.
+     */
+    private static class PendingSubRegion
+    {
+        @Nullable private final NBTTagCompound regionTag;
+        private final boolean hasEntities;
+        private final long sourceOffset;
+        private final long cacheOffset;
+
+        public PendingSubRegion(@Nullable NBTTagCompound regionTag, boolean hasEntities, long sourceOffset, long cacheOffset)
+        {
+            this.regionTag = regionTag;
+            this.hasEntities = hasEntities;
+            this.sourceOffset = sourceOffset;
+            this.cacheOffset = cacheOffset;
+        }
+
+        public boolean hasEntities()
+        {
+            return this.hasEntities;
+        }
+    }
+
+    /**
+     * The data for one tile entity of the schematic world. This is prepared on the chunk builder threads,
+     * and the tile entity is created from it on the client thread, since the tile entity constructors
+     * and readFromNBT() are not safe to call on other threads.
+     */
+    public static class PendingTileEntity
+    {
+        private final BlockPos pos;
+        private final IBlockState state;
+        @Nullable private final NBTTagCompound nbt;
+        private final Mirror mirrorMain;
+        private final Mirror mirrorSub;
+        private final Rotation rotation;
+
+        public PendingTileEntity(BlockPos pos, IBlockState state, @Nullable NBTTagCompound nbt, Mirror mirrorMain, Mirror mirrorSub, Rotation rotation)
+        {
+            this.pos = pos;
+            this.state = state;
+            this.nbt = nbt;
+            this.mirrorMain = mirrorMain;
+            this.mirrorSub = mirrorSub;
+            this.rotation = rotation;
+        }
+
+        /**
+         * Creates the tile entity. This must be called on the client thread.
+         * @return the tile entity, or null if the block doesn't create one
+         */
+        @Nullable
+        public TileEntity createTileEntity(World world)
+        {
+            Block block = this.state.getBlock();
+            TileEntity te = null;
+
+            if (block instanceof ITileEntityProvider)
+            {
+                te = ((ITileEntityProvider) block).createNewTileEntity(world, block.getMetaFromState(this.state));
+            }
+
+            if (te == null)
+            {
+                return null;
+            }
+
+            te.setPos(this.pos);
+
+            if (this.nbt != null)
+            {
+                try
+                {
+                    te.readFromNBT(this.nbt);
+
+                    if (this.mirrorMain != Mirror.NONE) { te.mirror(this.mirrorMain); }
+                    if (this.mirrorSub != Mirror.NONE)  { te.mirror(this.mirrorSub); }
+                    if (this.rotation != Rotation.NONE) { te.rotate(this.rotation); }
+                }
+                catch (Exception e)
+                {
+                    LiteModLitematica.logger.warn("Failed to load TileEntity data for {} @ {}", this.state, this.pos);
+                }
+            }
+
+            te.updateContainingBlockInfo();
+
+            return te;
+        }
+    }
+
     public static class EntityInfo
     {
         public final Vec3d posVec;
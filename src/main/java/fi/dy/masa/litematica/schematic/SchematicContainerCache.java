@@ -0,0 +1,519 @@
+package fi.dy.masa.litematica.schematic;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.GZIPInputStream;
+import javax.annotation.Nullable;
+import org.apache.commons.codec.digest.DigestUtils;
+import com.google.common.collect.Sets;
+import com.google.common.io.CountingInputStream;
+import com.google.common.io.CountingOutputStream;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import fi.dy.masa.litematica.LiteModLitematica;
+import fi.dy.masa.litematica.Reference;
+import fi.dy.masa.litematica.config.Configs;
+import fi.dy.masa.litematica.schematic.container.LitematicaBlockStateContainer;
+import fi.dy.masa.litematica.util.NBTStreamReader;
+import fi.dy.masa.malilib.util.Constants;
+import fi.dy.masa.malilib.util.FileUtils;
+import fi.dy.masa.malilib.util.NBTUtils;
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagList;
+import net.minecraft.util.math.BlockPos;
+
+/**
+ * On-disk cache of the decoded schematic data, so that re-opening a big schematic
+ * doesn't need to decompress and decode it again.
+ * The cache files store the sub-region containers in their decoded in-memory section format,
+ * uncompressed, so reading them back doesn't need any decoding. The rest of each sub-region's data
+ * (tile entities, entities etc.) is stored as uncompressed NBT before the containers. An index
+ * at the end of the file has the metadata and the position, size and data offset of each sub-region,
+ * so the sub-regions can be read one at a time when they are first needed.
+ * The cache files are only valid as long as the source file's size, last modified time
+ * and content checksum still match. The total size of the cache is capped,
+ * and the least recently used cache files get deleted when it grows larger than that.
+ */
+public class SchematicContainerCache
+{
+    private static final int MAGIC = 0x4C4D4343; // "LMCC"
+    private static final int CACHE_FORMAT_VERSION = 2;
+    private static final int HEADER_SIZE = 32;
+    private static final int READ_BUFFER_SIZE = 65536;
+    private static final ThreadFactory WRITER_THREAD_FACTORY = (new ThreadFactoryBuilder()).setNameFormat("Litematica Schematic Cache Writer %d").setDaemon(true).build();
+    private static final ExecutorService WRITER_EXECUTOR = Executors.newSingleThreadExecutor(WRITER_THREAD_FACTORY);
+    private static final Set<File> PENDING_WRITES = Sets.newConcurrentHashSet();
+
+    /**
+     * Reads the index of the cache file of the given schematic file, if there is a valid cache file for it.
+     * The sub-region data is not read here, see {@link #readCachedRegion(File, long, long, long, long, NBTTagCompound)}.
+     * @return the index, or null if the file is not cached or the cache file is outdated or invalid
+     */
+    @Nullable
+    public static CachedIndex readCachedIndex(File sourceFile, long sourceLength, long sourceLastModified, long checksum)
+    {
+        File cacheFile = getCacheFile(sourceFile);
+
+        if (cacheFile.isFile() == false)
+        {
+            return null;
+        }
+
+        try (RandomAccessFile raf = new RandomAccessFile(cacheFile, "r"))
+        {
+            final long fileSize = raf.length();
+
+            if (fileSize < HEADER_SIZE + 8 || readHeader(raf, sourceLength, sourceLastModified, checksum) == false)
+            {
+                return null;
+            }
+
+            raf.seek(fileSize - 8);
+            final long indexOffset = raf.readLong();
+
+            if (indexOffset < HEADER_SIZE || indexOffset >= fileSize - 8)
+            {
+                return null;
+            }
+
+            raf.seek(indexOffset);
+            DataInputStream is = new DataInputStream(new BufferedInputStream(Channels.newInputStream(raf.getChannel())));
+            final int version = is.readInt();
+            NBTTagCompound metadataTag = CompressedStreamTools.read(is);
+            final int regionCount = is.readInt();
+            List<CachedRegion> regions = new ArrayList<>();
+
+            for (int i = 0; i < regionCount; ++i)
+            {
+                String name = is.readUTF();
+                BlockPos pos = new BlockPos(is.readInt(), is.readInt(), is.readInt());
+                BlockPos size = new BlockPos(is.readInt(), is.readInt(), is.readInt());
+                final boolean hasEntities = is.readBoolean();
+                final long sourceOffset = is.readLong();
+                final long dataOffset = is.readLong();
+
+                if (dataOffset < HEADER_SIZE || dataOffset >= indexOffset)
+                {
+                    return null;
+                }
+
+                regions.add(new CachedRegion(name, pos, size, hasEntities, sourceOffset, dataOffset));
+            }
+
+            // Mark the file as recently used, for the size-capped eviction
+            cacheFile.setLastModified(System.currentTimeMillis());
+
+            return new CachedIndex(version, metadataTag, regions);
+        }
+        catch (Exception e)
+        {
+            LiteModLitematica.logger.warn("Failed to read the cached schematic data from file '{}'", cacheFile.getAbsolutePath(), e);
+        }
+
+        return null;
+    }
+
+    /**
+     * Reads the data of one sub-region from the cache file of the given schematic file.
+     * The block states are read into the returned container, and the rest of the sub-region's data
+     * into the given tag. The data is streamed through a small buffer, so the file is never
+     * read into memory as a whole.
+     * @param dataOffset the offset of the sub-region's data, from the index of the cache file
+     * @return the block state container, or null if the cache file is no longer valid for the given source file state
+     */
+    @Nullable
+    public static LitematicaBlockStateContainer readCachedRegion(File sourceFile, long dataOffset,
+            long sourceLength, long sourceLastModified, long checksum, NBTTagCompound regionTagOut)
+    {
+        File cacheFile = getCacheFile(sourceFile);
+
+        if (cacheFile.isFile() == false)
+        {
+            return null;
+        }
+
+        try (FileInputStream fis = new FileInputStream(cacheFile))
+        {
+            if (readHeader(new DataInputStream(fis), sourceLength, sourceLastModified, checksum) == false)
+            {
+                return null;
+            }
+
+            fis.getChannel().position(dataOffset);
+            DataInputStream is = new DataInputStream(new BufferedInputStream(fis, READ_BUFFER_SIZE));
+            NBTTagCompound regionTag = CompressedStreamTools.read(is);
+            NBTTagList palette = regionTag.getTagList("BlockStatePalette", Constants.NBT.TAG_COMPOUND);
+            LitematicaBlockStateContainer container = LitematicaBlockStateContainer.createFromCache(palette, is);
+
+            for (String key : regionTag.getKeySet())
+            {
+                regionTagOut.setTag(key, regionTag.getTag(key));
+            }
+
+            return container;
+        }
+        catch (Exception e)
+        {
+            LiteModLitematica.logger.warn("Failed to read the cached schematic data from file '{}'", cacheFile.getAbsolutePath(), e);
+        }
+
+        return null;
+    }
+
+    private static boolean readHeader(DataInput input, long sourceLength, long sourceLastModified, long checksum) throws IOException
+    {
+        return input.readInt() == MAGIC &&
+               input.readInt() == CACHE_FORMAT_VERSION &&
+               input.readLong() == sourceLength &&
+               input.readLong() == sourceLastModified &&
+               input.readLong() == checksum;
+    }
+
+    /**
+     * Writes the cache file for the given schematic file on a background thread.
+     * Nothing is done if the cache file of the same schematic file is already being written.
+     */
+    public static void writeCachedDataAsync(final File sourceFile)
+    {
+        if (PENDING_WRITES.add(sourceFile))
+        {
+            WRITER_EXECUTOR.submit(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        writeCachedData(sourceFile);
+                    }
+                    finally
+                    {
+                        PENDING_WRITES.remove(sourceFile);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Writes the cache file for the given schematic file. The schematic file is streamed again,
+     * and only one sub-region at a time is decoded and written, so this doesn't need
+     * the loaded schematic, and doesn't hold more than one decoded sub-region in memory.
+     */
+    private static void writeCachedData(File sourceFile)
+    {
+        File dir = getCacheDir();
+        File cacheFile = getCacheFile(sourceFile);
+        File tmpFile = null;
+
+        if (dir.exists() == false && dir.mkdirs() == false)
+        {
+            LiteModLitematica.logger.warn("Failed to create the schematic cache directory '{}'", dir.getAbsolutePath());
+            return;
+        }
+
+        try
+        {
+            final long sourceLength = sourceFile.length();
+            final long sourceLastModified = sourceFile.lastModified();
+            final long checksum = LitematicaSchematic.getFileContentChecksum(sourceFile);
+            boolean success = false;
+
+            tmpFile = File.createTempFile(cacheFile.getName() + ".", ".tmp", dir);
+
+            CountingInputStream counter = new CountingInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(sourceFile))));
+            DataInputStream is = new DataInputStream(counter);
+            CountingOutputStream cos = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+            DataOutputStream os = new DataOutputStream(cos);
+
+            try
+            {
+                os.writeInt(MAGIC);
+                os.writeInt(CACHE_FORMAT_VERSION);
+                os.writeLong(sourceLength);
+                os.writeLong(sourceLastModified);
+                os.writeLong(checksum);
+
+                success = writeCachedRegions(new NBTStreamReader(is), counter, os, cos);
+            }
+            finally
+            {
+                is.close();
+                os.close();
+            }
+
+            if (success)
+            {
+                // Replace the old file only once the new one is complete, so that a partial file never gets read
+                Files.move(tmpFile.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                trimCache(cacheFile);
+            }
+        }
+        catch (Exception e)
+        {
+            LiteModLitematica.logger.warn("Failed to write the cached schematic data to file '{}'", cacheFile.getAbsolutePath(), e);
+        }
+        finally
+        {
+            if (tmpFile != null)
+            {
+                tmpFile.delete();
+            }
+        }
+    }
+
+    /**
+     * Reads the schematic from the stream, and writes the data of each sub-region
+     * followed by the index into the output.
+     * @return true if the schematic was valid and the data was written
+     */
+    private static boolean writeCachedRegions(NBTStreamReader reader, CountingInputStream counter,
+            DataOutputStream os, CountingOutputStream cos) throws IOException
+    {
+        if (reader.readTagType() != Constants.NBT.TAG_COMPOUND)
+        {
+            return false;
+        }
+
+        reader.readName();
+
+        List<CachedRegion> regions = new ArrayList<>();
+        NBTTagCompound metadataTag = new NBTTagCompound();
+        int version = 0;
+        byte type;
+
+        while ((type = reader.readTagType()) != Constants.NBT.TAG_END)
+        {
+            String name = reader.readName();
+
+            if (type == Constants.NBT.TAG_INT && name.equals("Version"))
+            {
+                version = reader.readInt();
+            }
+            else if (type == Constants.NBT.TAG_COMPOUND && name.equals("Metadata"))
+            {
+                metadataTag = (NBTTagCompound) reader.readPayload(type);
+            }
+            else if (type == Constants.NBT.TAG_COMPOUND && name.equals("Regions"))
+            {
+                byte regionType;
+
+                while ((regionType = reader.readTagType()) != Constants.NBT.TAG_END)
+                {
+                    String regionName = reader.readName();
+
+                    if (regionType != Constants.NBT.TAG_COMPOUND)
+                    {
+                        reader.skipPayload(regionType);
+                        continue;
+                    }
+
+                    final long sourceOffset = counter.getCount();
+                    NBTTagCompound regionTag = new NBTTagCompound();
+                    LitematicaBlockStateContainer container = LitematicaSchematic.readSubRegionFromStream(reader, regionTag);
+                    BlockPos pos = NBTUtils.readBlockPos(regionTag.getCompoundTag("Position"));
+                    BlockPos size = NBTUtils.readBlockPos(regionTag.getCompoundTag("Size"));
+
+                    // Regions without valid block data are skipped when loading, don't try to cache those files
+                    if (container == null || pos == null || size == null)
+                    {
+                        return false;
+                    }
+
+                    final boolean hasEntities = regionTag.getTagList("Entities", Constants.NBT.TAG_COMPOUND).tagCount() > 0;
+                    final long dataOffset = cos.getCount();
+
+                    CompressedStreamTools.write(regionTag, os);
+                    container.writeSectionsToCache(os);
+                    regions.add(new CachedRegion(regionName, pos, size, hasEntities, sourceOffset, dataOffset));
+                }
+            }
+            else
+            {
+                reader.skipPayload(type);
+            }
+        }
+
+        if (version < 1 || version > LitematicaSchematic.SCHEMATIC_VERSION)
+        {
+            return false;
+        }
+
+        final long indexOffset = cos.getCount();
+
+        os.writeInt(version);
+        CompressedStreamTools.write(metadataTag, os);
+        os.writeInt(regions.size());
+
+        for (CachedRegion region : regions)
+        {
+            os.writeUTF(region.name);
+            os.writeInt(region.position.getX());
+            os.writeInt(region.position.getY());
+            os.writeInt(region.position.getZ());
+            os.writeInt(region.size.getX());
+            os.writeInt(region.size.getY());
+            os.writeInt(region.size.getZ());
+            os.writeBoolean(region.hasEntities);
+            os.writeLong(region.sourceOffset);
+            os.writeLong(region.dataOffset);
+        }
+
+        os.writeLong(indexOffset);
+
+        return true;
+    }
+
+    /**
+     * Deletes the least recently used cache files, until the total size of the cache
+     * is within the configured maximum size. The just written file is never deleted.
+     */
+    private static void trimCache(File keepFile)
+    {
+        File[] files = getCacheDir().listFiles();
+
+        if (files == null)
+        {
+            return;
+        }
+
+        final long maxSize = (long) Configs.Generic.SCHEMATIC_DATA_CACHE_SIZE.getIntegerValue() * 1024L * 1024L;
+        long totalSize = 0;
+
+        for (File file : files)
+        {
+            if (isCacheFile(file))
+            {
+                totalSize += file.length();
+            }
+        }
+
+        if (totalSize <= maxSize)
+        {
+            return;
+        }
+
+        Arrays.sort(files, new Comparator<File>()
+        {
+            @Override
+            public int compare(File file1, File file2)
+            {
+                return Long.compare(file1.lastModified(), file2.lastModified());
+            }
+        });
+
+        for (File file : files)
+        {
+            if (totalSize <= maxSize)
+            {
+                break;
+            }
+
+            if (isCacheFile(file) && file.equals(keepFile) == false)
+            {
+                final long size = file.length();
+
+                if (file.delete())
+                {
+                    totalSize -= size;
+                }
+            }
+        }
+    }
+
+    /**
+     * Deletes all the cache files
+     */
+    public static void clearCache()
+    {
+        File[] files = getCacheDir().listFiles();
+
+        if (files != null)
+        {
+            for (File file : files)
+            {
+                if (file.isFile())
+                {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * The temporary files of the cache files that are being written are not included
+     */
+    private static boolean isCacheFile(File file)
+    {
+        return file.isFile() && file.getName().endsWith(".cache");
+    }
+
+    private static File getCacheDir()
+    {
+        return new File(new File(FileUtils.getConfigDirectory(), Reference.MOD_ID), "schematic_cache");
+    }
+
+    /**
+     * The cache files are named by the hash of the source file's absolute path,
+     * so the same file always maps to the same cache file, overwriting any outdated data.
+     */
+    private static File getCacheFile(File sourceFile)
+    {
+        return new File(getCacheDir(), DigestUtils.sha1Hex(sourceFile.getAbsolutePath()) + ".cache");
+    }
+
+    public static class CachedIndex
+    {
+        public final int version;
+        public final NBTTagCompound metadataTag;
+        public final List<CachedRegion> regions;
+
+        public CachedIndex(int version, NBTTagCompound metadataTag, List<CachedRegion> regions)
+        {
+            this.version = version;
+            this.metadataTag = metadataTag;
+            this.regions = regions;
+        }
+    }
+
+    public static class CachedRegion
+    {
+        public final String name;
+        public final BlockPos position;
+        public final BlockPos size;
+        public final boolean hasEntities;
+        /** The offset of the sub-region in the uncompressed data of the schematic file */
+        public final long sourceOffset;
+        /** The offset of the sub-region's data in the cache file */
+        public final long dataOffset;
+
+        public CachedRegion(String name, BlockPos position, BlockPos size, boolean hasEntities, long sourceOffset, long dataOffset)
+        {
+            this.name = name;
+            this.position = position;
+            this.size = size;
+            this.hasEntities = hasEntities;
+            this.sourceOffset = sourceOffset;
+            this.dataOffset = dataOffset;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package fi.dy.masa.litematica.schematic;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Tracks the progress of a schematic being read from a file, possibly on another thread.
+ * Also used to cancel the reading, in which case the reader throws a
+ * {@link CancellationException} at the next read from the file.
+ */
+public class SchematicLoadProgress
+{
+    private final long totalBytes;
+    private volatile long bytesRead;
+    private volatile int regionCount;
+    private volatile int regionsRead;
+    private volatile boolean cancelled;
+
+    public SchematicLoadProgress(long totalBytes)
+    {
+        this.totalBytes = totalBytes;
+    }
+
+    /**
+     * Returns the size of the (compressed) file being read
+     */
+    public long getTotalBytes()
+    {
+        return this.totalBytes;
+    }
+
+    /**
+     * Returns the number of (compressed) bytes read from the file so far
+     */
+    public long getBytesRead()
+    {
+        return this.bytesRead;
+    }
+
+    /**
+     * Returns the number of sub-regions in the schematic, as stored in the metadata,
+     * or 0 if the metadata hasn't been read yet.
+     */
+    public int getRegionCount()
+    {
+        return this.regionCount;
+    }
+
+    public int getRegionsRead()
+    {
+        return this.regionsRead;
+    }
+
+    public boolean isCancelled()
+    {
+        return this.cancelled;
+    }
+
+    public void cancel()
+    {
+        this.cancelled = true;
+    }
+
+    void setRegionCount(int regionCount)
+    {
+        this.regionCount = regionCount;
+    }
+
+    void onRegionRead()
+    {
+        this.regionsRead++;
+    }
+
+    InputStream wrapInputStream(InputStream is)
+    {
+        return new ProgressInputStream(is, this);
+    }
+
+    private static class ProgressInputStream extends FilterInputStream
+    {
+        private final SchematicLoadProgress progress;
+        private long bytesRead;
+
+        public ProgressInputStream(InputStream in, SchematicLoadProgress progress)
+        {
+            super(in);
+
+            this.progress = progress;
+        }
+
+        private void onRead(long count)
+        {
+            if (this.progress.cancelled)
+            {
+                throw new CancellationException("Schematic loading cancelled");
+            }
+
+            if (count > 0)
+            {
+                this.bytesRead += count;
+                this.progress.bytesRead = this.bytesRead;
+            }
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            int value = super.read();
+            this.onRead(value != -1 ? 1 : 0);
+            return value;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            int count = super.read(b, off, len);
+            this.onRead(count);
+            return count;
+        }
+
+        @Override
+        public long skip(long n) throws IOException
+        {
+            long count = super.skip(n);
+            this.onRead(count);
+            return count;
+        }
+    }
+}
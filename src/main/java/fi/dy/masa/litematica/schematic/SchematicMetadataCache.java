@@ -0,0 +1,228 @@
+package fi.dy.masa.litematica.schematic;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import javax.annotation.Nullable;
+import fi.dy.masa.litematica.LiteModLitematica;
+import fi.dy.masa.litematica.Reference;
+import fi.dy.masa.malilib.util.Constants;
+import fi.dy.masa.malilib.util.FileUtils;
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagList;
+
+/**
+ * Persistent cache of the metadata of the schematic files, so that the schematic browser
+ * doesn't need to open and decompress the schematic files again on every visit.
+ * The entries are keyed by the absolute file path, and are only valid as long as
+ * the file size and the last modified time still match.
+ */
+public class SchematicMetadataCache
+{
+    private static final SchematicMetadataCache INSTANCE = new SchematicMetadataCache();
+
+    protected final Map<String, CacheEntry> entries = new HashMap<>();
+    protected boolean hasReadFromFile;
+    protected boolean dirty;
+
+    private SchematicMetadataCache()
+    {
+    }
+
+    public static SchematicMetadataCache getInstance()
+    {
+        if (INSTANCE.hasReadFromFile == false)
+        {
+            INSTANCE.readFromFile();
+        }
+
+        return INSTANCE;
+    }
+
+    public void clearCache()
+    {
+        this.entries.clear();
+        this.dirty = true;
+    }
+
+    /**
+     * Returns the metadata of the given schematic file, either from the cache,
+     * or by reading just the metadata from the file, if the file has changed
+     * since it was cached.
+     * @return the metadata, or null if the file is not a valid schematic
+     */
+    @Nullable
+    public SchematicMetadata getMetadata(File file)
+    {
+        String path = file.getAbsolutePath();
+        final long fileSize = file.length();
+        final long lastModified = file.lastModified();
+        CacheEntry entry = this.entries.get(path);
+
+        if (entry != null && entry.fileSize == fileSize && entry.lastModified == lastModified)
+        {
+            return entry.metadata;
+        }
+
+        SchematicMetadata metadata = LitematicaSchematic.readMetadataFromFile(file);
+
+        if (metadata != null)
+        {
+            this.entries.put(path, new CacheEntry(fileSize, lastModified, metadata));
+            this.dirty = true;
+        }
+        else if (entry != null)
+        {
+            this.entries.remove(path);
+            this.dirty = true;
+        }
+
+        return metadata;
+    }
+
+    protected NBTTagCompound writeToNBT()
+    {
+        NBTTagCompound nbt = new NBTTagCompound();
+        NBTTagList list = new NBTTagList();
+
+        for (Map.Entry<String, CacheEntry> entry : this.entries.entrySet())
+        {
+            // Don't keep the entries for removed files around forever
+            if (new File(entry.getKey()).isFile() == false)
+            {
+                continue;
+            }
+
+            CacheEntry cacheEntry = entry.getValue();
+            NBTTagCompound tag = new NBTTagCompound();
+
+            tag.setString("Path", entry.getKey());
+            tag.setLong("FileSize", cacheEntry.fileSize);
+            tag.setLong("LastModified", cacheEntry.lastModified);
+            tag.setTag("Metadata", cacheEntry.metadata.writeToNBT());
+
+            list.appendTag(tag);
+        }
+
+        nbt.setTag("SchematicMetadataCache", list);
+
+        return nbt;
+    }
+
+    protected boolean readFromNBT(NBTTagCompound nbt)
+    {
+        this.entries.clear();
+
+        if (nbt.hasKey("SchematicMetadataCache", Constants.NBT.TAG_LIST))
+        {
+            NBTTagList list = nbt.getTagList("SchematicMetadataCache", Constants.NBT.TAG_COMPOUND);
+            final int count = list.tagCount();
+
+            for (int i = 0; i < count; ++i)
+            {
+                NBTTagCompound tag = list.getCompoundTagAt(i);
+
+                if (tag.hasKey("Path", Constants.NBT.TAG_STRING) &&
+                    tag.hasKey("Metadata", Constants.NBT.TAG_COMPOUND))
+                {
+                    SchematicMetadata metadata = new SchematicMetadata();
+                    metadata.readFromNBT(tag.getCompoundTag("Metadata"));
+
+                    this.entries.put(tag.getString("Path"), new CacheEntry(tag.getLong("FileSize"), tag.getLong("LastModified"), metadata));
+                }
+            }
+
+            return true;
+        }
+
+        return false;
+    }
+
+    protected File getCacheDir()
+    {
+        return new File(FileUtils.getConfigDirectory(), Reference.MOD_ID);
+    }
+
+    protected File getCacheFile()
+    {
+        return new File(this.getCacheDir(), "schematic_metadata_cache.nbt");
+    }
+
+    public boolean writeToFile()
+    {
+        if (this.dirty == false)
+        {
+            return false;
+        }
+
+        File dir = this.getCacheDir();
+        File file = this.getCacheFile();
+
+        try
+        {
+            if (dir.exists() == false && dir.mkdirs() == false)
+            {
+                LiteModLitematica.logger.warn("Failed to write the schematic metadata cache to file '{}'", file.getAbsolutePath());
+                return false;
+            }
+
+            FileOutputStream os = new FileOutputStream(file);
+            CompressedStreamTools.writeCompressed(this.writeToNBT(), os);
+            os.close();
+            this.dirty = false;
+
+            return true;
+        }
+        catch (Exception e)
+        {
+            LiteModLitematica.logger.warn("Failed to write the schematic metadata cache to file '{}'", file.getAbsolutePath(), e);
+        }
+
+        return false;
+    }
+
+    public void readFromFile()
+    {
+        File file = this.getCacheFile();
+        this.hasReadFromFile = true;
+
+        if (file.exists() == false || file.canRead() == false)
+        {
+            return;
+        }
+
+        try
+        {
+            FileInputStream is = new FileInputStream(file);
+            NBTTagCompound nbt = CompressedStreamTools.readCompressed(is);
+            is.close();
+
+            if (nbt != null)
+            {
+                this.readFromNBT(nbt);
+                this.dirty = false;
+            }
+        }
+        catch (Exception e)
+        {
+            LiteModLitematica.logger.warn("Failed to read the schematic metadata cache from file '{}'", file.getAbsolutePath(), e);
+        }
+    }
+
+    protected static class CacheEntry
+    {
+        public final long fileSize;
+        public final long lastModified;
+        public final SchematicMetadata metadata;
+
+        public CacheEntry(long fileSize, long lastModified, SchematicMetadata metadata)
+        {
+            this.fileSize = fileSize;
+            this.lastModified = lastModified;
+            this.metadata = metadata;
+        }
+    }
+}
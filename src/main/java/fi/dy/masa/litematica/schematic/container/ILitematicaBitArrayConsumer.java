@@ -0,0 +1,11 @@
+package fi.dy.masa.litematica.schematic.container;
+
+public interface ILitematicaBitArrayConsumer
+{
+    /**
+     * Called for each entry in the bit array, in index order.
+     * @param index the index of the entry
+     * @param value the value stored at that index
+     */
+    void accept(int index, int value);
+}
@@ -7,16 +7,16 @@ import net.minecraft.util.math.MathHelper;
 public class LitematicaBitArray
 {
     /** The long array that is used to store the data for this BitArray. */
-    private final long[] longArray;
+    protected final long[] longArray;
     /** Number of bits a single entry takes up */
-    private final int bitsPerEntry;
+    protected final int bitsPerEntry;
     /**
      * The maximum value for a single entry. This also works as a bitmask for a single entry.
      * For instance, if bitsPerEntry were 5, this value would be 31 (ie, {@code 0b00011111}).
      */
-    private final long maxEntryValue;
+    protected final long maxEntryValue;
     /** Number of entries in this array (<b>not</b> the length of the long array that internally backs this array) */
-    private final int arraySize;
+    protected final int arraySize;
 
     public LitematicaBitArray(int bitsPerEntryIn, int arraySizeIn)
     {
@@ -77,11 +77,301 @@ public class LitematicaBitArray
         }
     }
 
+    /**
+     * Decodes all the entries of this array into the given int array.
+     * @param out the output array, must be at least size() long
+     */
+    public void getAll(int[] out)
+    {
+        this.getRange(0, this.arraySize, out, 0);
+    }
+
+    /**
+     * Decodes <b>count</b> entries starting from <b>startIndex</b> into the given int array.
+     * The range is only validated once, there are no per-entry checks.
+     */
+    public void getRange(int startIndex, int count, int[] out, int outOffset)
+    {
+        this.validateRange(startIndex, count);
+
+        if (count == 0)
+        {
+            return;
+        }
+
+        final long[] arr = this.longArray;
+        final int bits = this.bitsPerEntry;
+        final long mask = this.maxEntryValue;
+        final long startOffset = (long) startIndex * bits;
+        int arrIndex = (int) (startOffset >> 6);
+        int bitOffset = (int) (startOffset & 0x3F);
+        long word = arr[arrIndex];
+        final int end = outOffset + count;
+
+        for (int i = outOffset; i < end; ++i)
+        {
+            if (bitOffset == 64)
+            {
+                word = arr[++arrIndex];
+                bitOffset = 0;
+            }
+
+            final int nextOffset = bitOffset + bits;
+
+            if (nextOffset <= 64)
+            {
+                out[i] = (int) ((word >>> bitOffset) & mask);
+                bitOffset = nextOffset;
+            }
+            else
+            {
+                long low = word >>> bitOffset;
+                word = arr[++arrIndex];
+                out[i] = (int) ((low | (word << (64 - bitOffset))) & mask);
+                bitOffset = nextOffset - 64;
+            }
+        }
+    }
+
+    /**
+     * Encodes <b>count</b> values from the given int array into this array, starting from <b>startIndex</b>.
+     * The range is only validated once, and the values are only masked to the entry size.
+     */
+    public void setRange(int startIndex, int count, int[] values, int valuesOffset)
+    {
+        this.validateRange(startIndex, count);
+
+        if (count == 0)
+        {
+            return;
+        }
+
+        final long[] arr = this.longArray;
+        final int bits = this.bitsPerEntry;
+        final long mask = this.maxEntryValue;
+        final long startOffset = (long) startIndex * bits;
+        int arrIndex = (int) (startOffset >> 6);
+        int bitOffset = (int) (startOffset & 0x3F);
+        long word = arr[arrIndex];
+        final int end = valuesOffset + count;
+
+        for (int i = valuesOffset; i < end; ++i)
+        {
+            if (bitOffset == 64)
+            {
+                arr[arrIndex] = word;
+                word = arr[++arrIndex];
+                bitOffset = 0;
+            }
+
+            final long value = (long) values[i] & mask;
+            final int nextOffset = bitOffset + bits;
+            word = (word & ~(mask << bitOffset)) | (value << bitOffset);
+
+            if (nextOffset <= 64)
+            {
+                bitOffset = nextOffset;
+            }
+            else
+            {
+                final int lowBits = 64 - bitOffset;
+                arr[arrIndex] = word;
+                word = arr[++arrIndex];
+                word = (word & ~(mask >>> lowBits)) | (value >>> lowBits);
+                bitOffset = nextOffset - 64;
+            }
+        }
+
+        arr[arrIndex] = word;
+    }
+
+    /**
+     * Sets all the entries from <b>startIndex</b> (inclusive) to <b>endIndex</b> (exclusive) to the given value.
+     */
+    public void fill(int startIndex, int endIndex, int value)
+    {
+        final int count = endIndex - startIndex;
+        this.validateRange(startIndex, count);
+        Validate.inclusiveBetween(0L, this.maxEntryValue, (long) value);
+
+        if (count == 0)
+        {
+            return;
+        }
+
+        final long[] arr = this.longArray;
+        final int bits = this.bitsPerEntry;
+        final long mask = this.maxEntryValue;
+        final long valueLong = value;
+        final long startOffset = (long) startIndex * bits;
+        int arrIndex = (int) (startOffset >> 6);
+        int bitOffset = (int) (startOffset & 0x3F);
+        long word = arr[arrIndex];
+
+        for (int i = 0; i < count; ++i)
+        {
+            if (bitOffset == 64)
+            {
+                arr[arrIndex] = word;
+                word = arr[++arrIndex];
+                bitOffset = 0;
+            }
+
+            final int nextOffset = bitOffset + bits;
+            word = (word & ~(mask << bitOffset)) | (valueLong << bitOffset);
+
+            if (nextOffset <= 64)
+            {
+                bitOffset = nextOffset;
+            }
+            else
+            {
+                final int lowBits = 64 - bitOffset;
+                arr[arrIndex] = word;
+                word = arr[++arrIndex];
+                word = (word & ~(mask >>> lowBits)) | (valueLong >>> lowBits);
+                bitOffset = nextOffset - 64;
+            }
+        }
+
+        arr[arrIndex] = word;
+    }
+
+    /**
+     * Calls the consumer for every entry in this array, in index order.
+     */
+    public void forEach(ILitematicaBitArrayConsumer consumer)
+    {
+        this.forEach(0, this.arraySize, consumer);
+    }
+
+    /**
+     * Calls the consumer for <b>count</b> entries starting from <b>startIndex</b>, in index order.
+     */
+    public void forEach(int startIndex, int count, ILitematicaBitArrayConsumer consumer)
+    {
+        this.validateRange(startIndex, count);
+
+        if (count == 0)
+        {
+            return;
+        }
+
+        final long[] arr = this.longArray;
+        final int bits = this.bitsPerEntry;
+        final long mask = this.maxEntryValue;
+        final long startOffset = (long) startIndex * bits;
+        int arrIndex = (int) (startOffset >> 6);
+        int bitOffset = (int) (startOffset & 0x3F);
+        long word = arr[arrIndex];
+        final int end = startIndex + count;
+
+        for (int index = startIndex; index < end; ++index)
+        {
+            if (bitOffset == 64)
+            {
+                word = arr[++arrIndex];
+                bitOffset = 0;
+            }
+
+            final int nextOffset = bitOffset + bits;
+
+            if (nextOffset <= 64)
+            {
+                consumer.accept(index, (int) ((word >>> bitOffset) & mask));
+                bitOffset = nextOffset;
+            }
+            else
+            {
+                long low = word >>> bitOffset;
+                word = arr[++arrIndex];
+                consumer.accept(index, (int) ((low | (word << (64 - bitOffset))) & mask));
+                bitOffset = nextOffset - 64;
+            }
+        }
+    }
+
+    /**
+     * Adds the number of occurrences of each value in this array to the given counts array,
+     * decoding the values directly from the backing long array.
+     * @param counts the counts per value, must be at least (1 << bitsPerEntry) long
+     */
+    public void countEntries(int[] counts)
+    {
+        final int count = this.arraySize;
+
+        if (count == 0)
+        {
+            return;
+        }
+
+        final long[] arr = this.longArray;
+        final int bits = this.bitsPerEntry;
+        final long mask = this.maxEntryValue;
+        int arrIndex = 0;
+        int bitOffset = 0;
+        long word = arr[0];
+
+        for (int i = 0; i < count; ++i)
+        {
+            if (bitOffset == 64)
+            {
+                word = arr[++arrIndex];
+                bitOffset = 0;
+            }
+
+            final int nextOffset = bitOffset + bits;
+
+            if (nextOffset <= 64)
+            {
+                ++counts[(int) ((word >>> bitOffset) & mask)];
+                bitOffset = nextOffset;
+            }
+            else
+            {
+                long low = word >>> bitOffset;
+                word = arr[++arrIndex];
+                ++counts[(int) ((low | (word << (64 - bitOffset))) & mask)];
+                bitOffset = nextOffset - 64;
+            }
+        }
+    }
+
+    protected void validateRange(int startIndex, int count)
+    {
+        if (startIndex < 0 || count < 0 || startIndex > this.arraySize - count)
+        {
+            throw new IndexOutOfBoundsException(String.format("Invalid range - start: %d, count: %d, array size: %d", startIndex, count, this.arraySize));
+        }
+    }
+
+    /**
+     * Returns a copy of this array, which doesn't share the backing long array with this array.
+     */
+    public LitematicaBitArray copy()
+    {
+        return new LitematicaBitArray(this.bitsPerEntry, this.arraySize, this.longArray.clone());
+    }
+
     public long[] getBackingLongArray()
     {
         return this.longArray;
     }
 
+    /**
+     * Returns the data of this array in the tightly packed format, where entries
+     * can span across two longs. This is the format used in the schematic files.
+     */
+    public long[] getTightlyPackedLongArray()
+    {
+        return this.longArray;
+    }
+
+    public int getBitsPerEntry()
+    {
+        return this.bitsPerEntry;
+    }
+
     public int size()
     {
         return this.arraySize;
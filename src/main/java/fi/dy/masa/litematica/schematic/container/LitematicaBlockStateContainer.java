@@ -1,35 +1,89 @@
 package fi.dy.masa.litematica.schematic.container;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
+import javax.annotation.Nullable;
+import fi.dy.masa.litematica.config.Configs;
 import net.minecraft.block.state.IBlockState;
 import net.minecraft.init.Blocks;
 import net.minecraft.nbt.NBTTagList;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.math.Vec3i;
 
+/**
+ * Stores the block states of one sub-region. The volume is split into sections
+ * of 16 y-layers. Sections where all the positions have the same block state
+ * (most commonly all air) only store that single palette id, and the packed
+ * bit array storage is only allocated for the mixed sections.
+ * All the sections share the same palette.
+ */
 public class LitematicaBlockStateContainer implements ILitematicaBlockStatePaletteResizer
 {
     public static final IBlockState AIR_BLOCK_STATE = Blocks.AIR.getDefaultState();
-    protected LitematicaBitArray storage;
+    public static final int SECTION_HEIGHT = 16;
+    private static final int COPY_BUFFER_SIZE = 4096;
+    private static final byte CACHE_SECTION_UNIFORM = 0;
+    private static final byte CACHE_SECTION_PACKED = 1;
+    private static final byte CACHE_SECTION_PADDED = 2;
+    /** The packed storage for each section, or null for uniform sections */
+    protected final LitematicaBitArray[] sections;
+    /** The palette id of all the positions in each uniform section. Only valid for the sections without a storage. */
+    protected final int[] uniformIds;
     protected ILitematicaBlockStatePalette palette;
+    /** The cached number of positions per palette id, or null if it needs to be re-counted */
+    @Nullable protected int[] cachedBlockCounts;
     protected final int sizeX;
     protected final int sizeY;
     protected final int sizeZ;
     protected final int sizeLayer;
+    /** Whether the sections use the word-aligned format. This is fixed for the lifetime of the container. */
+    protected final boolean padded;
     protected int bits;
+    /** Held by the mutators, so that readers on other threads can detect concurrent modifications via the read stamps */
+    private final StampedLock lock = new StampedLock();
 
     public LitematicaBlockStateContainer(int sizeX, int sizeY, int sizeZ)
     {
         this(sizeX, sizeY, sizeZ, 2, null);
     }
 
-    private LitematicaBlockStateContainer(int sizeX, int sizeY, int sizeZ, int bits, long[] backingLongArray)
+    /**
+     * Creates a container with enough bits reserved up front for the given
+     * number of different block states, to avoid repeated palette resizes while filling it.
+     * @param expectedPaletteSize the known or estimated number of different block states, including air
+     */
+    public LitematicaBlockStateContainer(int sizeX, int sizeY, int sizeZ, int expectedPaletteSize)
+    {
+        this(sizeX, sizeY, sizeZ, getRequiredBits(expectedPaletteSize), null);
+    }
+
+    private LitematicaBlockStateContainer(int sizeX, int sizeY, int sizeZ, int bits, @Nullable long[] tightlyPackedArray)
+    {
+        this(sizeX, sizeY, sizeZ, bits, Configs.Generic.PADDED_BLOCK_STATE_STORAGE.getBooleanValue(), tightlyPackedArray);
+    }
+
+    private LitematicaBlockStateContainer(int sizeX, int sizeY, int sizeZ, int bits, boolean padded, @Nullable long[] tightlyPackedArray)
     {
         this.sizeX = sizeX;
         this.sizeY = sizeY;
         this.sizeZ = sizeZ;
         this.sizeLayer = sizeX * sizeZ;
+        this.padded = padded;
+
+        final int sectionCount = (sizeY + SECTION_HEIGHT - 1) / SECTION_HEIGHT;
+        this.sections = new LitematicaBitArray[sectionCount];
+        this.uniformIds = new int[sectionCount];
 
-        this.setBits(bits, backingLongArray);
+        this.setBits(bits);
+
+        if (tightlyPackedArray != null)
+        {
+            this.readSections(new LitematicaBitArray(this.bits, this.sizeLayer * sizeY, tightlyPackedArray));
+        }
     }
 
     public Vec3i getSize()
@@ -39,28 +93,377 @@ public class LitematicaBlockStateContainer implements ILitematicaBlockStatePalet
 
     public IBlockState get(int x, int y, int z)
     {
-        IBlockState state = this.palette.getBlockState(this.storage.getAt(this.getIndex(x, y, z)));
+        IBlockState state = this.palette.getBlockState(this.getId(x, y, z));
         return state == null ? AIR_BLOCK_STATE : state;
     }
 
+    /**
+     * Returns the raw palette id at the given position
+     */
+    public int getId(int x, int y, int z)
+    {
+        final int sectionIndex = y / SECTION_HEIGHT;
+        LitematicaBitArray section = this.sections[sectionIndex];
+
+        if (section != null)
+        {
+            return section.getAt(this.getIndexInSection(x, y, z));
+        }
+
+        return this.uniformIds[sectionIndex];
+    }
+
+    /**
+     * Returns the number of positions in this container for each palette id, indexed by the palette id.
+     * The counts are computed directly from the packed data, and the uniform sections
+     * are counted without decoding them. The result is cached until the container is modified.
+     * <b>Note:</b> The returned array is the cached array, and must not be modified.
+     */
+    public int[] getBlockCounts()
+    {
+        int[] counts = this.cachedBlockCounts;
+
+        if (counts == null)
+        {
+            final int paletteSize = this.palette.getPaletteSize();
+            counts = new int[Math.max(1 << this.bits, paletteSize)];
+
+            for (int sectionIndex = 0; sectionIndex < this.sections.length; ++sectionIndex)
+            {
+                LitematicaBitArray section = this.sections[sectionIndex];
+
+                if (section != null)
+                {
+                    section.countEntries(counts);
+                }
+                else
+                {
+                    counts[this.uniformIds[sectionIndex]] += this.getSectionVolume(sectionIndex);
+                }
+            }
+
+            // Any ids outside of the palette are read as air
+            for (int id = paletteSize; id < counts.length; ++id)
+            {
+                counts[0] += counts[id];
+            }
+
+            counts = Arrays.copyOf(counts, paletteSize);
+            this.cachedBlockCounts = counts;
+        }
+
+        return counts;
+    }
+
+    /**
+     * Returns the block state for the given raw palette id.
+     * Missing ids are returned as air, same as in {@link #get(int, int, int)}.
+     */
+    public IBlockState getStateForId(int id)
+    {
+        IBlockState state = this.palette.getBlockState(id);
+        return state == null ? AIR_BLOCK_STATE : state;
+    }
+
+    /**
+     * Decodes the raw palette ids of <b>count</b> consecutive positions along the x-axis,
+     * starting from the given position, into the given array.
+     */
+    public void getIdsAlongX(int x, int y, int z, int count, int[] out)
+    {
+        final int sectionIndex = y / SECTION_HEIGHT;
+        LitematicaBitArray section = this.sections[sectionIndex];
+
+        if (section != null)
+        {
+            section.getRange(this.getIndexInSection(x, y, z), count, out, 0);
+        }
+        else
+        {
+            Arrays.fill(out, 0, count, this.uniformIds[sectionIndex]);
+        }
+    }
+
+    /**
+     * Decodes the raw palette ids of one entire y-layer into the given array.
+     * The array must be at least sizeX * sizeZ long. The ids are in z-major, x-minor order.
+     */
+    public void getLayerIds(int y, int[] out)
+    {
+        this.getIdsAlongX(0, y, 0, this.sizeLayer, out);
+    }
+
+    /**
+     * Encodes the raw palette ids of one entire y-layer from the given array.
+     * The ids must already exist in the palette of this container.
+     */
+    public void setLayerIds(int y, int[] ids)
+    {
+        final long stamp = this.lock.writeLock();
+
+        try
+        {
+            this.cachedBlockCounts = null;
+            this.getOrCreateSection(y / SECTION_HEIGHT).setRange(this.getIndexInSection(0, y, 0), this.sizeLayer, ids, 0);
+        }
+        finally
+        {
+            this.lock.unlockWrite(stamp);
+        }
+    }
+
     public void set(int x, int y, int z, IBlockState state)
     {
-        int id = this.palette.idFor(state);
-        this.storage.setAt(this.getIndex(x, y, z), id);
+        final long stamp = this.lock.writeLock();
+
+        try
+        {
+            // Note: This can resize the storage, so the section must be fetched only after this
+            final int id = this.palette.idFor(state);
+            final int sectionIndex = y / SECTION_HEIGHT;
+            LitematicaBitArray section = this.sections[sectionIndex];
+
+            if (section == null)
+            {
+                if (this.uniformIds[sectionIndex] == id)
+                {
+                    return;
+                }
+
+                section = this.getOrCreateSection(sectionIndex);
+            }
+
+            section.setAt(this.getIndexInSection(x, y, z), id);
+            this.cachedBlockCounts = null;
+        }
+        finally
+        {
+            this.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Returns a stamp for reading this container on another thread than the one modifying it.
+     * The reads done after getting the stamp are only consistent if
+     * {@link #isReadStampValid(long)} returns true for the stamp after the reads,
+     * otherwise the container was modified during the reads, and their results must be discarded.
+     * The reads can also throw exceptions in that case, for example while the storage is being resized.
+     */
+    public long getReadStamp()
+    {
+        return this.lock.tryOptimisticRead();
+    }
+
+    public boolean isReadStampValid(long stamp)
+    {
+        return stamp != 0 && this.lock.validate(stamp);
+    }
+
+    protected int getIndexInSection(int x, int y, int z)
+    {
+        return ((y % SECTION_HEIGHT) * this.sizeLayer) + z * this.sizeX + x;
+    }
+
+    public int getSectionCount()
+    {
+        return this.sections.length;
+    }
+
+    /**
+     * Returns true if all the positions in the given section have the same block state.
+     * Scans can use this together with {@link #getSectionUniformId(int)} to skip empty sections entirely.
+     */
+    public boolean isSectionUniform(int sectionIndex)
+    {
+        return this.sections[sectionIndex] == null;
+    }
+
+    /**
+     * Returns the palette id of all the positions in the given section,
+     * if the section is uniform, otherwise -1.
+     */
+    public int getSectionUniformId(int sectionIndex)
+    {
+        return this.sections[sectionIndex] == null ? this.uniformIds[sectionIndex] : -1;
     }
 
-    protected void set(int index, IBlockState state)
+    /**
+     * Returns the number of positions (ie. y-layers times the layer size) in the given section.
+     * The top-most section can be shorter than the full section height.
+     */
+    public int getSectionVolume(int sectionIndex)
     {
-        int id = this.palette.idFor(state);
-        this.storage.setAt(index, id);
+        final int minY = sectionIndex * SECTION_HEIGHT;
+        return Math.min(SECTION_HEIGHT, this.sizeY - minY) * this.sizeLayer;
     }
 
-    protected int getIndex(int x, int y, int z)
+    protected LitematicaBitArray getOrCreateSection(int sectionIndex)
     {
-        return (y * this.sizeLayer) + z * this.sizeX + x;
+        LitematicaBitArray section = this.sections[sectionIndex];
+
+        if (section == null)
+        {
+            final int uniformId = this.uniformIds[sectionIndex];
+            section = this.createSectionStorage(this.bits, this.getSectionVolume(sectionIndex));
+
+            if (uniformId != 0)
+            {
+                section.fill(0, section.size(), uniformId);
+            }
+
+            this.sections[sectionIndex] = section;
+        }
+
+        return section;
+    }
+
+    /**
+     * Releases the packed storage of all the sections that have only a single block state in them.
+     * This is useful after filling the container position by position, for example when
+     * creating a schematic from the world, where the sections get allocated as soon as
+     * they get the first non-air block.
+     */
+    public void compactSections()
+    {
+        final long stamp = this.lock.writeLock();
+
+        try
+        {
+            for (int sectionIndex = 0; sectionIndex < this.sections.length; ++sectionIndex)
+            {
+                LitematicaBitArray section = this.sections[sectionIndex];
+
+                if (section != null)
+                {
+                    final int uniformId = getUniformValue(section);
+
+                    if (uniformId != -1)
+                    {
+                        this.sections[sectionIndex] = null;
+                        this.uniformIds[sectionIndex] = uniformId;
+                    }
+                }
+            }
+        }
+        finally
+        {
+            this.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Returns the value of all the entries in the given array, if they are all the same, otherwise -1.
+     */
+    private static int getUniformValue(LitematicaBitArray array)
+    {
+        final int size = array.size();
+        final int[] buffer = new int[Math.min(COPY_BUFFER_SIZE, size)];
+        final int firstValue = array.getAt(0);
+
+        for (int start = 0; start < size; start += buffer.length)
+        {
+            final int count = Math.min(buffer.length, size - start);
+            array.getRange(start, count, buffer, 0);
+
+            for (int i = 0; i < count; ++i)
+            {
+                if (buffer[i] != firstValue)
+                {
+                    return -1;
+                }
+            }
+        }
+
+        return firstValue;
+    }
+
+    /**
+     * Splits the given full-volume data into the sections,
+     * detecting the uniform sections while copying the data.
+     */
+    protected void readSections(LitematicaBitArray source)
+    {
+        final int volume = source.size();
+        final int[] buffer = new int[Math.min(COPY_BUFFER_SIZE, volume)];
+        SectionWriter writer = new SectionWriter();
+
+        for (int start = 0; start < volume; start += buffer.length)
+        {
+            final int count = Math.min(buffer.length, volume - start);
+            source.getRange(start, count, buffer, 0);
+            writer.accept(buffer, 0, count);
+        }
+    }
+
+    /**
+     * Decodes the tightly packed full-volume data directly from the given input
+     * into the sections, without first reading the entire long array into memory.
+     * @param longCount the number of longs in the array in the input
+     */
+    protected void readSections(DataInput input, int longCount) throws IOException
+    {
+        final int volume = this.sizeLayer * this.sizeY;
+        final int bitsPerEntry = this.bits;
+        final long mask = (1L << bitsPerEntry) - 1L;
+        final int longsRequired = (int) (((long) volume * bitsPerEntry + 63L) / 64L);
+
+        if (longCount < longsRequired)
+        {
+            throw new IOException(String.format("Block state array is too short - expected %d longs, got %d", longsRequired, longCount));
+        }
+
+        final int[] buffer = new int[Math.min(COPY_BUFFER_SIZE, volume)];
+        SectionWriter writer = new SectionWriter();
+        int longsRead = 0;
+        int bitOffset = 64;
+        int bufferIndex = 0;
+        long word = 0;
+
+        for (int i = 0; i < volume; ++i)
+        {
+            if (bitOffset == 64)
+            {
+                word = input.readLong();
+                ++longsRead;
+                bitOffset = 0;
+            }
+
+            final int nextOffset = bitOffset + bitsPerEntry;
+
+            if (nextOffset <= 64)
+            {
+                buffer[bufferIndex] = (int) ((word >>> bitOffset) & mask);
+                bitOffset = nextOffset;
+            }
+            else
+            {
+                long low = word >>> bitOffset;
+                word = input.readLong();
+                ++longsRead;
+                buffer[bufferIndex] = (int) ((low | (word << (64 - bitOffset))) & mask);
+                bitOffset = nextOffset - 64;
+            }
+
+            if (++bufferIndex == buffer.length)
+            {
+                writer.accept(buffer, 0, bufferIndex);
+                bufferIndex = 0;
+            }
+        }
+
+        if (bufferIndex > 0)
+        {
+            writer.accept(buffer, 0, bufferIndex);
+        }
+
+        // Consume any extra data, so that the input is positioned after the array
+        for (int i = longsRead; i < longCount; ++i)
+        {
+            input.readLong();
+        }
     }
 
-    protected void setBits(int bitsIn, long[] backingLongArray)
+    protected void setBits(int bitsIn)
     {
         if (bitsIn != this.bits)
         {
@@ -77,41 +480,179 @@ public class LitematicaBlockStateContainer implements ILitematicaBlockStatePalet
             }
 
             this.palette.idFor(AIR_BLOCK_STATE);
+        }
+    }
 
-            if (backingLongArray != null)
+    /**
+     * Creates the bit array for the data of one section, in the in-memory format
+     * that was selected in the configs when this container was created.
+     */
+    protected LitematicaBitArray createSectionStorage(int bitsIn, int size)
+    {
+        if (this.padded)
+        {
+            return new LitematicaPaddedBitArray(bitsIn, size);
+        }
+
+        return new LitematicaBitArray(bitsIn, size);
+    }
+
+    @Override
+    public int onResize(int bits, IBlockState state)
+    {
+        this.resizeStorage(bits);
+        return this.palette.idFor(state);
+    }
+
+    /**
+     * Makes sure that the container can hold at least the given number of different
+     * block states without having to resize the storage again.
+     * This can be called with a known or estimated palette size before filling the container.
+     */
+    public void reservePaletteSize(int paletteSize)
+    {
+        int bitsIn = getRequiredBits(paletteSize);
+
+        if (bitsIn > this.bits)
+        {
+            final long stamp = this.lock.writeLock();
+
+            try
             {
-                this.storage = new LitematicaBitArray(this.bits, this.sizeX * this.sizeY * this.sizeZ, backingLongArray);
+                this.resizeStorage(bitsIn);
+            }
+            finally
+            {
+                this.lock.unlockWrite(stamp);
+            }
+        }
+    }
+
+    /**
+     * Re-packs the existing data into a new storage with the given number of bits per entry.
+     * The old palette ids are mapped to the new palette via a lookup table,
+     * so the block states don't need to be looked up again for every position.
+     */
+    protected void resizeStorage(int bitsIn)
+    {
+        final int bitsOld = this.bits;
+        ILitematicaBlockStatePalette paletteOld = this.palette;
+        this.cachedBlockCounts = null;
+        this.setBits(bitsIn);
+
+        final int paletteSizeOld = paletteOld.getPaletteSize();
+        // Note: The hash map palette has already added the new state before requesting the resize
+        final int[] idMap = new int[Math.max(1 << bitsOld, paletteSizeOld)];
+        boolean identityMapping = true;
+
+        for (int id = 0; id < paletteSizeOld; ++id)
+        {
+            IBlockState state = paletteOld.getBlockState(id);
+            idMap[id] = state != null ? this.palette.idFor(state) : 0;
+            identityMapping &= idMap[id] == id;
+        }
+
+        // Any ids not in the old palette were read as air before
+        identityMapping &= paletteSizeOld == idMap.length;
+
+        for (int sectionIndex = 0; sectionIndex < this.sections.length; ++sectionIndex)
+        {
+            LitematicaBitArray sectionOld = this.sections[sectionIndex];
+
+            if (sectionOld != null)
+            {
+                LitematicaBitArray section = this.createSectionStorage(this.bits, sectionOld.size());
+                copyEntries(sectionOld, section, 0, identityMapping ? null : idMap);
+                this.sections[sectionIndex] = section;
             }
             else
             {
-                this.storage = new LitematicaBitArray(this.bits, this.sizeX * this.sizeY * this.sizeZ);
+                this.uniformIds[sectionIndex] = idMap[this.uniformIds[sectionIndex]];
             }
         }
     }
 
-    @Override
-    public int onResize(int bits, IBlockState state)
+    /**
+     * Copies all the entries from <b>source</b> to <b>target</b>, starting from <b>targetStartIndex</b>
+     * in the target array, optionally mapping the values through the given lookup table.
+     */
+    protected static void copyEntries(LitematicaBitArray source, LitematicaBitArray target, int targetStartIndex, @Nullable int[] idMap)
     {
-        LitematicaBitArray bitArray = this.storage;
-        ILitematicaBlockStatePalette statePaletteOld = this.palette;
-        this.setBits(bits, null);
+        final int size = source.size();
+        final int[] buffer = new int[Math.min(COPY_BUFFER_SIZE, size)];
 
-        for (int id = 0; id < bitArray.size(); ++id)
+        for (int start = 0; start < size; start += buffer.length)
         {
-            IBlockState stateTmp = statePaletteOld.getBlockState(bitArray.getAt(id));
+            final int count = Math.min(buffer.length, size - start);
+            source.getRange(start, count, buffer, 0);
 
-            if (stateTmp != null)
+            if (idMap != null)
             {
-                this.set(id, stateTmp);
+                for (int i = 0; i < count; ++i)
+                {
+                    buffer[i] = idMap[buffer[i]];
+                }
             }
+
+            target.setRange(targetStartIndex + start, count, buffer, 0);
         }
+    }
 
-        return this.palette.idFor(state);
+    /**
+     * Returns the number of bits needed per entry for the given palette size.
+     * The minimum is 2 bits, same as for the default empty container.
+     */
+    public static int getRequiredBits(int paletteSize)
+    {
+        return Math.max(2, Integer.SIZE - Integer.numberOfLeadingZeros(Math.max(paletteSize, 1) - 1));
+    }
+
+    /**
+     * Returns the block data in the tightly packed format used in the schematic files,
+     * as one array for the entire volume, regardless of the in-memory format of this container.
+     * The data is packed using the number of bits required by the current palette size,
+     * which is what the schematic loading expects, even if more bits have been reserved.
+     */
+    public long[] getTightlyPackedLongArray()
+    {
+        final int bitsRequired = getRequiredBits(this.palette.getPaletteSize());
+        LitematicaBitArray target = new LitematicaBitArray(bitsRequired, this.sizeLayer * this.sizeY);
+
+        for (int sectionIndex = 0; sectionIndex < this.sections.length; ++sectionIndex)
+        {
+            LitematicaBitArray section = this.sections[sectionIndex];
+            final int startIndex = sectionIndex * SECTION_HEIGHT * this.sizeLayer;
+
+            if (section != null)
+            {
+                copyEntries(section, target, startIndex, null);
+            }
+            else if (this.uniformIds[sectionIndex] != 0)
+            {
+                target.fill(startIndex, startIndex + this.getSectionVolume(sectionIndex), this.uniformIds[sectionIndex]);
+            }
+        }
+
+        return target.getBackingLongArray();
     }
 
-    public long[] getBackingLongArray()
+    /**
+     * Returns a copy of this container, which doesn't share any mutable data with this container.
+     * This can be used to take a snapshot of the container for processing it on another thread.
+     */
+    public LitematicaBlockStateContainer copy()
     {
-        return this.storage.getBackingLongArray();
+        LitematicaBlockStateContainer copy = new LitematicaBlockStateContainer(this.sizeX, this.sizeY, this.sizeZ, this.bits, this.padded, null);
+        copy.palette.readFromNBT(this.palette.writeToNBT());
+        System.arraycopy(this.uniformIds, 0, copy.uniformIds, 0, this.uniformIds.length);
+
+        for (int sectionIndex = 0; sectionIndex < this.sections.length; ++sectionIndex)
+        {
+            LitematicaBitArray section = this.sections[sectionIndex];
+            copy.sections[sectionIndex] = section != null ? section.copy() : null;
+        }
+
+        return copy;
     }
 
     public ILitematicaBlockStatePalette getPalette()
@@ -121,9 +662,222 @@ public class LitematicaBlockStateContainer implements ILitematicaBlockStatePalet
 
     public static LitematicaBlockStateContainer createFrom(NBTTagList palette, long[] blockStates, BlockPos size)
     {
-        int bits = Math.max(2, Integer.SIZE - Integer.numberOfLeadingZeros(palette.tagCount() - 1));
+        int bits = getRequiredBits(palette.tagCount());
         LitematicaBlockStateContainer container = new LitematicaBlockStateContainer(size.getX(), size.getY(), size.getZ(), bits, blockStates);
         container.palette.readFromNBT(palette);
         return container;
     }
+
+    /**
+     * Creates a container by decoding the tightly packed block state array
+     * directly from the given input. The input must be positioned at the
+     * first long of the array, ie. right after the array length.
+     * @param longCount the length of the long array in the input
+     */
+    public static LitematicaBlockStateContainer createFromStream(NBTTagList palette, DataInput input, int longCount, BlockPos size) throws IOException
+    {
+        int bits = getRequiredBits(palette.tagCount());
+        LitematicaBlockStateContainer container = new LitematicaBlockStateContainer(size.getX(), size.getY(), size.getZ(), bits, null);
+        container.readSections(input, longCount);
+        container.palette.readFromNBT(palette);
+        return container;
+    }
+
+    /**
+     * Writes the decoded sections of this container into the given output, in the format
+     * read by {@link #createFromCache(NBTTagList, DataInput)}. The sections are written
+     * in their in-memory format, so reading them back doesn't need any decoding.
+     * The palette is not included, it's stored separately in the region's NBT data.
+     */
+    public void writeSectionsToCache(DataOutput output) throws IOException
+    {
+        output.writeInt(this.sizeX);
+        output.writeInt(this.sizeY);
+        output.writeInt(this.sizeZ);
+        output.writeInt(this.bits);
+
+        for (int sectionIndex = 0; sectionIndex < this.sections.length; ++sectionIndex)
+        {
+            LitematicaBitArray section = this.sections[sectionIndex];
+
+            if (section == null)
+            {
+                output.writeByte(CACHE_SECTION_UNIFORM);
+                output.writeInt(this.uniformIds[sectionIndex]);
+            }
+            else
+            {
+                long[] arr = section.getBackingLongArray();
+                output.writeByte(section instanceof LitematicaPaddedBitArray ? CACHE_SECTION_PADDED : CACHE_SECTION_PACKED);
+                output.writeInt(arr.length);
+
+                for (long value : arr)
+                {
+                    output.writeLong(value);
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates a container from the section data written by {@link #writeSectionsToCache(DataOutput)}.
+     * The packed longs are read in bulk through a small scratch buffer, straight into the section arrays.
+     * Sections stored in the other in-memory format than the one used by this container get converted.
+     */
+    public static LitematicaBlockStateContainer createFromCache(NBTTagList palette, DataInput input) throws IOException
+    {
+        final int sizeX = input.readInt();
+        final int sizeY = input.readInt();
+        final int sizeZ = input.readInt();
+        final int bits = input.readInt();
+
+        if (sizeX < 0 || sizeY < 0 || sizeZ < 0 || bits < 2 || bits > 32 || bits < getRequiredBits(palette.tagCount()))
+        {
+            throw new IOException("Invalid cached container header");
+        }
+
+        LitematicaBlockStateContainer container = new LitematicaBlockStateContainer(sizeX, sizeY, sizeZ, bits, null);
+        container.palette.readFromNBT(palette);
+        byte[] scratch = null;
+
+        for (int sectionIndex = 0; sectionIndex < container.sections.length; ++sectionIndex)
+        {
+            final byte format = input.readByte();
+
+            if (format == CACHE_SECTION_UNIFORM)
+            {
+                final int id = input.readInt();
+
+                if (id < 0 || id >= (1L << bits))
+                {
+                    throw new IOException("Invalid cached section data");
+                }
+
+                container.uniformIds[sectionIndex] = id;
+                continue;
+            }
+
+            final int volume = container.getSectionVolume(sectionIndex);
+            final int expectedLength = format == CACHE_SECTION_PADDED ? LitematicaPaddedBitArray.getLongArrayLength(bits, volume) :
+                                                                        (int) (((long) volume * bits + 63L) / 64L);
+            final int length = input.readInt();
+
+            if ((format != CACHE_SECTION_PACKED && format != CACHE_SECTION_PADDED) || length != expectedLength)
+            {
+                throw new IOException("Invalid cached section data");
+            }
+
+            if (scratch == null)
+            {
+                scratch = new byte[COPY_BUFFER_SIZE * 8];
+            }
+
+            long[] arr = new long[length];
+            readLongs(input, arr, scratch);
+
+            LitematicaBitArray section = format == CACHE_SECTION_PADDED ? new LitematicaPaddedBitArray(bits, volume, arr) : new LitematicaBitArray(bits, volume, arr);
+
+            if ((format == CACHE_SECTION_PADDED) != container.padded)
+            {
+                LitematicaBitArray converted = container.createSectionStorage(bits, volume);
+                copyEntries(section, converted, 0, null);
+                section = converted;
+            }
+
+            container.sections[sectionIndex] = section;
+        }
+
+        return container;
+    }
+
+    /**
+     * Fills the given array with big-endian longs from the input, reading up to
+     * the scratch buffer's size at a time, instead of one long per read call.
+     */
+    private static void readLongs(DataInput input, long[] arr, byte[] scratch) throws IOException
+    {
+        final int maxLongs = scratch.length / 8;
+        ByteBuffer buffer = ByteBuffer.wrap(scratch);
+
+        for (int start = 0; start < arr.length; start += maxLongs)
+        {
+            final int count = Math.min(maxLongs, arr.length - start);
+            input.readFully(scratch, 0, count * 8);
+            buffer.asLongBuffer().get(arr, start, count);
+        }
+    }
+
+    /**
+     * Writes full-volume data into the sections in index order, in arbitrary sized chunks.
+     * The packed storage for a section is only allocated once a position
+     * with a different value than the first position of that section is found.
+     */
+    private class SectionWriter
+    {
+        private int sectionIndex;
+        private int indexInSection;
+        private int firstId;
+        @Nullable private LitematicaBitArray section;
+
+        public void accept(int[] ids, int offset, int count)
+        {
+            LitematicaBlockStateContainer container = LitematicaBlockStateContainer.this;
+
+            while (count > 0 && this.sectionIndex < container.sections.length)
+            {
+                final int volume = container.getSectionVolume(this.sectionIndex);
+
+                // Zero-volume regions, nothing to store
+                if (volume <= 0)
+                {
+                    this.sectionIndex = container.sections.length;
+                    break;
+                }
+
+                if (this.indexInSection == 0)
+                {
+                    this.firstId = ids[offset];
+                    this.section = null;
+                }
+
+                final int length = Math.min(count, volume - this.indexInSection);
+
+                if (this.section == null)
+                {
+                    for (int i = offset; i < offset + length; ++i)
+                    {
+                        if (ids[i] != this.firstId)
+                        {
+                            this.section = container.createSectionStorage(container.bits, volume);
+
+                            if (this.firstId != 0 && this.indexInSection > 0)
+                            {
+                                this.section.fill(0, this.indexInSection, this.firstId);
+                            }
+
+                            break;
+                        }
+                    }
+                }
+
+                if (this.section != null)
+                {
+                    this.section.setRange(this.indexInSection, length, ids, offset);
+                }
+
+                this.indexInSection += length;
+                offset += length;
+                count -= length;
+
+                if (this.indexInSection == volume)
+                {
+                    container.sections[this.sectionIndex] = this.section;
+                    container.uniformIds[this.sectionIndex] = this.section == null ? this.firstId : 0;
+                    this.section = null;
+                    this.indexInSection = 0;
+                    ++this.sectionIndex;
+                }
+            }
+        }
+    }
 }
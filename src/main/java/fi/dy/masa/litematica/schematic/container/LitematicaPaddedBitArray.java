@@ -0,0 +1,277 @@
+package fi.dy.masa.litematica.schematic.container;
+
+import javax.annotation.Nullable;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * A bit array where the entries never span across two longs.
+ * Any leftover bits at the end of each long are left unused.
+ * This makes the random access branch-free, at the cost of a bit more memory
+ * for the entry sizes that don't divide 64 evenly.
+ */
+public class LitematicaPaddedBitArray extends LitematicaBitArray
+{
+    /** The size of the temporary buffer used when converting between the storage formats */
+    private static final int CONVERSION_BUFFER_SIZE = 4096;
+
+    /** Number of entries stored in one long */
+    protected final int entriesPerLong;
+    /** Multiplier and shift for the division by entriesPerLong, see getLongIndex() */
+    protected final long divideMultiplier;
+    protected final int divideShift;
+
+    public LitematicaPaddedBitArray(int bitsPerEntryIn, int arraySizeIn)
+    {
+        this(bitsPerEntryIn, arraySizeIn, null);
+    }
+
+    public LitematicaPaddedBitArray(int bitsPerEntryIn, int arraySizeIn, @Nullable long[] longArrayIn)
+    {
+        super(bitsPerEntryIn, arraySizeIn, longArrayIn != null ? longArrayIn : new long[getLongArrayLength(bitsPerEntryIn, arraySizeIn)]);
+
+        this.entriesPerLong = 64 / bitsPerEntryIn;
+
+        // For index < 2^31 and entriesPerLong <= 64, (index * multiplier) >>> shift == index / entriesPerLong,
+        // and the product fits in an unsigned long, so the unsigned shift gives the correct result.
+        this.divideShift = 31 + (32 - Integer.numberOfLeadingZeros(this.entriesPerLong - 1));
+        this.divideMultiplier = (1L << this.divideShift) / this.entriesPerLong + 1L;
+    }
+
+    public static int getLongArrayLength(int bitsPerEntry, int arraySize)
+    {
+        Validate.inclusiveBetween(1L, 32L, (long) bitsPerEntry);
+        final int entriesPerLong = 64 / bitsPerEntry;
+        return (arraySize + entriesPerLong - 1) / entriesPerLong;
+    }
+
+    /**
+     * Creates a padded bit array from the tightly packed data, as stored in the schematic files.
+     */
+    public static LitematicaPaddedBitArray fromTightlyPacked(int bitsPerEntry, int arraySize, long[] tightlyPackedArray)
+    {
+        LitematicaBitArray source = new LitematicaBitArray(bitsPerEntry, arraySize, tightlyPackedArray);
+        LitematicaPaddedBitArray array = new LitematicaPaddedBitArray(bitsPerEntry, arraySize);
+        copyEntries(source, array);
+        return array;
+    }
+
+    @Override
+    public LitematicaPaddedBitArray copy()
+    {
+        return new LitematicaPaddedBitArray(this.bitsPerEntry, this.arraySize, this.longArray.clone());
+    }
+
+    @Override
+    public long[] getTightlyPackedLongArray()
+    {
+        LitematicaBitArray target = new LitematicaBitArray(this.bitsPerEntry, this.arraySize);
+        copyEntries(this, target);
+        return target.getBackingLongArray();
+    }
+
+    private static void copyEntries(LitematicaBitArray source, LitematicaBitArray target)
+    {
+        final int size = source.size();
+        int[] buffer = new int[Math.min(CONVERSION_BUFFER_SIZE, size)];
+
+        for (int start = 0; start < size; start += buffer.length)
+        {
+            int count = Math.min(buffer.length, size - start);
+            source.getRange(start, count, buffer, 0);
+            target.setRange(start, count, buffer, 0);
+        }
+    }
+
+    private int getLongIndex(int index)
+    {
+        return (int) ((index * this.divideMultiplier) >>> this.divideShift);
+    }
+
+    @Override
+    public void setAt(int index, int value)
+    {
+        Validate.inclusiveBetween(0L, (long) (this.arraySize - 1), (long) index);
+        Validate.inclusiveBetween(0L, this.maxEntryValue, (long) value);
+        final int arrIndex = this.getLongIndex(index);
+        final int bitOffset = (index - arrIndex * this.entriesPerLong) * this.bitsPerEntry;
+        this.longArray[arrIndex] = this.longArray[arrIndex] & ~(this.maxEntryValue << bitOffset) | ((long) value & this.maxEntryValue) << bitOffset;
+    }
+
+    @Override
+    public int getAt(int index)
+    {
+        Validate.inclusiveBetween(0L, (long) (this.arraySize - 1), (long) index);
+        final int arrIndex = this.getLongIndex(index);
+        final int bitOffset = (index - arrIndex * this.entriesPerLong) * this.bitsPerEntry;
+        return (int) (this.longArray[arrIndex] >>> bitOffset & this.maxEntryValue);
+    }
+
+    @Override
+    public void getRange(int startIndex, int count, int[] out, int outOffset)
+    {
+        this.validateRange(startIndex, count);
+
+        if (count == 0)
+        {
+            return;
+        }
+
+        final long[] arr = this.longArray;
+        final int bits = this.bitsPerEntry;
+        final long mask = this.maxEntryValue;
+        final int perLong = this.entriesPerLong;
+        int arrIndex = this.getLongIndex(startIndex);
+        int slot = startIndex - arrIndex * perLong;
+        long word = arr[arrIndex] >>> (slot * bits);
+        final int end = outOffset + count;
+
+        for (int i = outOffset; i < end; ++i)
+        {
+            if (slot == perLong)
+            {
+                word = arr[++arrIndex];
+                slot = 0;
+            }
+
+            out[i] = (int) (word & mask);
+            word >>>= bits;
+            ++slot;
+        }
+    }
+
+    @Override
+    public void setRange(int startIndex, int count, int[] values, int valuesOffset)
+    {
+        this.validateRange(startIndex, count);
+
+        if (count == 0)
+        {
+            return;
+        }
+
+        final long[] arr = this.longArray;
+        final int bits = this.bitsPerEntry;
+        final long mask = this.maxEntryValue;
+        final int perLong = this.entriesPerLong;
+        int arrIndex = this.getLongIndex(startIndex);
+        int slot = startIndex - arrIndex * perLong;
+        long word = arr[arrIndex];
+        final int end = valuesOffset + count;
+
+        for (int i = valuesOffset; i < end; ++i)
+        {
+            if (slot == perLong)
+            {
+                arr[arrIndex] = word;
+                word = arr[++arrIndex];
+                slot = 0;
+            }
+
+            final int bitOffset = slot * bits;
+            word = (word & ~(mask << bitOffset)) | (((long) values[i] & mask) << bitOffset);
+            ++slot;
+        }
+
+        arr[arrIndex] = word;
+    }
+
+    @Override
+    public void fill(int startIndex, int endIndex, int value)
+    {
+        final int count = endIndex - startIndex;
+        this.validateRange(startIndex, count);
+        Validate.inclusiveBetween(0L, this.maxEntryValue, (long) value);
+
+        if (count == 0)
+        {
+            return;
+        }
+
+        final long[] arr = this.longArray;
+        final int bits = this.bitsPerEntry;
+        final long mask = this.maxEntryValue;
+        final int perLong = this.entriesPerLong;
+        final long valueLong = value;
+        int arrIndex = this.getLongIndex(startIndex);
+        int slot = startIndex - arrIndex * perLong;
+        long word = arr[arrIndex];
+
+        for (int i = 0; i < count; ++i)
+        {
+            if (slot == perLong)
+            {
+                arr[arrIndex] = word;
+                word = arr[++arrIndex];
+                slot = 0;
+            }
+
+            final int bitOffset = slot * bits;
+            word = (word & ~(mask << bitOffset)) | (valueLong << bitOffset);
+            ++slot;
+        }
+
+        arr[arrIndex] = word;
+    }
+
+    @Override
+    public void countEntries(int[] counts)
+    {
+        final long[] arr = this.longArray;
+        final int bits = this.bitsPerEntry;
+        final int mask = (int) this.maxEntryValue;
+        final int perLong = this.entriesPerLong;
+        final int fullLongs = this.arraySize / perLong;
+
+        for (int arrIndex = 0; arrIndex < fullLongs; ++arrIndex)
+        {
+            long word = arr[arrIndex];
+
+            for (int slot = 0; slot < perLong; ++slot)
+            {
+                ++counts[(int) word & mask];
+                word >>>= bits;
+            }
+        }
+
+        long word = fullLongs < arr.length ? arr[fullLongs] : 0L;
+
+        for (int i = fullLongs * perLong; i < this.arraySize; ++i)
+        {
+            ++counts[(int) word & mask];
+            word >>>= bits;
+        }
+    }
+
+    @Override
+    public void forEach(int startIndex, int count, ILitematicaBitArrayConsumer consumer)
+    {
+        this.validateRange(startIndex, count);
+
+        if (count == 0)
+        {
+            return;
+        }
+
+        final long[] arr = this.longArray;
+        final int bits = this.bitsPerEntry;
+        final long mask = this.maxEntryValue;
+        final int perLong = this.entriesPerLong;
+        int arrIndex = this.getLongIndex(startIndex);
+        int slot = startIndex - arrIndex * perLong;
+        long word = arr[arrIndex] >>> (slot * bits);
+        final int end = startIndex + count;
+
+        for (int index = startIndex; index < end; ++index)
+        {
+            if (slot == perLong)
+            {
+                word = arr[++arrIndex];
+                slot = 0;
+            }
+
+            consumer.accept(index, (int) (word & mask));
+            word >>>= bits;
+            ++slot;
+        }
+    }
+}
@@ -0,0 +1,501 @@
+package fi.dy.masa.litematica.schematic.placement;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import fi.dy.masa.litematica.schematic.placement.SchematicPlacementManager.PlacementPart;
+import fi.dy.masa.litematica.schematic.placement.SubRegionPlacement.RequiredEnabled;
+import fi.dy.masa.litematica.selection.Box;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.Vec3d;
+import net.minecraft.world.gen.structure.StructureBoundingBox;
+
+/**
+ * A bounding volume hierarchy over the sub-region boxes of all the placements,
+ * for point, box and ray queries. The boxes are updated per placement whenever
+ * a placement is added, modified or removed. If a modified placement still has the same
+ * sub-regions, its parts are swapped in place and the node bounds are refit, keeping the tree
+ * structure. Otherwise, and after too many refits, the whole tree is rebuilt lazily on the next query.
+ * The enabled states of the placements and sub-regions are checked at query time,
+ * so toggling them doesn't require updating the index.
+ */
+public class PlacementSpatialIndex
+{
+    private static final int MAX_LEAF_SIZE = 4;
+    /** The number of refits after which the tree is rebuilt, as the refit tree gets worse if the boxes move a lot */
+    private static final int MAX_REFITS = 64;
+
+    private final Map<SchematicPlacement, List<PlacementPart>> partsByPlacement = new HashMap<>();
+    private PlacementPart[] parts = new PlacementPart[0];
+    /** The bounds of each node, as minX, minY, minZ, maxX, maxY, maxZ (inclusive) */
+    private int[] nodeBounds = new int[0];
+    /** For inner nodes the index of the second child (the first child is always the next node),
+     * for leaf nodes the negative value -(start + 1) of the first part in the parts array */
+    private int[] nodeChildren = new int[0];
+    private int[] nodePartCounts = new int[0];
+    private int nodeCount;
+    private int refitCount;
+    private boolean dirty;
+
+    /**
+     * Updates the sub-region boxes of the given placement
+     */
+    public void updatePlacement(SchematicPlacement placement)
+    {
+        List<PlacementPart> list = new ArrayList<>();
+
+        for (Map.Entry<String, Box> entry : placement.getSubRegionBoxes(RequiredEnabled.ANY).entrySet())
+        {
+            Box box = entry.getValue();
+
+            if (box.getPos1() != null && box.getPos2() != null)
+            {
+                StructureBoundingBox bb = new StructureBoundingBox(box.getPos1(), box.getPos2());
+                list.add(new PlacementPart(placement, entry.getKey(), bb));
+            }
+        }
+
+        List<PlacementPart> oldList = this.partsByPlacement.put(placement, list);
+
+        if (this.dirty || oldList == null || this.refitCount >= MAX_REFITS || this.tryRefit(placement, oldList, list) == false)
+        {
+            this.dirty = true;
+        }
+    }
+
+    /**
+     * Replaces the parts of the given placement in the built tree with the new ones, and refits the node bounds.
+     * This is only possible if the placement still has the same sub-regions.
+     * @return true if the tree was refit, false if it needs to be rebuilt
+     */
+    private boolean tryRefit(SchematicPlacement placement, List<PlacementPart> oldParts, List<PlacementPart> newParts)
+    {
+        Map<String, PlacementPart> newPartsByName = new HashMap<>();
+
+        for (PlacementPart part : newParts)
+        {
+            newPartsByName.put(part.getSubRegionName(), part);
+        }
+
+        if (newPartsByName.size() != oldParts.size() || newParts.size() != oldParts.size())
+        {
+            return false;
+        }
+
+        for (PlacementPart part : oldParts)
+        {
+            if (newPartsByName.containsKey(part.getSubRegionName()) == false)
+            {
+                return false;
+            }
+        }
+
+        for (int i = 0; i < this.parts.length; ++i)
+        {
+            if (this.parts[i].getPlacement() == placement)
+            {
+                this.parts[i] = newPartsByName.get(this.parts[i].getSubRegionName());
+            }
+        }
+
+        // The children are always after their parent, so the bounds can be updated bottom-up in one pass
+        for (int node = this.nodeCount - 1; node >= 0; --node)
+        {
+            final int child = this.nodeChildren[node];
+
+            if (child < 0)
+            {
+                this.setLeafBounds(node, -child - 1, -child - 1 + this.nodePartCounts[node]);
+            }
+            else
+            {
+                int[] b = this.nodeBounds;
+                final int i = node * 6;
+                final int c1 = (node + 1) * 6;
+                final int c2 = child * 6;
+
+                b[i    ] = Math.min(b[c1    ], b[c2    ]);
+                b[i + 1] = Math.min(b[c1 + 1], b[c2 + 1]);
+                b[i + 2] = Math.min(b[c1 + 2], b[c2 + 2]);
+                b[i + 3] = Math.max(b[c1 + 3], b[c2 + 3]);
+                b[i + 4] = Math.max(b[c1 + 4], b[c2 + 4]);
+                b[i + 5] = Math.max(b[c1 + 5], b[c2 + 5]);
+            }
+        }
+
+        ++this.refitCount;
+
+        return true;
+    }
+
+    public void removePlacement(SchematicPlacement placement)
+    {
+        if (this.partsByPlacement.remove(placement) != null)
+        {
+            this.dirty = true;
+        }
+    }
+
+    public void clear()
+    {
+        this.partsByPlacement.clear();
+        this.dirty = true;
+    }
+
+    /**
+     * Returns all the sub-region parts that contain the given position
+     */
+    public List<PlacementPart> getPartsAt(BlockPos pos, RequiredEnabled required)
+    {
+        return this.getPartsIntersecting(pos.getX(), pos.getY(), pos.getZ(), pos.getX(), pos.getY(), pos.getZ(), required);
+    }
+
+    /**
+     * Returns all the sub-region parts that intersect the given box
+     */
+    public List<PlacementPart> getPartsIntersecting(StructureBoundingBox box, RequiredEnabled required)
+    {
+        return this.getPartsIntersecting(box.minX, box.minY, box.minZ, box.maxX, box.maxY, box.maxZ, required);
+    }
+
+    private List<PlacementPart> getPartsIntersecting(int minX, int minY, int minZ, int maxX, int maxY, int maxZ, RequiredEnabled required)
+    {
+        this.updateTree();
+
+        List<PlacementPart> list = new ArrayList<>();
+
+        if (this.nodeCount == 0)
+        {
+            return list;
+        }
+
+        int[] stack = new int[64];
+        int stackSize = 0;
+        stack[stackSize++] = 0;
+
+        while (stackSize > 0)
+        {
+            final int node = stack[--stackSize];
+            final int i = node * 6;
+            int[] b = this.nodeBounds;
+
+            if (b[i] > maxX || b[i + 3] < minX || b[i + 1] > maxY || b[i + 4] < minY || b[i + 2] > maxZ || b[i + 5] < minZ)
+            {
+                continue;
+            }
+
+            final int child = this.nodeChildren[node];
+
+            if (child < 0)
+            {
+                final int start = -child - 1;
+                final int end = start + this.nodePartCounts[node];
+
+                for (int p = start; p < end; ++p)
+                {
+                    PlacementPart part = this.parts[p];
+                    StructureBoundingBox bb = part.getBox();
+
+                    if (bb.minX <= maxX && bb.maxX >= minX && bb.minY <= maxY && bb.maxY >= minY &&
+                        bb.minZ <= maxZ && bb.maxZ >= minZ && isEnabled(part, required))
+                    {
+                        list.add(part);
+                    }
+                }
+            }
+            else
+            {
+                stack = ensureStackSize(stack, stackSize + 2);
+                stack[stackSize++] = child;
+                stack[stackSize++] = node + 1;
+            }
+        }
+
+        return list;
+    }
+
+    /**
+     * Returns all the sub-region parts whose boxes the line segment from <b>start</b> to <b>end</b>
+     * intersects, in no particular order. The boxes cover the full blocks, same as the
+     * AABBs created via {@link fi.dy.masa.litematica.util.PositionUtils#createEnclosingAABB(BlockPos, BlockPos)}.
+     */
+    public List<PlacementPart> getPartsIntersectingRay(Vec3d start, Vec3d end, RequiredEnabled required)
+    {
+        this.updateTree();
+
+        List<PlacementPart> list = new ArrayList<>();
+
+        if (this.nodeCount == 0)
+        {
+            return list;
+        }
+
+        final double dirX = end.x - start.x;
+        final double dirY = end.y - start.y;
+        final double dirZ = end.z - start.z;
+        int[] stack = new int[64];
+        int stackSize = 0;
+        stack[stackSize++] = 0;
+
+        while (stackSize > 0)
+        {
+            final int node = stack[--stackSize];
+            final int i = node * 6;
+            int[] b = this.nodeBounds;
+
+            if (intersectsSegment(start, dirX, dirY, dirZ, b[i], b[i + 1], b[i + 2], b[i + 3] + 1, b[i + 4] + 1, b[i + 5] + 1) == false)
+            {
+                continue;
+            }
+
+            final int child = this.nodeChildren[node];
+
+            if (child < 0)
+            {
+                final int startIndex = -child - 1;
+                final int endIndex = startIndex + this.nodePartCounts[node];
+
+                for (int p = startIndex; p < endIndex; ++p)
+                {
+                    PlacementPart part = this.parts[p];
+                    StructureBoundingBox bb = part.getBox();
+
+                    if (isEnabled(part, required) &&
+                        intersectsSegment(start, dirX, dirY, dirZ, bb.minX, bb.minY, bb.minZ, bb.maxX + 1, bb.maxY + 1, bb.maxZ + 1))
+                    {
+                        list.add(part);
+                    }
+                }
+            }
+            else
+            {
+                stack = ensureStackSize(stack, stackSize + 2);
+                stack[stackSize++] = child;
+                stack[stackSize++] = node + 1;
+            }
+        }
+
+        return list;
+    }
+
+    private static boolean isEnabled(PlacementPart part, RequiredEnabled required)
+    {
+        if (required == RequiredEnabled.ANY)
+        {
+            return true;
+        }
+
+        SubRegionPlacement placement = part.getPlacement().getRelativeSubRegionPlacement(part.getSubRegionName());
+
+        return part.getPlacement().matchesRequirement(required) && placement != null && placement.matchesRequirement(required);
+    }
+
+    /**
+     * Slab test for the line segment start + t * dir, t in [0, 1]
+     */
+    private static boolean intersectsSegment(Vec3d start, double dirX, double dirY, double dirZ,
+            double minX, double minY, double minZ, double maxX, double maxY, double maxZ)
+    {
+        double tMin = 0.0;
+        double tMax = 1.0;
+        double[] origin = { start.x, start.y, start.z };
+        double[] dir = { dirX, dirY, dirZ };
+        double[] min = { minX, minY, minZ };
+        double[] max = { maxX, maxY, maxZ };
+
+        for (int axis = 0; axis < 3; ++axis)
+        {
+            if (Math.abs(dir[axis]) < 1.0E-9)
+            {
+                if (origin[axis] < min[axis] || origin[axis] > max[axis])
+                {
+                    return false;
+                }
+            }
+            else
+            {
+                double t1 = (min[axis] - origin[axis]) / dir[axis];
+                double t2 = (max[axis] - origin[axis]) / dir[axis];
+
+                tMin = Math.max(tMin, Math.min(t1, t2));
+                tMax = Math.min(tMax, Math.max(t1, t2));
+
+                if (tMin > tMax)
+                {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    private static int[] ensureStackSize(int[] stack, int size)
+    {
+        return size <= stack.length ? stack : Arrays.copyOf(stack, stack.length * 2);
+    }
+
+    private void updateTree()
+    {
+        if (this.dirty == false)
+        {
+            return;
+        }
+
+        List<PlacementPart> all = new ArrayList<>();
+
+        for (List<PlacementPart> list : this.partsByPlacement.values())
+        {
+            all.addAll(list);
+        }
+
+        this.parts = all.toArray(new PlacementPart[all.size()]);
+        // A binary tree with at most one part per leaf has less than 2n nodes
+        final int maxNodes = Math.max(1, this.parts.length * 2);
+        this.nodeBounds = new int[maxNodes * 6];
+        this.nodeChildren = new int[maxNodes];
+        this.nodePartCounts = new int[maxNodes];
+        this.nodeCount = 0;
+
+        if (this.parts.length > 0)
+        {
+            this.buildNode(0, this.parts.length);
+        }
+
+        this.refitCount = 0;
+        this.dirty = false;
+    }
+
+    /**
+     * Sets the bounds of the given node to enclose the parts in the range [start, end)
+     */
+    private void setLeafBounds(int node, int start, int end)
+    {
+        int[] b = this.nodeBounds;
+        final int i = node * 6;
+
+        b[i    ] = Integer.MAX_VALUE;
+        b[i + 1] = Integer.MAX_VALUE;
+        b[i + 2] = Integer.MAX_VALUE;
+        b[i + 3] = Integer.MIN_VALUE;
+        b[i + 4] = Integer.MIN_VALUE;
+        b[i + 5] = Integer.MIN_VALUE;
+
+        for (int p = start; p < end; ++p)
+        {
+            StructureBoundingBox bb = this.parts[p].getBox();
+            b[i    ] = Math.min(b[i    ], bb.minX);
+            b[i + 1] = Math.min(b[i + 1], bb.minY);
+            b[i + 2] = Math.min(b[i + 2], bb.minZ);
+            b[i + 3] = Math.max(b[i + 3], bb.maxX);
+            b[i + 4] = Math.max(b[i + 4], bb.maxY);
+            b[i + 5] = Math.max(b[i + 5], bb.maxZ);
+        }
+    }
+
+    /**
+     * Builds the sub-tree for the parts in the range [start, end), by splitting
+     * them at the median along the longest axis of the bounds of their centers.
+     * @return the index of the created node
+     */
+    private int buildNode(int start, int end)
+    {
+        final int node = this.nodeCount++;
+        int[] b = this.nodeBounds;
+        final int i = node * 6;
+        int cMinX = Integer.MAX_VALUE, cMinY = Integer.MAX_VALUE, cMinZ = Integer.MAX_VALUE;
+        int cMaxX = Integer.MIN_VALUE, cMaxY = Integer.MIN_VALUE, cMaxZ = Integer.MIN_VALUE;
+
+        b[i    ] = Integer.MAX_VALUE;
+        b[i + 1] = Integer.MAX_VALUE;
+        b[i + 2] = Integer.MAX_VALUE;
+        b[i + 3] = Integer.MIN_VALUE;
+        b[i + 4] = Integer.MIN_VALUE;
+        b[i + 5] = Integer.MIN_VALUE;
+
+        for (int p = start; p < end; ++p)
+        {
+            StructureBoundingBox bb = this.parts[p].getBox();
+            b[i    ] = Math.min(b[i    ], bb.minX);
+            b[i + 1] = Math.min(b[i + 1], bb.minY);
+            b[i + 2] = Math.min(b[i + 2], bb.minZ);
+            b[i + 3] = Math.max(b[i + 3], bb.maxX);
+            b[i + 4] = Math.max(b[i + 4], bb.maxY);
+            b[i + 5] = Math.max(b[i + 5], bb.maxZ);
+
+            final int cx = (bb.minX + bb.maxX) >> 1;
+            final int cy = (bb.minY + bb.maxY) >> 1;
+            final int cz = (bb.minZ + bb.maxZ) >> 1;
+            cMinX = Math.min(cMinX, cx);
+            cMinY = Math.min(cMinY, cy);
+            cMinZ = Math.min(cMinZ, cz);
+            cMaxX = Math.max(cMaxX, cx);
+            cMaxY = Math.max(cMaxY, cy);
+            cMaxZ = Math.max(cMaxZ, cz);
+        }
+
+        if (end - start <= MAX_LEAF_SIZE)
+        {
+            this.nodeChildren[node] = -(start + 1);
+            this.nodePartCounts[node] = end - start;
+            return node;
+        }
+
+        final int spanX = cMaxX - cMinX;
+        final int spanY = cMaxY - cMinY;
+        final int spanZ = cMaxZ - cMinZ;
+        Comparator<PlacementPart> comparator;
+
+        if (spanX >= spanY && spanX >= spanZ)
+        {
+            comparator = new CenterComparator(0);
+        }
+        else if (spanY >= spanZ)
+        {
+            comparator = new CenterComparator(1);
+        }
+        else
+        {
+            comparator = new CenterComparator(2);
+        }
+
+        Arrays.sort(this.parts, start, end, comparator);
+        final int mid = (start + end) >>> 1;
+
+        // The first child is always the next node, so only the second child's index needs to be stored
+        this.buildNode(start, mid);
+        this.nodeChildren[node] = this.buildNode(mid, end);
+        this.nodePartCounts[node] = 0;
+
+        return node;
+    }
+
+    private static class CenterComparator implements Comparator<PlacementPart>
+    {
+        private final int axis;
+
+        public CenterComparator(int axis)
+        {
+            this.axis = axis;
+        }
+
+        private long getCenter(StructureBoundingBox bb)
+        {
+            switch (this.axis)
+            {
+                case 0:     return (long) bb.minX + bb.maxX;
+                case 1:     return (long) bb.minY + bb.maxY;
+                default:    return (long) bb.minZ + bb.maxZ;
+            }
+        }
+
+        @Override
+        public int compare(PlacementPart part1, PlacementPart part2)
+        {
+            return Long.compare(this.getCenter(part1.getBox()), this.getCenter(part2.getBox()));
+        }
+    }
+}
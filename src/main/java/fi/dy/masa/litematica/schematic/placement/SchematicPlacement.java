@@ -31,6 +31,7 @@ import fi.dy.masa.malilib.interfaces.IStringConsumer;
 import fi.dy.masa.malilib.util.Color4f;
 import fi.dy.masa.malilib.util.InfoUtils;
 import fi.dy.masa.malilib.util.JsonUtils;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
 import net.minecraft.init.Blocks;
 import net.minecraft.util.Mirror;
 import net.minecraft.util.Rotation;
@@ -114,6 +115,27 @@ public class SchematicPlacement
         return placement;
     }
 
+    /**
+     * Creates a detached copy of the placement parameters (origin, rotation, mirror and the sub-region
+     * placements), which the chunk builder threads use instead of this placement, so that they never
+     * see a placement that is being modified on the client thread. The copy shares the schematic,
+     * and it is not added to the placement manager.
+     */
+    SchematicPlacement createBuildSnapshot()
+    {
+        SchematicPlacement copy = new SchematicPlacement(this.schematic, this.origin, this.name, this.enabled, this.enableRender);
+        copy.rotation = this.rotation;
+        copy.mirror = this.mirror;
+        copy.ignoreEntities = this.ignoreEntities;
+
+        for (Map.Entry<String, SubRegionPlacement> entry : this.relativeSubRegionPlacements.entrySet())
+        {
+            copy.relativeSubRegionPlacements.put(entry.getKey(), entry.getValue().copy());
+        }
+
+        return copy;
+    }
+
     public boolean isEnabled()
     {
         return this.enabled;
@@ -262,6 +284,11 @@ public class SchematicPlacement
         return this.verifierType;
     }
 
+    void setSchematic(LitematicaSchematic schematic)
+    {
+        this.schematic = schematic;
+    }
+
     public void setSchematicVerifierType(BlockInfoListType type)
     {
         this.verifierType = type;
@@ -510,6 +537,14 @@ public class SchematicPlacement
         return PositionUtils.getTouchedChunks(this.getSubRegionBoxes(RequiredEnabled.PLACEMENT_ENABLED));
     }
 
+    /**
+     * Returns the touched chunks as the <b>ChunkPos.asLong()</b> keys
+     */
+    public LongOpenHashSet getTouchedChunkKeys()
+    {
+        return PositionUtils.getTouchedChunkKeys(this.getSubRegionBoxes(RequiredEnabled.PLACEMENT_ENABLED));
+    }
+
     public Set<ChunkPos> getTouchedChunksForRegion(String regionName)
     {
         return PositionUtils.getTouchedChunks(this.getSubRegionBoxFor(regionName, RequiredEnabled.PLACEMENT_ENABLED));
@@ -764,8 +799,11 @@ public class SchematicPlacement
             SchematicPlacementManager manager = DataManager.getSchematicPlacementManager();
             manager.onPrePlacementChange(this);
 
+            BlockPos oldOrigin = this.origin;
             this.origin = origin;
-            this.onModified(manager);
+            this.updateEnclosingBox();
+            manager.onPostPlacementMove(this, oldOrigin);
+            OverlayRenderer.getInstance().updatePlacementCache();
         }
 
         return this;
@@ -920,84 +958,105 @@ public class SchematicPlacement
                 return null;
             }
 
-            JsonArray posArr = obj.get("origin").getAsJsonArray();
-
-            if (posArr.size() != 3)
-            {
-                LiteModLitematica.logger.warn("Failed to load schematic placement for '{}', invalid origin position", file.getAbsolutePath());
-                return null;
-            }
+            SchematicPlacement schematicPlacement = null;
 
-            String name = obj.get("name").getAsString();
-            BlockPos pos = new BlockPos(posArr.get(0).getAsInt(), posArr.get(1).getAsInt(), posArr.get(2).getAsInt());
-            Rotation rotation = Rotation.valueOf(obj.get("rotation").getAsString());
-            Mirror mirror = Mirror.valueOf(obj.get("mirror").getAsString());
-            boolean enabled = JsonUtils.getBoolean(obj, "enabled");
-            boolean enableRender = JsonUtils.getBoolean(obj, "enable_render");
-
-            SchematicPlacement schematicPlacement = new SchematicPlacement(schematic, pos, name, enabled, enableRender);
-            schematicPlacement.rotation = rotation;
-            schematicPlacement.mirror = mirror;
-            schematicPlacement.ignoreEntities = JsonUtils.getBoolean(obj, "ignore_entities");
-            schematicPlacement.renderEnclosingBox = JsonUtils.getBoolean(obj, "render_enclosing_box");
-            schematicPlacement.locked = JsonUtils.getBoolean(obj, "locked");
-
-            if (JsonUtils.hasInteger(obj, "bb_color"))
+            try
             {
-                schematicPlacement.setBoxesBBColor(JsonUtils.getInteger(obj, "bb_color"));
+                schematicPlacement = fromJson(obj, schematic, file);
             }
-            else
+            finally
             {
-                schematicPlacement.setBoxesBBColorNext();
+                // Don't leave a schematic that was loaded just for this placement registered, if the placement failed
+                if (schematicPlacement == null)
+                {
+                    SchematicHolder.getInstance().releaseIfUnused(schematic);
+                }
             }
 
-            if (JsonUtils.hasObject(obj, "material_list"))
-            {
-                schematicPlacement.materialList = new MaterialListPlacement(schematicPlacement);
-                schematicPlacement.materialList.fromJson(JsonUtils.getNestedObject(obj, "material_list", false));
-            }
+            return schematicPlacement;
+        }
 
-            if (JsonUtils.hasString(obj, "verifier_type"))
-            {
-                schematicPlacement.verifierType = BlockInfoListType.fromStringStatic(JsonUtils.getString(obj, "verifier_type"));
-            }
+        return null;
+    }
 
-            if (JsonUtils.hasString(obj, "selected_region"))
-            {
-                schematicPlacement.selectedSubRegionName = JsonUtils.getString(obj, "selected_region");
-            }
+    @Nullable
+    private static SchematicPlacement fromJson(JsonObject obj, LitematicaSchematic schematic, File file)
+    {
+        JsonArray posArr = obj.get("origin").getAsJsonArray();
+
+        if (posArr.size() != 3)
+        {
+            LiteModLitematica.logger.warn("Failed to load schematic placement for '{}', invalid origin position", file.getAbsolutePath());
+            return null;
+        }
+
+        String name = obj.get("name").getAsString();
+        BlockPos pos = new BlockPos(posArr.get(0).getAsInt(), posArr.get(1).getAsInt(), posArr.get(2).getAsInt());
+        Rotation rotation = Rotation.valueOf(obj.get("rotation").getAsString());
+        Mirror mirror = Mirror.valueOf(obj.get("mirror").getAsString());
+        boolean enabled = JsonUtils.getBoolean(obj, "enabled");
+        boolean enableRender = JsonUtils.getBoolean(obj, "enable_render");
+
+        SchematicPlacement schematicPlacement = new SchematicPlacement(schematic, pos, name, enabled, enableRender);
+        schematicPlacement.rotation = rotation;
+        schematicPlacement.mirror = mirror;
+        schematicPlacement.ignoreEntities = JsonUtils.getBoolean(obj, "ignore_entities");
+        schematicPlacement.renderEnclosingBox = JsonUtils.getBoolean(obj, "render_enclosing_box");
+        schematicPlacement.locked = JsonUtils.getBoolean(obj, "locked");
+
+        if (JsonUtils.hasInteger(obj, "bb_color"))
+        {
+            schematicPlacement.setBoxesBBColor(JsonUtils.getInteger(obj, "bb_color"));
+        }
+        else
+        {
+            schematicPlacement.setBoxesBBColorNext();
+        }
+
+        if (JsonUtils.hasObject(obj, "material_list"))
+        {
+            schematicPlacement.materialList = new MaterialListPlacement(schematicPlacement);
+            schematicPlacement.materialList.fromJson(JsonUtils.getNestedObject(obj, "material_list", false));
+        }
+
+        if (JsonUtils.hasString(obj, "verifier_type"))
+        {
+            schematicPlacement.verifierType = BlockInfoListType.fromStringStatic(JsonUtils.getString(obj, "verifier_type"));
+        }
+
+        if (JsonUtils.hasString(obj, "selected_region"))
+        {
+            schematicPlacement.selectedSubRegionName = JsonUtils.getString(obj, "selected_region");
+        }
 
-            JsonArray placementArr = obj.get("placements").getAsJsonArray();
+        JsonArray placementArr = obj.get("placements").getAsJsonArray();
 
-            for (int i = 0; i < placementArr.size(); ++i)
+        for (int i = 0; i < placementArr.size(); ++i)
+        {
+            JsonElement el = placementArr.get(i);
+
+            if (el.isJsonObject())
             {
-                JsonElement el = placementArr.get(i);
+                JsonObject placementObj = el.getAsJsonObject();
 
-                if (el.isJsonObject())
+                if (JsonUtils.hasString(placementObj, "name") &&
+                    JsonUtils.hasObject(placementObj, "placement"))
                 {
-                    JsonObject placementObj = el.getAsJsonObject();
+                    SubRegionPlacement placement = SubRegionPlacement.fromJson(placementObj.get("placement").getAsJsonObject());
 
-                    if (JsonUtils.hasString(placementObj, "name") &&
-                        JsonUtils.hasObject(placementObj, "placement"))
+                    if (placement != null)
                     {
-                        SubRegionPlacement placement = SubRegionPlacement.fromJson(placementObj.get("placement").getAsJsonObject());
-
-                        if (placement != null)
-                        {
-                            String placementName = placementObj.get("name").getAsString();
-                            schematicPlacement.relativeSubRegionPlacements.put(placementName, placement);
-                        }
+                        String placementName = placementObj.get("name").getAsString();
+                        schematicPlacement.relativeSubRegionPlacements.put(placementName, placement);
                     }
                 }
             }
-
-            schematicPlacement.checkAreSubRegionsModified();
-            schematicPlacement.updateEnclosingBox();
-
-            return schematicPlacement;
         }
 
-        return null;
+        schematicPlacement.checkAreSubRegionsModified();
+        schematicPlacement.updateEnclosingBox();
+
+        return schematicPlacement;
     }
 
     private static int getNextBoxColor()
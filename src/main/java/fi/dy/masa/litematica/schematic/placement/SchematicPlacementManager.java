@@ -2,18 +2,25 @@ package fi.dy.masa.litematica.schematic.placement;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import javax.annotation.Nullable;
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.HashMultimap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonPrimitive;
+import fi.dy.masa.litematica.LiteModLitematica;
 import fi.dy.masa.litematica.config.Configs;
 import fi.dy.masa.litematica.config.Hotkeys;
 import fi.dy.masa.litematica.data.DataManager;
@@ -22,11 +29,15 @@ import fi.dy.masa.litematica.render.OverlayRenderer;
 import fi.dy.masa.litematica.scheduler.TaskScheduler;
 import fi.dy.masa.litematica.scheduler.tasks.TaskPasteSchematicSetblock;
 import fi.dy.masa.litematica.schematic.LitematicaSchematic;
+import fi.dy.masa.litematica.schematic.LitematicaSchematic.PendingTileEntity;
 import fi.dy.masa.litematica.schematic.placement.SubRegionPlacement.RequiredEnabled;
+import fi.dy.masa.litematica.selection.Box;
 import fi.dy.masa.litematica.util.PositionUtils;
 import fi.dy.masa.litematica.util.RayTraceUtils;
 import fi.dy.masa.litematica.util.RayTraceUtils.RayTraceWrapper;
 import fi.dy.masa.litematica.util.RayTraceUtils.RayTraceWrapper.HitType;
+import fi.dy.masa.litematica.world.ChunkProviderSchematic;
+import fi.dy.masa.litematica.world.ChunkSchematic;
 import fi.dy.masa.litematica.world.SchematicWorldHandler;
 import fi.dy.masa.litematica.world.WorldSchematic;
 import fi.dy.masa.malilib.gui.Message.MessageType;
@@ -35,26 +46,53 @@ import fi.dy.masa.malilib.util.JsonUtils;
 import fi.dy.masa.malilib.util.LayerMode;
 import fi.dy.masa.malilib.util.SubChunkPos;
 import fi.dy.masa.malilib.util.WorldUtils;
+import it.unimi.dsi.fastutil.longs.AbstractLongComparator;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongHeapPriorityQueue;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import net.minecraft.block.state.IBlockState;
 import net.minecraft.client.Minecraft;
 import net.minecraft.client.multiplayer.WorldClient;
 import net.minecraft.client.resources.I18n;
 import net.minecraft.entity.Entity;
+import net.minecraft.init.Blocks;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.tileentity.TileEntity;
 import net.minecraft.util.EnumFacing;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.math.ChunkPos;
+import net.minecraft.util.math.MathHelper;
 import net.minecraft.util.math.RayTraceResult;
+import net.minecraft.util.math.Vec3d;
 import net.minecraft.world.World;
 import net.minecraft.world.WorldServer;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
 import net.minecraft.world.gen.structure.StructureBoundingBox;
 
 public class SchematicPlacementManager
 {
+    private static final ThreadFactory CHUNK_BUILDER_THREAD_FACTORY = (new ThreadFactoryBuilder()).setNameFormat("Litematica Chunk Builder %d").setDaemon(true).build();
+    private static final int CHUNK_BUILDER_THREADS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+    private static final ExecutorService CHUNK_BUILDER_EXECUTOR = Executors.newFixedThreadPool(CHUNK_BUILDER_THREADS, CHUNK_BUILDER_THREAD_FACTORY);
+    /** Only a few builds are started at once, so that the most important chunks can still be picked on the next tick */
+    private static final int MAX_CHUNK_BUILDS = CHUNK_BUILDER_THREADS * 2;
+
     private final List<SchematicPlacement> schematicPlacements = new ArrayList<>();
     private final HashMultimap<ChunkPos, SchematicPlacement> schematicsTouchingChunk = HashMultimap.create();
     private final ArrayListMultimap<SubChunkPos, PlacementPart> touchedVolumesInSubChunk = ArrayListMultimap.create();
-    private final Set<ChunkPos> chunksToRebuild = new HashSet<>();
-    private final Set<ChunkPos> chunksToUnload = new HashSet<>();
-    private final Set<ChunkPos> chunksPreChange = new HashSet<>();
+    private final PlacementSpatialIndex spatialIndex = new PlacementSpatialIndex();
+    /** The chunk sets are keyed by <b>ChunkPos.asLong()</b>, to avoid boxing in the per-tick loops */
+    private final LongOpenHashSet chunksToRebuild = new LongOpenHashSet();
+    private final ChunkPriorityComparator rebuildPriority = new ChunkPriorityComparator();
+    private LongHeapPriorityQueue rebuildQueue = new LongHeapPriorityQueue(64, this.rebuildPriority);
+    private final LongOpenHashSet chunksToUnload = new LongOpenHashSet();
+    private final LongOpenHashSet chunksPreChange = new LongOpenHashSet();
+    private final Map<ChunkPos, ChunkBuilder> chunksBuilding = new HashMap<>();
+    private final Queue<ChunkBuilder> builtChunks = new ConcurrentLinkedQueue<>();
+    private final Map<SchematicPlacement, PlacementShift> placementShifts = new HashMap<>();
+    private final Queue<PlacementShift> completedShifts = new ConcurrentLinkedQueue<>();
 
     @Nullable
     private SchematicPlacement selectedPlacement;
@@ -67,13 +105,25 @@ public class SchematicPlacementManager
 
             if (worldSchematic != null)
             {
-                for (ChunkPos pos : this.chunksToUnload)
+                LongIterator iter = this.chunksToUnload.iterator();
+
+                while (iter.hasNext() && (System.nanoTime() - DataManager.getClientTickStartTime()) < 45000000L)
                 {
-                    this.unloadSchematicChunk(worldSchematic, pos.x, pos.z);
+                    long chunkKey = iter.nextLong();
+
+                    if (this.chunksBuilding.isEmpty() == false)
+                    {
+                        this.cancelChunkBuild(PositionUtils.getChunkPosFromKey(chunkKey));
+                    }
+
+                    this.unloadSchematicChunk(worldSchematic, PositionUtils.getChunkKeyX(chunkKey), PositionUtils.getChunkKeyZ(chunkKey));
+                    iter.remove();
                 }
             }
-
-            this.chunksToUnload.clear();
+            else
+            {
+                this.chunksToUnload.clear();
+            }
         }
 
         //System.out.printf("processQueuedChunks, size: %d\n", this.chunksToRebuild.size());
@@ -83,71 +133,307 @@ public class SchematicPlacementManager
 
             if (worldClient == null)
             {
-                this.chunksToRebuild.clear();
+                this.clearRebuildQueue();
+                this.cancelAllChunkBuilds();
                 return true;
             }
 
             WorldSchematic worldSchematic = SchematicWorldHandler.getSchematicWorld();
-            Iterator<ChunkPos> iter = this.chunksToRebuild.iterator();
+            Entity viewEntity = Minecraft.getMinecraft().getRenderViewEntity();
+
+            // Re-prioritize the remaining chunks when the player has moved to another chunk or turned around
+            if (viewEntity != null && this.rebuildPriority.updatePosition(viewEntity))
+            {
+                this.rebuildQueue = new LongHeapPriorityQueue(Math.max(64, this.chunksToRebuild.size()), this.rebuildPriority);
+                LongIterator iter = this.chunksToRebuild.iterator();
+
+                while (iter.hasNext())
+                {
+                    this.rebuildQueue.enqueue(iter.nextLong());
+                }
+            }
+
+            LongArrayList waiting = new LongArrayList();
 
-            while (iter.hasNext())
+            while (this.chunksBuilding.size() < MAX_CHUNK_BUILDS && this.rebuildQueue.isEmpty() == false &&
+                   (System.nanoTime() - DataManager.getClientTickStartTime()) < 45000000L)
             {
-                if ((System.nanoTime() - DataManager.getClientTickStartTime()) >= 45000000L)
+                long chunkKey = this.rebuildQueue.dequeueLong();
+
+                if (this.chunksToRebuild.contains(chunkKey) == false)
                 {
-                    break;
+                    continue;
                 }
 
-                ChunkPos pos = iter.next();
+                ChunkPos pos = PositionUtils.getChunkPosFromKey(chunkKey);
 
                 if (this.schematicsTouchingChunk.containsKey(pos) == false)
                 {
-                    iter.remove();
+                    this.chunksToRebuild.remove(chunkKey);
                     continue;
                 }
 
                 if (Configs.Generic.LOAD_ENTIRE_SCHEMATICS.getBooleanValue() ||
-                    worldClient.getChunkProvider().isChunkGeneratedAt(pos.x, pos.z))
+                    worldClient.getChunkProvider().isChunkGeneratedAt(pos.x, pos.z) ||
+                    worldSchematic.getChunkProvider().isChunkGeneratedAt(pos.x, pos.z))
                 {
-                    // Wipe the old chunk if it exists
-                    if (worldSchematic.getChunkProvider().isChunkGeneratedAt(pos.x, pos.z))
-                    {
-                        //System.out.printf("wiping chunk at %s\n", pos);
-                        this.unloadSchematicChunk(worldSchematic, pos.x, pos.z);
-                    }
+                    this.startChunkBuild(worldSchematic, pos);
+                    this.chunksToRebuild.remove(chunkKey);
+                }
+                else
+                {
+                    // Waiting for the client world chunk to get loaded
+                    waiting.add(chunkKey);
+                }
+            }
+
+            for (int i = 0; i < waiting.size(); ++i)
+            {
+                this.rebuildQueue.enqueue(waiting.getLong(i));
+            }
+        }
+
+        if (this.placementShifts.isEmpty() == false)
+        {
+            this.swapInShiftedChunks();
+        }
+
+        if (this.chunksBuilding.isEmpty() == false)
+        {
+            this.swapInBuiltChunks();
+        }
+
+        return this.chunksToRebuild.isEmpty() && this.chunksBuilding.isEmpty() &&
+               this.placementShifts.isEmpty() && this.chunksToUnload.isEmpty();
+    }
+
+    /**
+     * Starts populating a new detached chunk for the given position on the chunk builder threads.
+     * Any previous build for the same position that hasn't been swapped in yet gets discarded.
+     */
+    private void startChunkBuild(WorldSchematic worldSchematic, ChunkPos pos)
+    {
+        List<SchematicPlacement> placements = new ArrayList<>();
+
+        for (SchematicPlacement placement : this.schematicsTouchingChunk.get(pos))
+        {
+            if (placement.isEnabled())
+            {
+                placements.add(placement.createBuildSnapshot());
+            }
+        }
+
+        this.cancelChunkBuild(pos);
+
+        ChunkBuilder builder = new ChunkBuilder(new ChunkSchematic(worldSchematic, pos.x, pos.z), placements, this.builtChunks);
+        this.chunksBuilding.put(pos, builder);
+        CHUNK_BUILDER_EXECUTOR.execute(builder);
+    }
+
+    private void cancelChunkBuild(ChunkPos pos)
+    {
+        ChunkBuilder builder = this.chunksBuilding.remove(pos);
+
+        if (builder != null)
+        {
+            builder.cancel();
+        }
+    }
+
+    private void cancelAllChunkBuilds()
+    {
+        for (ChunkBuilder builder : this.chunksBuilding.values())
+        {
+            builder.cancel();
+        }
+
+        this.chunksBuilding.clear();
+        this.builtChunks.clear();
+    }
+
+    /**
+     * Swaps the finished chunks from the chunk builder threads into the schematic world.
+     * This is the only part of the schematic world population that runs on the client thread.
+     */
+    private void swapInBuiltChunks()
+    {
+        WorldSchematic worldSchematic = SchematicWorldHandler.getSchematicWorld();
+        ChunkBuilder builder;
+
+        while ((System.nanoTime() - DataManager.getClientTickStartTime()) < 45000000L &&
+               (builder = this.builtChunks.poll()) != null)
+        {
+            ChunkSchematic chunk = builder.getChunk();
+            ChunkPos pos = chunk.getPos();
+
+            // Discard the results of superseded builds
+            if (this.chunksBuilding.get(pos) != builder)
+            {
+                continue;
+            }
+
+            this.chunksBuilding.remove(pos);
+
+            // The schematic world has been re-created since the build was started
+            if (worldSchematic == null || chunk.getWorld() != worldSchematic)
+            {
+                continue;
+            }
+
+            if (builder.getException() != null)
+            {
+                LiteModLitematica.logger.warn("Failed to build the schematic world chunk at {}", pos, builder.getException());
+                continue;
+            }
+
+            // A schematic was edited while the chunk was being built, so the contents may be inconsistent
+            if (builder.isStale())
+            {
+                this.addChunkToRebuild(pos);
+                continue;
+            }
+
+            // Wipe the old chunk if it exists
+            this.unloadSchematicChunk(worldSchematic, pos.x, pos.z);
+            ((ChunkProviderSchematic) worldSchematic.getChunkProvider()).setLoadedChunk(chunk);
 
-                    //System.out.printf("loading chunk at %s\n", pos);
-                    worldSchematic.getChunkProvider().loadChunk(pos.x, pos.z);
+            for (PendingTileEntity pending : builder.getTileEntities().values())
+            {
+                TileEntity te = pending.createTileEntity(worldSchematic);
+
+                if (te != null)
+                {
+                    worldSchematic.setTileEntity(te.getPos(), te);
                 }
+            }
 
-                if (worldSchematic.getChunkProvider().isChunkGeneratedAt(pos.x, pos.z))
+            for (SchematicPlacement placement : builder.getPlacements())
+            {
+                if (placement.isEnabled())
                 {
-                    //System.out.printf("placing at %s\n", pos);
-                    Collection<SchematicPlacement> placements = this.schematicsTouchingChunk.get(pos);
+                    placement.getSchematic().placeEntitiesToWorldWithinChunk(worldSchematic, pos, placement);
+                }
+            }
 
-                    if (placements.isEmpty() == false)
-                    {
-                        for (SchematicPlacement placement : placements)
-                        {
-                            if (placement.isEnabled())
-                            {
-                                placement.getSchematic().placeToWorldWithinChunk(worldSchematic, pos, placement, false);
-                            }
-                        }
+            worldSchematic.markBlockRangeForRenderUpdate(pos.x << 4, 0, pos.z << 4, (pos.x << 4) + 15, 256, (pos.z << 4) + 15);
+        }
+    }
+
+    /**
+     * Swaps in the results of the finished placement shifts. All the chunks of one shift
+     * are swapped in at once, so that the schematic world doesn't end up with a mix
+     * of the old and the new position of the placement.
+     */
+    private void swapInShiftedChunks()
+    {
+        WorldSchematic worldSchematic = SchematicWorldHandler.getSchematicWorld();
+        PlacementShift shift;
+
+        // All the chunks of one shift need to be swapped in at once, so the time limit applies between the shifts
+        while ((System.nanoTime() - DataManager.getClientTickStartTime()) < 45000000L &&
+               (shift = this.completedShifts.poll()) != null)
+        {
+            SchematicPlacement placement = shift.getPlacement();
+
+            // Discard the results of superseded or aborted shifts
+            if (this.placementShifts.get(placement) != shift)
+            {
+                continue;
+            }
+
+            if (worldSchematic == null || shift.getWorld() != worldSchematic)
+            {
+                this.placementShifts.remove(placement);
+                continue;
+            }
+
+            if (shift.getException() != null)
+            {
+                LiteModLitematica.logger.warn("Failed to shift the schematic world contents of placement '{}'", placement.getName(), shift.getException());
+                this.abortPlacementShift(placement);
+                continue;
+            }
+
+            this.placementShifts.remove(placement);
+            ChunkProviderSchematic provider = (ChunkProviderSchematic) worldSchematic.getChunkProvider();
+            final boolean noEntities = placement.ignoreEntities() || placement.getSchematic().hasEntities() == false;
+
+            for (ChunkPos pos : shift.getSourceChunkPositions())
+            {
+                if (this.schematicsTouchingChunk.containsKey(pos) == false)
+                {
+                    this.unloadSchematicChunk(worldSchematic, pos.x, pos.z);
+                }
+            }
+
+            for (ShiftedChunk result : shift.getResults())
+            {
+                ChunkSchematic chunk = result.getChunk();
+                ChunkPos pos = chunk.getPos();
+
+                // Some other change has affected this chunk in the meantime, so it will be rebuilt anyway
+                if (this.isChunkOnlyTouchedBy(pos, placement) == false ||
+                    this.chunksToRebuild.contains(ChunkPos.asLong(pos.x, pos.z)) || this.chunksBuilding.containsKey(pos))
+                {
+                    continue;
+                }
+
+                Chunk chunkOld = provider.isChunkGeneratedAt(pos.x, pos.z) ? provider.provideChunk(pos.x, pos.z) : null;
+                ChunkSnapshot snapshot = shift.getSourceChunks().get(ChunkPos.asLong(pos.x, pos.z));
+
+                // Keep the old chunk if nothing in it actually changes
+                if (chunkOld != null && snapshot != null && snapshot.isSnapshotOf(chunkOld) &&
+                    result.getChangedSections() == 0 && result.getTileEntities().isEmpty() &&
+                    chunkOld.getTileEntityMap().isEmpty() && noEntities)
+                {
+                    continue;
+                }
+
+                if (chunkOld != null)
+                {
+                    provider.unloadChunk(pos.x, pos.z);
+                }
+
+                provider.setLoadedChunk(chunk);
 
-                        worldSchematic.markBlockRangeForRenderUpdate(pos.x << 4, 0, pos.z << 4, (pos.x << 4) + 15, 256, (pos.z << 4) + 15);
+                for (Map.Entry<BlockPos, NBTTagCompound> entry : result.getTileEntities().entrySet())
+                {
+                    TileEntity te = TileEntity.create(worldSchematic, entry.getValue());
+
+                    if (te != null)
+                    {
+                        worldSchematic.setTileEntity(entry.getKey(), te);
                     }
+                }
 
-                    iter.remove();
+                if (placement.isEnabled())
+                {
+                    placement.getSchematic().placeEntitiesToWorldWithinChunk(worldSchematic, pos, placement);
+                }
+
+                // Only re-render the sections whose blocks have changed
+                for (int cy = 0; cy < 16; ++cy)
+                {
+                    if ((result.getChangedSections() & (1 << cy)) != 0)
+                    {
+                        worldSchematic.markBlockRangeForRenderUpdate(pos.x << 4, cy << 4, pos.z << 4, (pos.x << 4) + 15, (cy << 4) + 15, (pos.z << 4) + 15);
+                    }
                 }
             }
+        }
+    }
 
-            if (this.chunksToRebuild.isEmpty())
+    private boolean isChunkOnlyTouchedBy(ChunkPos pos, SchematicPlacement placement)
+    {
+        for (SchematicPlacement other : this.schematicsTouchingChunk.get(pos))
+        {
+            if (other != placement)
             {
-                return true;
+                return false;
             }
         }
 
-        return false;
+        return true;
     }
 
     public void onClientChunkUnload(int chunkX, int chunkZ)
@@ -158,8 +444,10 @@ public class SchematicPlacementManager
 
             if (worldSchematic != null)
             {
+                ChunkPos pos = new ChunkPos(chunkX, chunkZ);
+                this.cancelChunkBuild(pos);
                 this.unloadSchematicChunk(worldSchematic, chunkX, chunkZ);
-                this.chunksToRebuild.add(new ChunkPos(chunkX, chunkZ));
+                this.addChunkToRebuild(pos);
             }
         }
     }
@@ -201,11 +489,39 @@ public class SchematicPlacementManager
         return this.touchedVolumesInSubChunk.keySet();
     }
 
+    /**
+     * Returns all the sub-region parts that contain the given position.
+     * The boxes of the returned parts are the full sub-region boxes, not clipped to any chunk.
+     */
+    public List<PlacementPart> getPlacementPartsAt(BlockPos pos, RequiredEnabled required)
+    {
+        return this.spatialIndex.getPartsAt(pos, required);
+    }
+
+    /**
+     * Returns all the sub-region parts that intersect the given box.
+     * The boxes of the returned parts are the full sub-region boxes, not clipped to any chunk.
+     */
+    public List<PlacementPart> getPlacementPartsIntersecting(StructureBoundingBox box, RequiredEnabled required)
+    {
+        return this.spatialIndex.getPartsIntersecting(box, required);
+    }
+
+    /**
+     * Returns all the sub-region parts whose boxes the line segment from <b>start</b> to <b>end</b> intersects
+     */
+    public List<PlacementPart> getPlacementPartsIntersectingRay(Vec3d start, Vec3d end, RequiredEnabled required)
+    {
+        return this.spatialIndex.getPartsIntersectingRay(start, end, required);
+    }
+
     public void addSchematicPlacement(SchematicPlacement placement, boolean printMessages)
     {
         if (this.schematicPlacements.contains(placement) == false)
         {
             this.schematicPlacements.add(placement);
+            SchematicHolder.getInstance().retainSchematic(placement.getSchematic());
+            this.spatialIndex.updatePlacement(placement);
             this.addTouchedChunksFor(placement);
 
             if (printMessages)
@@ -257,11 +573,13 @@ public class SchematicPlacementManager
         }
 
         boolean ret = this.schematicPlacements.remove(placement);
+        this.spatialIndex.removePlacement(placement);
         this.removeTouchedChunksFor(placement);
 
         if (ret)
         {
             placement.onRemoved();
+            SchematicHolder.getInstance().releaseSchematic(placement.getSchematic());
 
             if (update)
             {
@@ -324,7 +642,7 @@ public class SchematicPlacementManager
                     this.updateTouchedBoxesInChunk(pos);
                 }
 
-                this.chunksToUnload.remove(pos);
+                this.chunksToUnload.remove(ChunkPos.asLong(pos.x, pos.z));
             }
 
             this.markChunksForRebuild(placement);
@@ -334,43 +652,277 @@ public class SchematicPlacementManager
 
     private void removeTouchedChunksFor(SchematicPlacement placement)
     {
+        this.abortPlacementShift(placement);
+
         if (placement.matchesRequirement(RequiredEnabled.PLACEMENT_ENABLED))
         {
             Set<ChunkPos> chunks = placement.getTouchedChunks();
+            List<ChunkPos> toRebuild = new ArrayList<>();
 
             for (ChunkPos pos : chunks)
             {
+                long chunkKey = ChunkPos.asLong(pos.x, pos.z);
                 this.schematicsTouchingChunk.remove(pos, placement);
                 this.updateTouchedBoxesInChunk(pos);
 
                 if (this.schematicsTouchingChunk.containsKey(pos) == false)
                 {
-                    this.chunksToUnload.add(pos);
+                    this.chunksToUnload.add(chunkKey);
+                }
+                else if (this.chunksToUnload.contains(chunkKey) == false)
+                {
+                    toRebuild.add(pos);
                 }
             }
 
-            chunks.removeAll(this.chunksToUnload);
-
-            this.markChunksForRebuild(chunks);
+            this.markChunksForRebuild(toRebuild);
         }
     }
 
     void onPrePlacementChange(SchematicPlacement placement)
     {
         this.chunksPreChange.clear();
-        this.chunksPreChange.addAll(placement.getTouchedChunks());
+        this.chunksPreChange.addAll(placement.getTouchedChunkKeys());
+    }
+
+    /**
+     * Called after only the origin of the placement has been changed. If possible, then the
+     * existing contents of the schematic world are shifted to the new position on a worker thread,
+     * instead of wiping and re-placing all the chunks from the schematic.
+     */
+    void onPostPlacementMove(SchematicPlacement placement, BlockPos oldOrigin)
+    {
+        if (Configs.Generic.INCREMENTAL_PLACEMENT_MOVE.getBooleanValue() == false ||
+            this.tryStartPlacementShift(placement, oldOrigin) == false)
+        {
+            this.onPostPlacementChange(placement);
+        }
+    }
+
+    private boolean tryStartPlacementShift(SchematicPlacement placement, BlockPos oldOrigin)
+    {
+        WorldSchematic worldSchematic = SchematicWorldHandler.getSchematicWorld();
+
+        if (worldSchematic == null || placement.matchesRequirement(RequiredEnabled.PLACEMENT_ENABLED) == false)
+        {
+            return false;
+        }
+
+        // If the previous shift hasn't been swapped in yet, then the schematic world
+        // still has the contents from before that shift, so the new shift continues from there
+        PlacementShift previous = this.placementShifts.get(placement);
+        Set<ChunkPos> sourceChunks = previous != null ? previous.getSourceChunkPositions() : getChunkPositions(this.chunksPreChange);
+        BlockPos baseOrigin = previous != null ? previous.getBaseOrigin() : oldOrigin;
+        BlockPos offset = placement.getOrigin().subtract(baseOrigin);
+
+        // The schematic world doesn't have the layers outside of the world height,
+        // so a vertical move can't bring them into the world height from there
+        if (offset.getY() != 0 && this.crossesWorldHeight(placement, offset.getY()))
+        {
+            return false;
+        }
+
+        Set<ChunkPos> targetChunks = placement.getTouchedChunks();
+        Map<Long, ChunkSnapshot> sourceChunkMap;
+
+        if (previous != null)
+        {
+            sourceChunkMap = previous.getSourceChunks();
+            previous.cancel();
+            this.placementShifts.remove(placement);
+        }
+        else
+        {
+            sourceChunkMap = new HashMap<>();
+
+            for (ChunkPos pos : sourceChunks)
+            {
+                // Only the loaded chunks that have just this placement's up-to-date contents can be shifted.
+                // The target chunks that would need the contents of the other source chunks get rebuilt instead.
+                if (worldSchematic.getChunkProvider().isChunkGeneratedAt(pos.x, pos.z) &&
+                    this.isChunkOnlyTouchedBy(pos, placement) && this.isChunkRebuildPending(pos) == false)
+                {
+                    sourceChunkMap.put(ChunkPos.asLong(pos.x, pos.z), new ChunkSnapshot(worldSchematic.getChunk(pos.x, pos.z)));
+                }
+            }
+        }
+
+        WorldClient worldClient = Minecraft.getMinecraft().world;
+        boolean loadAll = Configs.Generic.LOAD_ENTIRE_SCHEMATICS.getBooleanValue();
+        List<ChunkPos> shiftedChunks = new ArrayList<>();
+        List<ChunkPos> rebuiltChunks = new ArrayList<>();
+
+        for (ChunkPos pos : targetChunks)
+        {
+            this.chunksToUnload.remove(ChunkPos.asLong(pos.x, pos.z));
+
+            if (this.isChunkOnlyTouchedBy(pos, placement) == false || this.isChunkRebuildPending(pos) ||
+                hasAllSourceChunks(pos, offset, sourceChunks, sourceChunkMap) == false)
+            {
+                rebuiltChunks.add(pos);
+            }
+            // The chunks that are not loaded yet get built normally, once the client world chunk gets loaded
+            else if (loadAll == false && worldClient != null &&
+                     worldClient.getChunkProvider().isChunkGeneratedAt(pos.x, pos.z) == false &&
+                     worldSchematic.getChunkProvider().isChunkGeneratedAt(pos.x, pos.z) == false)
+            {
+                rebuiltChunks.add(pos);
+            }
+            else
+            {
+                shiftedChunks.add(pos);
+            }
+        }
+
+        PlacementShift shift = null;
+
+        if (shiftedChunks.isEmpty() == false)
+        {
+            shift = new PlacementShift(worldSchematic, placement, sourceChunkMap, sourceChunks,
+                                       shiftedChunks, baseOrigin, offset, this.completedShifts);
+            this.placementShifts.put(placement, shift);
+            CHUNK_BUILDER_EXECUTOR.execute(shift);
+        }
+
+        this.removeChunkKeys(this.chunksPreChange, targetChunks);
+        LongIterator iter = this.chunksPreChange.iterator();
+
+        while (iter.hasNext())
+        {
+            ChunkPos pos = PositionUtils.getChunkPosFromKey(iter.nextLong());
+            this.schematicsTouchingChunk.remove(pos, placement);
+            this.updateTouchedBoxesInChunk(pos);
+
+            // The chunks that the placement left, which have other placements, need to be rebuilt without it
+            if (this.schematicsTouchingChunk.containsKey(pos))
+            {
+                rebuiltChunks.add(pos);
+            }
+            else if (shift == null || sourceChunks.contains(pos) == false)
+            {
+                this.chunksToUnload.add(ChunkPos.asLong(pos.x, pos.z));
+            }
+        }
+
+        // Without a shift, nothing else would unload the rest of the old source chunks
+        if (shift == null)
+        {
+            for (ChunkPos pos : sourceChunks)
+            {
+                if (this.schematicsTouchingChunk.containsKey(pos) == false && targetChunks.contains(pos) == false)
+                {
+                    this.chunksToUnload.add(ChunkPos.asLong(pos.x, pos.z));
+                }
+            }
+        }
+
+        for (ChunkPos pos : targetChunks)
+        {
+            if (this.schematicsTouchingChunk.containsEntry(pos, placement) == false)
+            {
+                this.schematicsTouchingChunk.put(pos, placement);
+            }
+
+            this.updateTouchedBoxesInChunk(pos);
+        }
+
+        this.markChunksForRebuild(rebuiltChunks);
+        this.updateSpatialIndex(placement);
+        this.onPlacementModified(placement);
+
+        return true;
+    }
+
+    private boolean isChunkRebuildPending(ChunkPos pos)
+    {
+        return this.chunksToRebuild.contains(ChunkPos.asLong(pos.x, pos.z)) || this.chunksBuilding.containsKey(pos);
+    }
+
+    /**
+     * Checks if the contents of all the source chunks, that the given target chunk gets its blocks from
+     * when shifted by the given offset, are available. The chunks that the placement didn't touch
+     * before the move don't have any of its contents, so they are not needed.
+     */
+    private static boolean hasAllSourceChunks(ChunkPos pos, BlockPos offset, Set<ChunkPos> sourceChunks, Map<Long, ChunkSnapshot> sourceChunkMap)
+    {
+        final int minX = (pos.x << 4) - offset.getX();
+        final int minZ = (pos.z << 4) - offset.getZ();
+
+        for (int cz = minZ >> 4; cz <= (minZ + 15) >> 4; ++cz)
+        {
+            for (int cx = minX >> 4; cx <= (minX + 15) >> 4; ++cx)
+            {
+                if (sourceChunks.contains(new ChunkPos(cx, cz)) && sourceChunkMap.containsKey(ChunkPos.asLong(cx, cz)) == false)
+                {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Checks if the enclosing volume of the placement extends outside of the world height,
+     * either at its current position, or before it was moved vertically by the given offset
+     */
+    private boolean crossesWorldHeight(SchematicPlacement placement, int offsetY)
+    {
+        for (Box box : placement.getSubRegionBoxes(RequiredEnabled.PLACEMENT_ENABLED).values())
+        {
+            final int minY = Math.min(box.getPos1().getY(), box.getPos2().getY());
+            final int maxY = Math.max(box.getPos1().getY(), box.getPos2().getY());
+
+            if (minY < 0 || maxY > 255 || minY - offsetY < 0 || maxY - offsetY > 255)
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Cancels any pending shift of the given placement, and queues all the chunks
+     * that still have the contents from before the shift to be rebuilt or unloaded.
+     */
+    private void abortPlacementShift(SchematicPlacement placement)
+    {
+        PlacementShift shift = this.placementShifts.remove(placement);
+
+        if (shift != null)
+        {
+            shift.cancel();
+
+            for (ChunkPos pos : shift.getSourceChunkPositions())
+            {
+                if (this.schematicsTouchingChunk.containsKey(pos))
+                {
+                    this.addChunkToRebuild(pos);
+                }
+                else
+                {
+                    this.chunksToUnload.add(ChunkPos.asLong(pos.x, pos.z));
+                }
+            }
+        }
     }
 
     void onPostPlacementChange(SchematicPlacement placement)
     {
+        this.abortPlacementShift(placement);
+
         Set<ChunkPos> chunksPost = placement.getTouchedChunks();
         Set<ChunkPos> toRebuild = new HashSet<>(chunksPost);
 
         //System.out.printf("chunkPre: %s - chunkPost: %s\n", this.chunksPreChange, chunksPost);
-        this.chunksPreChange.removeAll(chunksPost);
+        this.removeChunkKeys(this.chunksPreChange, chunksPost);
+        LongIterator iter = this.chunksPreChange.iterator();
 
-        for (ChunkPos pos : this.chunksPreChange)
+        while (iter.hasNext())
         {
+            long chunkKey = iter.nextLong();
+            ChunkPos pos = PositionUtils.getChunkPosFromKey(chunkKey);
             this.schematicsTouchingChunk.remove(pos, placement);
             this.updateTouchedBoxesInChunk(pos);
             //System.out.printf("removing placement from: %s\n", pos);
@@ -378,7 +930,7 @@ public class SchematicPlacementManager
             if (this.schematicsTouchingChunk.containsKey(pos) == false)
             {
                 //System.out.printf("unloading: %s\n", pos);
-                this.chunksToUnload.add(pos);
+                this.chunksToUnload.add(chunkKey);
             }
             else
             {
@@ -398,6 +950,7 @@ public class SchematicPlacementManager
         }
 
         this.markChunksForRebuild(toRebuild);
+        this.updateSpatialIndex(placement);
         this.onPlacementModified(placement);
     }
 
@@ -441,36 +994,118 @@ public class SchematicPlacementManager
         }
     }
 
-    public void markAllPlacementsOfSchematicForRebuild(LitematicaSchematic schematic)
+    /**
+     * Returns the schematic of the given placement, for editing it in memory.
+     * If the schematic is only shared with other placements because they were loaded
+     * from the same unchanged file, then the placement first gets its own copy of it,
+     * so that the edits don't leak to the other placements.
+     */
+    public LitematicaSchematic getSchematicForEditing(SchematicPlacement placement)
+    {
+        SchematicHolder holder = SchematicHolder.getInstance();
+        LitematicaSchematic schematic = placement.getSchematic();
+
+        if (holder.isSharedByLoadsOnly(schematic))
+        {
+            LitematicaSchematic copy = schematic.createSnapshot();
+
+            // The copy is only used by this placement, so it isn't tracked by the holder
+            placement.setSchematic(copy);
+            holder.releaseSchematic(schematic);
+
+            return copy;
+        }
+
+        holder.onSchematicEdited(schematic);
+
+        return schematic;
+    }
+
+    public void markAllPlacementsOfSchematicForRebuild(LitematicaSchematic schematic)
+    {
+        for (int i = 0; i < this.schematicPlacements.size(); ++i)
+        {
+            SchematicPlacement placement = this.schematicPlacements.get(i);
+
+            if (placement.getSchematic() == schematic)
+            {
+                this.markChunksForRebuild(placement);
+            }
+        }
+    }
+
+    public void markChunksForRebuild(SchematicPlacement placement)
+    {
+        if (placement.matchesRequirement(RequiredEnabled.PLACEMENT_ENABLED))
+        {
+            this.markChunksForRebuild(placement.getTouchedChunks());
+        }
+    }
+
+    void markChunksForRebuild(Collection<ChunkPos> chunks)
+    {
+        //System.out.printf("rebuilding %d chunks: %s\n", chunks.size(), chunks);
+        for (ChunkPos pos : chunks)
+        {
+            this.addChunkToRebuild(pos);
+        }
+    }
+
+    public void markChunkForRebuild(ChunkPos pos)
+    {
+        this.addChunkToRebuild(pos);
+    }
+
+    private void addChunkToRebuild(ChunkPos pos)
+    {
+        long chunkKey = ChunkPos.asLong(pos.x, pos.z);
+
+        // Any build in progress may have read the data from before the change
+        if (this.chunksBuilding.isEmpty() == false)
+        {
+            this.cancelChunkBuild(pos);
+        }
+
+        if (this.chunksToRebuild.add(chunkKey))
+        {
+            this.rebuildQueue.enqueue(chunkKey);
+        }
+    }
+
+    private void removeChunkKeys(LongOpenHashSet chunkKeys, Collection<ChunkPos> toRemove)
     {
-        for (int i = 0; i < this.schematicPlacements.size(); ++i)
+        for (ChunkPos pos : toRemove)
         {
-            SchematicPlacement placement = this.schematicPlacements.get(i);
-
-            if (placement.getSchematic() == schematic)
-            {
-                this.markChunksForRebuild(placement);
-            }
+            chunkKeys.remove(ChunkPos.asLong(pos.x, pos.z));
         }
     }
 
-    public void markChunksForRebuild(SchematicPlacement placement)
+    private static Set<ChunkPos> getChunkPositions(LongOpenHashSet chunkKeys)
     {
-        if (placement.matchesRequirement(RequiredEnabled.PLACEMENT_ENABLED))
+        Set<ChunkPos> set = new HashSet<>();
+        LongIterator iter = chunkKeys.iterator();
+
+        while (iter.hasNext())
         {
-            this.markChunksForRebuild(placement.getTouchedChunks());
+            set.add(PositionUtils.getChunkPosFromKey(iter.nextLong()));
         }
+
+        return set;
     }
 
-    void markChunksForRebuild(Collection<ChunkPos> chunks)
+    private void clearRebuildQueue()
     {
-        //System.out.printf("rebuilding %d chunks: %s\n", chunks.size(), chunks);
-        this.chunksToRebuild.addAll(chunks);
+        this.chunksToRebuild.clear();
+        this.rebuildQueue.clear();
     }
 
-    public void markChunkForRebuild(ChunkPos pos)
+    private void updateSpatialIndex(SchematicPlacement placement)
     {
-        this.chunksToRebuild.add(pos);
+        // Placements can also be modified before they get added to the manager
+        if (this.schematicPlacements.contains(placement))
+        {
+            this.spatialIndex.updatePlacement(placement);
+        }
     }
 
     private void onPlacementModified(SchematicPlacement placement)
@@ -666,9 +1301,19 @@ public class SchematicPlacementManager
         this.selectedPlacement = null;
         this.schematicsTouchingChunk.clear();
         this.touchedVolumesInSubChunk.clear();
+        this.spatialIndex.clear();
         this.chunksPreChange.clear();
-        this.chunksToRebuild.clear();
+        this.clearRebuildQueue();
         this.chunksToUnload.clear();
+        this.cancelAllChunkBuilds();
+
+        for (PlacementShift shift : this.placementShifts.values())
+        {
+            shift.cancel();
+        }
+
+        this.placementShifts.clear();
+        this.completedShifts.clear();
 
         SchematicHolder.getInstance().clearLoadedSchematics();
     }
@@ -788,4 +1433,524 @@ public class SchematicPlacementManager
             return this.bb;
         }
     }
+
+    /**
+     * Orders the chunks to rebuild by the distance to the player, so that the visible parts
+     * of the schematics get built first. Chunks behind the player get a lower priority.
+     */
+    private static class ChunkPriorityComparator extends AbstractLongComparator
+    {
+        /** About 30 degrees of turning causes a re-prioritization */
+        private static final double MIN_LOOK_CHANGE_DOT = 0.866;
+
+        private int playerChunkX = Integer.MAX_VALUE;
+        private int playerChunkZ = Integer.MAX_VALUE;
+        private double centerX;
+        private double centerZ;
+        private double lookX;
+        private double lookZ = 1;
+
+        /**
+         * Updates the position and look direction used for the priorities.
+         * @return true if the player has moved to another chunk or turned enough, so that the
+         * queue ordered with this comparator needs to be rebuilt
+         */
+        public boolean updatePosition(Entity entity)
+        {
+            final int cx = MathHelper.floor(entity.posX) >> 4;
+            final int cz = MathHelper.floor(entity.posZ) >> 4;
+            Vec3d look = entity.getLookVec();
+            double lookLength = Math.sqrt(look.x * look.x + look.z * look.z);
+            // Looking straight up or down keeps the previous horizontal direction
+            double lookX = lookLength > 1.0E-4 ? look.x / lookLength : this.lookX;
+            double lookZ = lookLength > 1.0E-4 ? look.z / lookLength : this.lookZ;
+
+            if (cx != this.playerChunkX || cz != this.playerChunkZ ||
+                (lookX * this.lookX + lookZ * this.lookZ) < MIN_LOOK_CHANGE_DOT)
+            {
+                this.playerChunkX = cx;
+                this.playerChunkZ = cz;
+                this.centerX = entity.posX;
+                this.centerZ = entity.posZ;
+                this.lookX = lookX;
+                this.lookZ = lookZ;
+                return true;
+            }
+
+            return false;
+        }
+
+        private double getPriority(long chunkKey)
+        {
+            double dx = (PositionUtils.getChunkKeyX(chunkKey) << 4) + 8 - this.centerX;
+            double dz = (PositionUtils.getChunkKeyZ(chunkKey) << 4) + 8 - this.centerZ;
+            double dist = Math.sqrt(dx * dx + dz * dz);
+
+            if (dist < 24)
+            {
+                return dist;
+            }
+
+            // 1.0 for chunks straight ahead, up to 3.0 for chunks straight behind
+            double dot = (dx * this.lookX + dz * this.lookZ) / dist;
+
+            return dist * (2.0 - dot);
+        }
+
+        @Override
+        public int compare(long chunkKey1, long chunkKey2)
+        {
+            return Double.compare(this.getPriority(chunkKey1), this.getPriority(chunkKey2));
+        }
+    }
+
+    /**
+     * Shifts the existing schematic world contents of one placement by the given offset,
+     * into new detached chunks, on a worker thread. This only reads the snapshots
+     * of the old chunks, which were taken on the client thread.
+     */
+    private static class PlacementShift implements Runnable
+    {
+        private final WorldSchematic world;
+        private final SchematicPlacement placement;
+        private final Map<Long, ChunkSnapshot> sourceChunks;
+        private final Set<ChunkPos> sourceChunkPositions;
+        private final List<ChunkPos> targetChunkPositions;
+        private final BlockPos baseOrigin;
+        private final int offsetX;
+        private final int offsetY;
+        private final int offsetZ;
+        private final Queue<PlacementShift> completionQueue;
+        private final List<ShiftedChunk> results = new ArrayList<>();
+        @Nullable private Exception exception;
+        private volatile boolean cancelled;
+
+        public PlacementShift(WorldSchematic world, SchematicPlacement placement, Map<Long, ChunkSnapshot> sourceChunks,
+                Set<ChunkPos> sourceChunkPositions, Collection<ChunkPos> targetChunkPositions,
+                BlockPos baseOrigin, BlockPos offset, Queue<PlacementShift> completionQueue)
+        {
+            this.world = world;
+            this.placement = placement;
+            this.sourceChunks = sourceChunks;
+            this.sourceChunkPositions = sourceChunkPositions;
+            this.targetChunkPositions = new ArrayList<>(targetChunkPositions);
+            this.baseOrigin = baseOrigin;
+            this.offsetX = offset.getX();
+            this.offsetY = offset.getY();
+            this.offsetZ = offset.getZ();
+            this.completionQueue = completionQueue;
+        }
+
+        public WorldSchematic getWorld()
+        {
+            return this.world;
+        }
+
+        public SchematicPlacement getPlacement()
+        {
+            return this.placement;
+        }
+
+        public Map<Long, ChunkSnapshot> getSourceChunks()
+        {
+            return this.sourceChunks;
+        }
+
+        public Set<ChunkPos> getSourceChunkPositions()
+        {
+            return this.sourceChunkPositions;
+        }
+
+        /**
+         * Returns the origin of the placement that the current schematic world contents are at
+         */
+        public BlockPos getBaseOrigin()
+        {
+            return this.baseOrigin;
+        }
+
+        public List<ShiftedChunk> getResults()
+        {
+            return this.results;
+        }
+
+        @Nullable
+        public Exception getException()
+        {
+            return this.exception;
+        }
+
+        public void cancel()
+        {
+            this.cancelled = true;
+        }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                for (ChunkPos pos : this.targetChunkPositions)
+                {
+                    if (this.cancelled)
+                    {
+                        return;
+                    }
+
+                    this.results.add(this.shiftChunk(pos));
+                }
+            }
+            catch (Exception e)
+            {
+                this.exception = e;
+            }
+
+            if (this.cancelled == false)
+            {
+                this.completionQueue.add(this);
+            }
+        }
+
+        private ShiftedChunk shiftChunk(ChunkPos pos)
+        {
+            ChunkSchematic chunk = new ChunkSchematic(this.world, pos.x, pos.z);
+            final int startY = Math.max(0, this.offsetY);
+            final int endY = Math.min(255, 255 + this.offsetY);
+
+            if (this.hasSourceContents(pos, startY - this.offsetY, endY - this.offsetY))
+            {
+                this.shiftBlocks(chunk, pos, startY, endY);
+            }
+
+            Map<BlockPos, NBTTagCompound> tileEntities = this.shiftTileEntities(pos);
+            ChunkSnapshot chunkOld = this.sourceChunks.get(ChunkPos.asLong(pos.x, pos.z));
+            int changedSections = 0;
+
+            for (int cy = 0; cy < 16; ++cy)
+            {
+                ExtendedBlockStorage storageOld = chunkOld != null ? chunkOld.sections[cy] : Chunk.NULL_BLOCK_STORAGE;
+
+                if (areSectionsEqual(storageOld, chunk.getBlockStorageArray()[cy]) == false)
+                {
+                    changedSections |= (1 << cy);
+                }
+            }
+
+            chunk.markDirty();
+
+            return new ShiftedChunk(chunk, tileEntities, changedSections);
+        }
+
+        /**
+         * Checks if any of the source chunks of the given target chunk have any blocks within the given source y-range.
+         * If not, the shifted chunk will be empty, and none of its blocks need to be read.
+         */
+        private boolean hasSourceContents(ChunkPos pos, int srcMinY, int srcMaxY)
+        {
+            final int minX = (pos.x << 4) - this.offsetX;
+            final int minZ = (pos.z << 4) - this.offsetZ;
+
+            for (int cz = minZ >> 4; cz <= (minZ + 15) >> 4; ++cz)
+            {
+                for (int cx = minX >> 4; cx <= (minX + 15) >> 4; ++cx)
+                {
+                    ChunkSnapshot chunkSrc = this.sourceChunks.get(ChunkPos.asLong(cx, cz));
+
+                    if (chunkSrc != null && chunkSrc.isEmptyWithin(srcMinY, srcMaxY) == false)
+                    {
+                        return true;
+                    }
+                }
+            }
+
+            return false;
+        }
+
+        private void shiftBlocks(ChunkSchematic chunk, ChunkPos pos, int startY, int endY)
+        {
+            final int minX = pos.x << 4;
+            final int minZ = pos.z << 4;
+
+            for (int z = 0; z < 16; ++z)
+            {
+                for (int x = 0; x < 16; ++x)
+                {
+                    final int srcX = minX + x - this.offsetX;
+                    final int srcZ = minZ + z - this.offsetZ;
+                    ChunkSnapshot chunkSrc = this.sourceChunks.get(ChunkPos.asLong(srcX >> 4, srcZ >> 4));
+
+                    if (chunkSrc == null)
+                    {
+                        continue;
+                    }
+
+                    ExtendedBlockStorage[] storageArr = chunkSrc.sections;
+
+                    for (int y = startY; y <= endY; ++y)
+                    {
+                        final int srcY = y - this.offsetY;
+                        ExtendedBlockStorage storage = storageArr[srcY >> 4];
+
+                        if (storage == Chunk.NULL_BLOCK_STORAGE || storage.isEmpty())
+                        {
+                            // Skip the rest of the empty source section
+                            y += 15 - (srcY & 15);
+                            continue;
+                        }
+
+                        IBlockState state = storage.get(srcX & 15, srcY & 15, srcZ & 15);
+
+                        if (state.getBlock() != Blocks.AIR)
+                        {
+                            chunk.setBlockStateDirect(x, y, z, state);
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * Returns the shifted tile entity data for the given target chunk.
+         * The tile entities are created from the data on the client thread, when the chunk is swapped in.
+         */
+        private Map<BlockPos, NBTTagCompound> shiftTileEntities(ChunkPos pos)
+        {
+            Map<BlockPos, NBTTagCompound> tileEntities = new HashMap<>();
+            final int minX = pos.x << 4;
+            final int minZ = pos.z << 4;
+            final int srcMinCX = (minX - this.offsetX) >> 4;
+            final int srcMinCZ = (minZ - this.offsetZ) >> 4;
+            final int srcMaxCX = (minX + 15 - this.offsetX) >> 4;
+            final int srcMaxCZ = (minZ + 15 - this.offsetZ) >> 4;
+
+            for (int cz = srcMinCZ; cz <= srcMaxCZ; ++cz)
+            {
+                for (int cx = srcMinCX; cx <= srcMaxCX; ++cx)
+                {
+                    ChunkSnapshot chunkSrc = this.sourceChunks.get(ChunkPos.asLong(cx, cz));
+
+                    if (chunkSrc == null)
+                    {
+                        continue;
+                    }
+
+                    for (NBTTagCompound nbtOld : chunkSrc.tileEntities)
+                    {
+                        BlockPos posNew = new BlockPos(nbtOld.getInteger("x") + this.offsetX,
+                                                       nbtOld.getInteger("y") + this.offsetY,
+                                                       nbtOld.getInteger("z") + this.offsetZ);
+
+                        if ((posNew.getX() >> 4) != pos.x || (posNew.getZ() >> 4) != pos.z ||
+                            posNew.getY() < 0 || posNew.getY() >= 256)
+                        {
+                            continue;
+                        }
+
+                        NBTTagCompound nbt = nbtOld.copy();
+                        nbt.setInteger("x", posNew.getX());
+                        nbt.setInteger("y", posNew.getY());
+                        nbt.setInteger("z", posNew.getZ());
+
+                        tileEntities.put(posNew, nbt);
+                    }
+                }
+            }
+
+            return tileEntities;
+        }
+
+        private static boolean areSectionsEqual(ExtendedBlockStorage storage1, ExtendedBlockStorage storage2)
+        {
+            boolean empty1 = storage1 == Chunk.NULL_BLOCK_STORAGE || storage1.isEmpty();
+            boolean empty2 = storage2 == Chunk.NULL_BLOCK_STORAGE || storage2.isEmpty();
+
+            if (empty1 || empty2)
+            {
+                return empty1 == empty2;
+            }
+
+            for (int y = 0; y < 16; ++y)
+            {
+                for (int z = 0; z < 16; ++z)
+                {
+                    for (int x = 0; x < 16; ++x)
+                    {
+                        if (storage1.get(x, y, z) != storage2.get(x, y, z))
+                        {
+                            return false;
+                        }
+                    }
+                }
+            }
+
+            return true;
+        }
+    }
+
+    /**
+     * The contents of a schematic world chunk, taken on the client thread for a placement shift.
+     * The chunks in the schematic world are never modified after they have been swapped in
+     * (any changes replace the whole chunk), so the block storage sections can be shared,
+     * but the tile entities are copied as NBT, since they are live objects.
+     */
+    private static class ChunkSnapshot
+    {
+        /** Only used for an identity check on the client thread, never accessed on the worker threads */
+        private final Chunk sourceChunk;
+        private final ExtendedBlockStorage[] sections;
+        private final List<NBTTagCompound> tileEntities = new ArrayList<>();
+
+        public ChunkSnapshot(Chunk chunk)
+        {
+            this.sourceChunk = chunk;
+            this.sections = chunk.getBlockStorageArray().clone();
+
+            for (TileEntity te : chunk.getTileEntityMap().values())
+            {
+                this.tileEntities.add(te.writeToNBT(new NBTTagCompound()));
+            }
+        }
+
+        public boolean isSnapshotOf(Chunk chunk)
+        {
+            return this.sourceChunk == chunk;
+        }
+
+        /**
+         * Checks if all the sections within the given y-range are empty
+         */
+        public boolean isEmptyWithin(int minY, int maxY)
+        {
+            for (int cy = Math.max(0, minY >> 4); cy <= Math.min(15, maxY >> 4); ++cy)
+            {
+                ExtendedBlockStorage storage = this.sections[cy];
+
+                if (storage != Chunk.NULL_BLOCK_STORAGE && storage.isEmpty() == false)
+                {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+    }
+
+    private static class ShiftedChunk
+    {
+        private final ChunkSchematic chunk;
+        private final Map<BlockPos, NBTTagCompound> tileEntities;
+        private final int changedSections;
+
+        public ShiftedChunk(ChunkSchematic chunk, Map<BlockPos, NBTTagCompound> tileEntities, int changedSections)
+        {
+            this.chunk = chunk;
+            this.tileEntities = tileEntities;
+            this.changedSections = changedSections;
+        }
+
+        public ChunkSchematic getChunk()
+        {
+            return this.chunk;
+        }
+
+        public Map<BlockPos, NBTTagCompound> getTileEntities()
+        {
+            return this.tileEntities;
+        }
+
+        /**
+         * Returns a bit mask of the sections whose block states differ from the old chunk at the same position
+         */
+        public int getChangedSections()
+        {
+            return this.changedSections;
+        }
+    }
+
+    /**
+     * Populates a detached schematic world chunk on a worker thread. The finished builder
+     * is added to the completion queue, from where the chunk gets swapped into the world
+     * on the client thread. The placements are snapshots taken on the client thread.
+     */
+    private static class ChunkBuilder implements Runnable
+    {
+        private final ChunkSchematic chunk;
+        private final List<SchematicPlacement> placements;
+        private final Queue<ChunkBuilder> completionQueue;
+        private final Map<BlockPos, PendingTileEntity> tileEntities = new HashMap<>();
+        @Nullable private Exception exception;
+        private boolean stale;
+        private volatile boolean cancelled;
+
+        public ChunkBuilder(ChunkSchematic chunk, List<SchematicPlacement> placements, Queue<ChunkBuilder> completionQueue)
+        {
+            this.chunk = chunk;
+            this.placements = placements;
+            this.completionQueue = completionQueue;
+        }
+
+        public ChunkSchematic getChunk()
+        {
+            return this.chunk;
+        }
+
+        public List<SchematicPlacement> getPlacements()
+        {
+            return this.placements;
+        }
+
+        public Map<BlockPos, PendingTileEntity> getTileEntities()
+        {
+            return this.tileEntities;
+        }
+
+        @Nullable
+        public Exception getException()
+        {
+            return this.exception;
+        }
+
+        /**
+         * Returns true if any of the schematics were modified while the chunk was being built
+         */
+        public boolean isStale()
+        {
+            return this.stale;
+        }
+
+        public void cancel()
+        {
+            this.cancelled = true;
+        }
+
+        @Override
+        public void run()
+        {
+            if (this.cancelled)
+            {
+                return;
+            }
+
+            try
+            {
+                for (SchematicPlacement placement : this.placements)
+                {
+                    if (placement.getSchematic().placeBlocksToSchematicChunk(this.chunk, placement, this.tileEntities) == false)
+                    {
+                        this.stale = true;
+                        break;
+                    }
+                }
+            }
+            catch (Exception e)
+            {
+                this.exception = e;
+            }
+
+            if (this.cancelled == false)
+            {
+                this.completionQueue.add(this);
+            }
+        }
+    }
 }
@@ -88,6 +88,21 @@ public class SubRegionPlacement
         this.setRenderingEnabled(! this.isRenderingEnabled());
     }
 
+    /**
+     * Creates a detached copy of this sub-region placement
+     */
+    SubRegionPlacement copy()
+    {
+        SubRegionPlacement copy = new SubRegionPlacement(this.defaultPos, this.name);
+        copy.pos = this.pos;
+        copy.rotation = this.rotation;
+        copy.mirror = this.mirror;
+        copy.enabled = this.enabled;
+        copy.renderingEnabled = this.renderingEnabled;
+        copy.ignoreEntities = this.ignoreEntities;
+        return copy;
+    }
+
     void setEnabled(boolean enabled)
     {
         this.enabled = enabled;
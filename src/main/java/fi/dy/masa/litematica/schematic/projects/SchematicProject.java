@@ -11,6 +11,7 @@ import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonPrimitive;
 import fi.dy.masa.litematica.data.DataManager;
+import fi.dy.masa.litematica.data.SchematicHolder;
 import fi.dy.masa.litematica.scheduler.TaskScheduler;
 import fi.dy.masa.litematica.scheduler.tasks.TaskSaveSchematic;
 import fi.dy.masa.litematica.schematic.LitematicaSchematic;
@@ -194,7 +195,8 @@ public class SchematicProject
             {
                 this.removeCurrentPlacement();
 
-                LitematicaSchematic schematic = LitematicaSchematic.createFromFile(this.directory, version.getFileName());
+                // Shared with any other placements of the same unchanged file, and freed with the last placement
+                LitematicaSchematic schematic = SchematicHolder.getInstance().getOrLoad(new File(this.directory, version.getFileName()));
 
                 if (schematic != null)
                 {
@@ -0,0 +1,502 @@
+package fi.dy.masa.litematica.schematic.verifier;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import org.apache.commons.lang3.tuple.MutablePair;
+import org.apache.commons.lang3.tuple.Pair;
+import fi.dy.masa.litematica.schematic.verifier.SchematicVerifier.MismatchType;
+import fi.dy.masa.litematica.util.PositionUtils;
+import it.unimi.dsi.fastutil.booleans.BooleanArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongCollection;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.init.Blocks;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+
+/**
+ * Compact storage for the mismatched positions found by the schematic verifier.
+ * The (expected, found) state pairs are interned to int ids, and the positions are stored
+ * as packed chunk-local ints in per-chunk primitive lists along with their pair ids.
+ * The lists are kept sorted by the packed position, for binary search lookups.
+ * The mismatches of ignored pairs are also stored, so that the last verified state
+ * of every position is known, but they are not included in the per-type counts.
+ */
+public class MismatchStorage
+{
+    private static final IBlockState AIR = Blocks.AIR.getDefaultState();
+
+    private static final Comparator<BucketDistance> BUCKET_COMPARATOR = new Comparator<BucketDistance>()
+    {
+        @Override
+        public int compare(BucketDistance o1, BucketDistance o2)
+        {
+            return Long.compare(o1.distanceSq, o2.distanceSq);
+        }
+    };
+
+    private static final Comparator<PositionDistance> POSITION_COMPARATOR = new Comparator<PositionDistance>()
+    {
+        @Override
+        public int compare(PositionDistance o1, PositionDistance o2)
+        {
+            return Long.compare(o2.distanceSq, o1.distanceSq);
+        }
+    };
+
+    private final MutablePair<IBlockState, IBlockState> mutablePair = new MutablePair<>();
+    private final Object2IntOpenHashMap<Pair<IBlockState, IBlockState>> pairIds = new Object2IntOpenHashMap<>();
+    private final List<IBlockState> statesExpected = new ArrayList<>();
+    private final List<IBlockState> statesFound = new ArrayList<>();
+    private final List<MismatchType> pairTypes = new ArrayList<>();
+    private final IntArrayList pairCounts = new IntArrayList();
+    private final BooleanArrayList pairIgnored = new BooleanArrayList();
+    private final int[] typeCounts = new int[MismatchType.values().length];
+    private final Long2ObjectOpenHashMap<ChunkBucket> buckets = new Long2ObjectOpenHashMap<>();
+
+    public MismatchStorage()
+    {
+        this.pairIds.defaultReturnValue(-1);
+    }
+
+    public void clear()
+    {
+        this.pairIds.clear();
+        this.statesExpected.clear();
+        this.statesFound.clear();
+        this.pairTypes.clear();
+        this.pairCounts.clear();
+        this.pairIgnored.clear();
+        this.buckets.clear();
+
+        for (int i = 0; i < this.typeCounts.length; ++i)
+        {
+            this.typeCounts[i] = 0;
+        }
+    }
+
+    /**
+     * @return the id of the given state pair, or -1 if the pair hasn't been added yet
+     */
+    public int getPairId(IBlockState stateExpected, IBlockState stateFound)
+    {
+        this.mutablePair.setLeft(stateExpected);
+        this.mutablePair.setRight(stateFound);
+        return this.pairIds.getInt(this.mutablePair);
+    }
+
+    /**
+     * @return the id of the given state pair, creating a new id for it if it doesn't exist yet
+     */
+    public int getOrCreatePairId(IBlockState stateExpected, IBlockState stateFound)
+    {
+        int id = this.getPairId(stateExpected, stateFound);
+
+        if (id == -1)
+        {
+            id = this.statesExpected.size();
+            this.pairIds.put(Pair.of(stateExpected, stateFound), id);
+            this.statesExpected.add(stateExpected);
+            this.statesFound.add(stateFound);
+            this.pairTypes.add(getMismatchType(stateExpected, stateFound));
+            this.pairCounts.add(0);
+            this.pairIgnored.add(false);
+        }
+
+        return id;
+    }
+
+    /**
+     * @return the number of the interned pair ids. The ids are 0 to (count - 1).
+     */
+    public int getPairIdCount()
+    {
+        return this.statesExpected.size();
+    }
+
+    public IBlockState getStateExpected(int pairId)
+    {
+        return this.statesExpected.get(pairId);
+    }
+
+    public IBlockState getStateFound(int pairId)
+    {
+        return this.statesFound.get(pairId);
+    }
+
+    public MismatchType getMismatchType(int pairId)
+    {
+        return this.pairTypes.get(pairId);
+    }
+
+    public boolean isPairIgnored(int pairId)
+    {
+        return this.pairIgnored.getBoolean(pairId);
+    }
+
+    /**
+     * Sets the given pair as ignored or not ignored.
+     * The mismatches of ignored pairs are not included in the per-type counts.
+     */
+    public void setPairIgnored(int pairId, boolean ignored)
+    {
+        if (this.pairIgnored.getBoolean(pairId) != ignored)
+        {
+            final int count = this.pairCounts.getInt(pairId);
+            this.typeCounts[this.pairTypes.get(pairId).ordinal()] += ignored ? -count : count;
+            this.pairIgnored.set(pairId, ignored);
+        }
+    }
+
+    /**
+     * @return the number of mismatched positions with the given pair id
+     */
+    public int getCount(int pairId)
+    {
+        return this.pairCounts.getInt(pairId);
+    }
+
+    public int getCount(MismatchType type)
+    {
+        return this.typeCounts[type.ordinal()];
+    }
+
+    /**
+     * Adds a mismatch of the given pair at the given position,
+     * replacing the old mismatch at that position, if there is one
+     */
+    public void add(int x, int y, int z, int pairId)
+    {
+        long chunkKey = ChunkPos.asLong(x >> 4, z >> 4);
+        ChunkBucket bucket = this.buckets.get(chunkKey);
+
+        if (bucket == null)
+        {
+            bucket = new ChunkBucket(x >> 4, z >> 4);
+            this.buckets.put(chunkKey, bucket);
+        }
+
+        final int pairIdOld = bucket.put(ChunkBucket.packLocalPos(x, y, z), pairId);
+
+        if (pairIdOld != -1)
+        {
+            this.changeCount(pairIdOld, -1);
+        }
+
+        this.changeCount(pairId, 1);
+    }
+
+    /**
+     * @return the pair id of the mismatch at the given position, or -1 if there is no mismatch there
+     */
+    public int getPairIdAt(int x, int y, int z)
+    {
+        ChunkBucket bucket = this.buckets.get(ChunkPos.asLong(x >> 4, z >> 4));
+
+        if (bucket != null)
+        {
+            final int index = bucket.indexOf(ChunkBucket.packLocalPos(x, y, z));
+
+            if (index >= 0)
+            {
+                return bucket.pairIds.getInt(index);
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Removes the mismatch at the given position
+     * @return the pair id of the removed mismatch, or -1 if there was no mismatch there
+     */
+    public int remove(int x, int y, int z)
+    {
+        long chunkKey = ChunkPos.asLong(x >> 4, z >> 4);
+        ChunkBucket bucket = this.buckets.get(chunkKey);
+
+        if (bucket != null)
+        {
+            final int index = bucket.indexOf(ChunkBucket.packLocalPos(x, y, z));
+
+            if (index >= 0)
+            {
+                final int pairId = bucket.pairIds.getInt(index);
+                bucket.remove(index);
+                this.changeCount(pairId, -1);
+
+                if (bucket.positions.isEmpty())
+                {
+                    this.buckets.remove(chunkKey);
+                }
+
+                return pairId;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Adds the packed positions of all the stored mismatches (including the ignored ones)
+     * in the given chunk to the given collection
+     */
+    public void addPositionsInChunk(int chunkX, int chunkZ, LongCollection positionsOut)
+    {
+        ChunkBucket bucket = this.buckets.get(ChunkPos.asLong(chunkX, chunkZ));
+
+        if (bucket != null)
+        {
+            final int size = bucket.positions.size();
+
+            for (int i = 0; i < size; ++i)
+            {
+                positionsOut.add(bucket.getPos(i));
+            }
+        }
+    }
+
+    /**
+     * Adds the closest positions to the given center position, of the mismatches whose pair id
+     * is set in the given array, to the list, sorted by the distance, closest first.
+     * The chunk buckets are visited in the order of their closest possible distance to the center,
+     * and the search ends once none of the remaining buckets can contain a closer position,
+     * so usually only the few buckets around the center need to be scanned.
+     * @param includedPairs the pairs to include, indexed by the pair id
+     * @param maxEntries the maximum number of positions to add
+     */
+    public void getClosestPositions(BlockPos center, boolean[] includedPairs, int maxEntries, List<BlockPos> listOut)
+    {
+        if (maxEntries <= 0 || this.buckets.isEmpty())
+        {
+            return;
+        }
+
+        final int centerX = center.getX();
+        final int centerY = center.getY();
+        final int centerZ = center.getZ();
+        PriorityQueue<BucketDistance> bucketQueue = new PriorityQueue<>(this.buckets.size(), BUCKET_COMPARATOR);
+        // The farthest of the found positions is at the head of the queue
+        PriorityQueue<PositionDistance> closest = new PriorityQueue<>(Math.min(maxEntries, 1024), POSITION_COMPARATOR);
+
+        for (Long2ObjectMap.Entry<ChunkBucket> entry : this.buckets.long2ObjectEntrySet())
+        {
+            final long chunkKey = entry.getLongKey();
+            final int minX = PositionUtils.getChunkKeyX(chunkKey) << 4;
+            final int minZ = PositionUtils.getChunkKeyZ(chunkKey) << 4;
+            final long dx = Math.max(0, Math.max(minX - centerX, centerX - (minX + 15)));
+            final long dz = Math.max(0, Math.max(minZ - centerZ, centerZ - (minZ + 15)));
+
+            bucketQueue.add(new BucketDistance(entry.getValue(), dx * dx + dz * dz));
+        }
+
+        BucketDistance bucketEntry;
+
+        while ((bucketEntry = bucketQueue.poll()) != null)
+        {
+            if (closest.size() >= maxEntries && bucketEntry.distanceSq >= closest.peek().distanceSq)
+            {
+                break;
+            }
+
+            ChunkBucket bucket = bucketEntry.bucket;
+            final int size = bucket.positions.size();
+
+            for (int i = 0; i < size; ++i)
+            {
+                if (includedPairs[bucket.pairIds.getInt(i)] == false)
+                {
+                    continue;
+                }
+
+                final long pos = bucket.getPos(i);
+                final long dx = unpackX(pos) - centerX;
+                final long dy = unpackY(pos) - centerY;
+                final long dz = unpackZ(pos) - centerZ;
+                final long distanceSq = dx * dx + dy * dy + dz * dz;
+
+                if (closest.size() < maxEntries)
+                {
+                    closest.add(new PositionDistance(pos, distanceSq));
+                }
+                else if (distanceSq < closest.peek().distanceSq)
+                {
+                    closest.poll();
+                    closest.add(new PositionDistance(pos, distanceSq));
+                }
+            }
+        }
+
+        BlockPos[] arr = new BlockPos[closest.size()];
+
+        for (int i = arr.length - 1; i >= 0; --i)
+        {
+            arr[i] = BlockPos.fromLong(closest.poll().pos);
+        }
+
+        Collections.addAll(listOut, arr);
+    }
+
+    private void changeCount(int pairId, int amount)
+    {
+        this.pairCounts.set(pairId, this.pairCounts.getInt(pairId) + amount);
+
+        if (this.pairIgnored.getBoolean(pairId) == false)
+        {
+            this.typeCounts[this.pairTypes.get(pairId).ordinal()] += amount;
+        }
+    }
+
+    public static MismatchType getMismatchType(IBlockState stateExpected, IBlockState stateFound)
+    {
+        if (stateExpected == AIR)
+        {
+            return MismatchType.EXTRA;
+        }
+        else if (stateFound == AIR)
+        {
+            return MismatchType.MISSING;
+        }
+        else if (stateExpected.getBlock() != stateFound.getBlock())
+        {
+            return MismatchType.WRONG_BLOCK;
+        }
+        else
+        {
+            return MismatchType.WRONG_STATE;
+        }
+    }
+
+    /**
+     * Packs the position the same way as BlockPos.toLong() does, without creating a BlockPos
+     */
+    public static long packPos(int x, int y, int z)
+    {
+        return (((long) x & 0x3FFFFFFL) << 38) | (((long) y & 0xFFFL) << 26) | ((long) z & 0x3FFFFFFL);
+    }
+
+    public static int unpackX(long pos)
+    {
+        return (int) (pos >> 38);
+    }
+
+    public static int unpackY(long pos)
+    {
+        return (int) (pos << 26 >> 52);
+    }
+
+    public static int unpackZ(long pos)
+    {
+        return (int) (pos << 38 >> 38);
+    }
+
+    private static class BucketDistance
+    {
+        private final ChunkBucket bucket;
+        private final long distanceSq;
+
+        private BucketDistance(ChunkBucket bucket, long distanceSq)
+        {
+            this.bucket = bucket;
+            this.distanceSq = distanceSq;
+        }
+    }
+
+    private static class PositionDistance
+    {
+        private final long pos;
+        private final long distanceSq;
+
+        private PositionDistance(long pos, long distanceSq)
+        {
+            this.pos = pos;
+            this.distanceSq = distanceSq;
+        }
+    }
+
+    /**
+     * The mismatches of one chunk. The chunk-local packed positions and the pair ids are kept
+     * in parallel lists, sorted by the packed position. The positions are packed in the
+     * y, z, x order, which is the order that the verifier checks the positions in,
+     * so the new entries are mostly appended to the end of the lists.
+     */
+    private static class ChunkBucket
+    {
+        private final IntArrayList positions = new IntArrayList();
+        private final IntArrayList pairIds = new IntArrayList();
+        private final int minX;
+        private final int minZ;
+
+        private ChunkBucket(int chunkX, int chunkZ)
+        {
+            this.minX = chunkX << 4;
+            this.minZ = chunkZ << 4;
+        }
+
+        /**
+         * @return the index of the given packed position, or (-(insertion point) - 1) if it's not in the bucket
+         */
+        private int indexOf(int localPos)
+        {
+            final int size = this.positions.size();
+
+            // Fast path for the usual case of appending to the end
+            if (size == 0 || this.positions.getInt(size - 1) < localPos)
+            {
+                return -size - 1;
+            }
+
+            return Arrays.binarySearch(this.positions.elements(), 0, size, localPos);
+        }
+
+        /**
+         * Sets the pair id of the given packed position
+         * @return the old pair id of the position, or -1 if it wasn't in the bucket
+         */
+        private int put(int localPos, int pairId)
+        {
+            final int index = this.indexOf(localPos);
+
+            if (index >= 0)
+            {
+                return this.pairIds.set(index, pairId);
+            }
+
+            this.positions.add(-index - 1, localPos);
+            this.pairIds.add(-index - 1, pairId);
+
+            return -1;
+        }
+
+        private void remove(int index)
+        {
+            this.positions.removeInt(index);
+            this.pairIds.removeInt(index);
+        }
+
+        /**
+         * @return the position of the entry at the given index, packed like BlockPos.toLong() does
+         */
+        private long getPos(int index)
+        {
+            final int localPos = this.positions.getInt(index);
+            return packPos(this.minX + (localPos & 0xF), localPos << 12 >> 20, this.minZ + ((localPos >> 4) & 0xF));
+        }
+
+        /**
+         * Packs the position within its chunk into an int, in the y, z, x order.
+         * The y coordinate is stored in 12 bits, the same as in the packed longs.
+         */
+        private static int packLocalPos(int x, int y, int z)
+        {
+            return ((y & 0xFFF) << 8) | ((z & 0xF) << 4) | (x & 0xF);
+        }
+    }
+}
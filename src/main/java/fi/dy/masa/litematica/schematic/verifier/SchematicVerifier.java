@@ -5,16 +5,20 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import javax.annotation.Nullable;
 import org.apache.commons.lang3.tuple.MutablePair;
 import org.apache.commons.lang3.tuple.Pair;
-import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.HashMultimap;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import fi.dy.masa.litematica.LiteModLitematica;
 import fi.dy.masa.litematica.config.Configs;
 import fi.dy.masa.litematica.data.DataManager;
 import fi.dy.masa.litematica.render.infohud.IInfoHudRenderer;
@@ -23,7 +27,11 @@ import fi.dy.masa.litematica.render.infohud.RenderPhase;
 import fi.dy.masa.litematica.scheduler.TaskBase;
 import fi.dy.masa.litematica.scheduler.TaskScheduler;
 import fi.dy.masa.litematica.schematic.placement.SchematicPlacement;
+import fi.dy.masa.litematica.schematic.placement.SubRegionPlacement.RequiredEnabled;
+import fi.dy.masa.litematica.schematic.verifier.VerifierSectionTask.SectionSnapshot;
+import fi.dy.masa.litematica.selection.Box;
 import fi.dy.masa.litematica.util.BlockInfoListType;
+import fi.dy.masa.litematica.util.BlockUtils;
 import fi.dy.masa.litematica.util.ItemUtils;
 import fi.dy.masa.litematica.util.PositionUtils;
 import fi.dy.masa.litematica.world.WorldSchematic;
@@ -32,8 +40,12 @@ import fi.dy.masa.malilib.gui.Message.MessageType;
 import fi.dy.masa.malilib.interfaces.ICompletionListener;
 import fi.dy.masa.malilib.util.Color4f;
 import fi.dy.masa.malilib.util.LayerRange;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
 import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
-import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
 import net.minecraft.block.Block;
 import net.minecraft.block.state.IBlockState;
 import net.minecraft.client.Minecraft;
@@ -46,21 +58,22 @@ import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.math.ChunkPos;
 import net.minecraft.util.text.TextFormatting;
 import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
 import net.minecraft.world.gen.structure.StructureBoundingBox;
 
 public class SchematicVerifier extends TaskBase implements IInfoHudRenderer
 {
+    private static final ThreadFactory VERIFIER_THREAD_FACTORY = (new ThreadFactoryBuilder()).setNameFormat("Litematica Verifier %d").setDaemon(true).build();
+    private static final int VERIFIER_THREADS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+    private static final ExecutorService VERIFIER_EXECUTOR = Executors.newFixedThreadPool(VERIFIER_THREADS, VERIFIER_THREAD_FACTORY);
+    /** Limits the number of section snapshots waiting to be verified or merged, to limit the memory use */
+    private static final int MAX_TASKS_IN_PROGRESS = VERIFIER_THREADS * 32;
     private static final MutablePair<IBlockState, IBlockState> MUTABLE_PAIR = new MutablePair<>();
-    private static final BlockPos.MutableBlockPos MUTABLE_POS = new BlockPos.MutableBlockPos();
     private static final IBlockState AIR = Blocks.AIR.getDefaultState();
     private static final List<SchematicVerifier> ACTIVE_VERIFIERS = new ArrayList<>();
 
-    private final ArrayListMultimap<Pair<IBlockState, IBlockState>, BlockPos> missingBlocksPositions = ArrayListMultimap.create();
-    private final ArrayListMultimap<Pair<IBlockState, IBlockState>, BlockPos> extraBlocksPositions = ArrayListMultimap.create();
-    private final ArrayListMultimap<Pair<IBlockState, IBlockState>, BlockPos> wrongBlocksPositions = ArrayListMultimap.create();
-    private final ArrayListMultimap<Pair<IBlockState, IBlockState>, BlockPos> wrongStatesPositions = ArrayListMultimap.create();
+    private final MismatchStorage mismatches = new MismatchStorage();
     private final Object2IntOpenHashMap<IBlockState> correctStateCounts = new Object2IntOpenHashMap<>();
-    private final Object2ObjectOpenHashMap<BlockPos, BlockMismatch> blockMismatches = new Object2ObjectOpenHashMap<>();
     private final HashSet<Pair<IBlockState, IBlockState>> ignoredMismatches = new HashSet<>();
     private final List<BlockPos> missingBlocksPositionsClosest = new ArrayList<>();
     private final List<BlockPos> extraBlocksPositionsClosest = new ArrayList<>();
@@ -69,8 +82,12 @@ public class SchematicVerifier extends TaskBase implements IInfoHudRenderer
     private final Set<MismatchType> selectedCategories = new HashSet<>();
     private final HashMultimap<MismatchType, BlockMismatch> selectedEntries = HashMultimap.create();
     private final List<String> infoLines = new ArrayList<>();
-    private final Set<ChunkPos> requiredChunks = new HashSet<>();
-    private final Set<BlockPos> recheckQueue = new HashSet<>();
+    private final LongOpenHashSet requiredChunks = new LongOpenHashSet();
+    private final LongOpenHashSet recheckQueue = new LongOpenHashSet();
+    private final LongOpenHashSet recheckChunks = new LongOpenHashSet();
+    private final List<StructureBoundingBox> verifiedBoxes = new ArrayList<>();
+    private final Set<VerifierSectionTask> tasksInProgress = new HashSet<>();
+    private final Queue<VerifierSectionTask> completedTasks = new ConcurrentLinkedQueue<>();
     private WorldClient worldClient;
     private WorldSchematic worldSchematic;
     private SchematicPlacement schematicPlacement;
@@ -84,6 +101,8 @@ public class SchematicVerifier extends TaskBase implements IInfoHudRenderer
     private boolean verificationActive;
     private boolean finished;
     private boolean shouldRenderInfoHud = true;
+    @Nullable
+    private BlockPos lastOverlayCenterPos;
     private int totalRequiredChunks;
     private int schematicBlocks;
     private int clientBlocks;
@@ -97,6 +116,14 @@ public class SchematicVerifier extends TaskBase implements IInfoHudRenderer
         }
     }
 
+    public static void markVerifierChunkChanges(int chunkX, int chunkZ)
+    {
+        for (int i = 0; i < ACTIVE_VERIFIERS.size(); ++i)
+        {
+            ACTIVE_VERIFIERS.get(i).markChunkChanged(chunkX, chunkZ);
+        }
+    }
+
     @Override
     public boolean getShouldRenderText(RenderPhase phase)
     {
@@ -152,22 +179,22 @@ public class SchematicVerifier extends TaskBase implements IInfoHudRenderer
 
     public int getMissingBlocks()
     {
-        return this.missingBlocksPositions.size();
+        return this.mismatches.getCount(MismatchType.MISSING);
     }
 
     public int getExtraBlocks()
     {
-        return this.extraBlocksPositions.size();
+        return this.mismatches.getCount(MismatchType.EXTRA);
     }
 
     public int getMismatchedBlocks()
     {
-        return this.wrongBlocksPositions.size();
+        return this.mismatches.getCount(MismatchType.WRONG_BLOCK);
     }
 
     public int getMismatchedStates()
     {
-        return this.wrongStatesPositions.size();
+        return this.mismatches.getCount(MismatchType.WRONG_STATE);
     }
 
     public int getCorrectStatesCount()
@@ -298,6 +325,7 @@ public class SchematicVerifier extends TaskBase implements IInfoHudRenderer
     {
         this.verifyChunks();
         this.checkChangedPositions();
+        this.updateMismatchOverlaysIfMoved();
         return false;
     }
 
@@ -310,7 +338,8 @@ public class SchematicVerifier extends TaskBase implements IInfoHudRenderer
         this.worldSchematic = worldSchematic;
         this.schematicPlacement = schematicPlacement;
 
-        this.requiredChunks.addAll(schematicPlacement.getTouchedChunks());
+        this.requiredChunks.addAll(schematicPlacement.getTouchedChunkKeys());
+        this.updateVerifiedBoxes(schematicPlacement);
         this.totalRequiredChunks = this.requiredChunks.size();
         this.completionListener = completionListener;
         this.verificationStarted = true;
@@ -363,17 +392,19 @@ public class SchematicVerifier extends TaskBase implements IInfoHudRenderer
         this.clientBlocks = 0;
         this.requiredChunks.clear();
         this.recheckQueue.clear();
+        this.recheckChunks.clear();
+        this.verifiedBoxes.clear();
+        // Any tasks still running will get discarded when they complete
+        this.tasksInProgress.clear();
+        this.completedTasks.clear();
 
-        this.missingBlocksPositions.clear();
-        this.extraBlocksPositions.clear();
-        this.wrongBlocksPositions.clear();
-        this.wrongStatesPositions.clear();
-        this.blockMismatches.clear();
+        this.mismatches.clear();
         this.correctStateCounts.clear();
         this.selectedCategories.clear();
         this.selectedEntries.clear();
         this.mismatchBlockPositionsForRender.clear();
         this.mismatchPositionsForRender.clear();
+        this.lastOverlayCenterPos = null;
 
         ACTIVE_VERIFIERS.remove(this);
         TaskScheduler.getInstance().removeTask(this);
@@ -382,123 +413,430 @@ public class SchematicVerifier extends TaskBase implements IInfoHudRenderer
         this.clearActiveMismatchRenderPositions();
     }
 
-    public void markBlockChanged(BlockPos pos)
+    /**
+     * Stores the volumes that get verified, which are the enabled sub-region boxes
+     * of the placement, clipped to the render layer range when verifying only the rendered layers
+     */
+    private void updateVerifiedBoxes(SchematicPlacement schematicPlacement)
     {
-        if (this.finished)
+        LayerRange range = DataManager.getRenderLayerRange();
+        EnumFacing.Axis axis = range.getAxis();
+        boolean ranged = schematicPlacement.getSchematicVerifierType() == BlockInfoListType.RENDER_LAYERS;
+
+        for (Box box : schematicPlacement.getSubRegionBoxes(RequiredEnabled.PLACEMENT_ENABLED).values())
         {
-            BlockMismatch mismatch = this.blockMismatches.get(pos);
+            BlockPos pos1 = box.getPos1();
+            BlockPos pos2 = box.getPos2();
+            int minX = Math.min(pos1.getX(), pos2.getX());
+            int minY = Math.min(pos1.getY(), pos2.getY());
+            int minZ = Math.min(pos1.getZ(), pos2.getZ());
+            int maxX = Math.max(pos1.getX(), pos2.getX());
+            int maxY = Math.max(pos1.getY(), pos2.getY());
+            int maxZ = Math.max(pos1.getZ(), pos2.getZ());
+
+            if (ranged)
+            {
+                if (axis == EnumFacing.Axis.X)
+                {
+                    minX = Math.max(minX, range.getLayerMin());
+                    maxX = Math.min(maxX, range.getLayerMax());
+                }
+                else if (axis == EnumFacing.Axis.Y)
+                {
+                    minY = Math.max(minY, range.getLayerMin());
+                    maxY = Math.min(maxY, range.getLayerMax());
+                }
+                else
+                {
+                    minZ = Math.max(minZ, range.getLayerMin());
+                    maxZ = Math.min(maxZ, range.getLayerMax());
+                }
+            }
 
-            if (mismatch != null)
+            // Only the blocks within the world height can be verified
+            minY = Math.max(minY, 0);
+            maxY = Math.min(maxY, 255);
+
+            if (minX <= maxX && minY <= maxY && minZ <= maxZ)
             {
-                this.recheckQueue.add(pos);
+                addNonOverlappingParts(this.verifiedBoxes, new StructureBoundingBox(minX, minY, minZ, maxX, maxY, maxZ));
             }
         }
     }
 
-    private void checkChangedPositions()
+    /**
+     * Adds the parts of the given box that are not within any of the boxes already in the list,
+     * so that the overlapping sub-region boxes don't get their positions verified and counted twice
+     */
+    private static void addNonOverlappingParts(List<StructureBoundingBox> boxes, StructureBoundingBox box)
     {
-        if (this.finished && this.recheckQueue.isEmpty() == false)
+        List<StructureBoundingBox> parts = new ArrayList<>();
+        parts.add(box);
+
+        for (StructureBoundingBox existing : boxes)
         {
-            Iterator<BlockPos> iter = this.recheckQueue.iterator();
+            List<StructureBoundingBox> remaining = new ArrayList<>();
 
-            while (iter.hasNext())
+            for (StructureBoundingBox part : parts)
             {
-                BlockPos pos = iter.next();
+                subtractBox(part, existing, remaining);
+            }
 
-                if (this.worldClient.isAreaLoaded(pos, 1, false) &&
-                    this.worldSchematic.isBlockLoaded(pos, false))
-                {
-                    BlockMismatch mismatch = this.blockMismatches.get(pos);
+            parts = remaining;
+        }
 
-                    if (mismatch != null)
-                    {
-                        this.blockMismatches.remove(pos);
+        boxes.addAll(parts);
+    }
 
-                        IBlockState stateFound = this.worldClient.getBlockState(pos).getActualState(this.worldClient, pos);
-                        MUTABLE_PAIR.setLeft(mismatch.stateExpected);
-                        MUTABLE_PAIR.setRight(mismatch.stateFound);
+    /**
+     * Adds the up to six boxes that make up the part of the given box outside of the cut box to the list
+     */
+    private static void subtractBox(StructureBoundingBox box, StructureBoundingBox cut, List<StructureBoundingBox> listOut)
+    {
+        if (box.intersectsWith(cut) == false)
+        {
+            listOut.add(box);
+            return;
+        }
 
-                        this.getMapForMismatchType(mismatch.mismatchType).remove(MUTABLE_PAIR, pos);
-                        this.checkBlockStates(pos.getX(), pos.getY(), pos.getZ(), mismatch.stateExpected, stateFound);
+        if (box.minY < cut.minY)
+        {
+            listOut.add(new StructureBoundingBox(box.minX, box.minY, box.minZ, box.maxX, cut.minY - 1, box.maxZ));
+        }
 
-                        if (stateFound != AIR && mismatch.stateFound == AIR)
-                        {
-                            this.clientBlocks++;
-                        }
-                    }
-                    else
+        if (box.maxY > cut.maxY)
+        {
+            listOut.add(new StructureBoundingBox(box.minX, cut.maxY + 1, box.minZ, box.maxX, box.maxY, box.maxZ));
+        }
+
+        final int minY = Math.max(box.minY, cut.minY);
+        final int maxY = Math.min(box.maxY, cut.maxY);
+
+        if (box.minZ < cut.minZ)
+        {
+            listOut.add(new StructureBoundingBox(box.minX, minY, box.minZ, box.maxX, maxY, cut.minZ - 1));
+        }
+
+        if (box.maxZ > cut.maxZ)
+        {
+            listOut.add(new StructureBoundingBox(box.minX, minY, cut.maxZ + 1, box.maxX, maxY, box.maxZ));
+        }
+
+        final int minZ = Math.max(box.minZ, cut.minZ);
+        final int maxZ = Math.min(box.maxZ, cut.maxZ);
+
+        if (box.minX < cut.minX)
+        {
+            listOut.add(new StructureBoundingBox(box.minX, minY, minZ, cut.minX - 1, maxY, maxZ));
+        }
+
+        if (box.maxX > cut.maxX)
+        {
+            listOut.add(new StructureBoundingBox(cut.maxX + 1, minY, minZ, box.maxX, maxY, maxZ));
+        }
+    }
+
+    private boolean isPositionVerified(int x, int y, int z)
+    {
+        for (int i = 0; i < this.verifiedBoxes.size(); ++i)
+        {
+            StructureBoundingBox box = this.verifiedBoxes.get(i);
+
+            if (x >= box.minX && x <= box.maxX && y >= box.minY && y <= box.maxY && z >= box.minZ && z <= box.maxZ)
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    public void markBlockChanged(BlockPos pos)
+    {
+        if (Configs.Generic.VERIFIER_LIVE_UPDATES.getBooleanValue())
+        {
+            final int x = pos.getX();
+            final int y = pos.getY();
+            final int z = pos.getZ();
+
+            // The actual states of the adjacent blocks may also depend on the changed block
+            for (int dy = -1; dy <= 1; ++dy)
+            {
+                for (int dz = -1; dz <= 1; ++dz)
+                {
+                    for (int dx = -1; dx <= 1; ++dx)
                     {
-                        IBlockState stateExpected = this.worldSchematic.getBlockState(pos);
-                        IBlockState stateFound = this.worldClient.getBlockState(pos).getActualState(this.worldClient, pos);
-                        this.checkBlockStates(pos.getX(), pos.getY(), pos.getZ(), stateExpected, stateFound);
+                        this.markPositionChanged(x + dx, y + dy, z + dz);
                     }
-
-                    iter.remove();
                 }
             }
+        }
+        else if (this.finished && this.mismatches.getPairIdAt(pos.getX(), pos.getY(), pos.getZ()) != -1)
+        {
+            this.recheckQueue.add(pos.toLong());
+        }
+    }
 
-            if (this.recheckQueue.isEmpty())
+    /**
+     * Queues the position to be re-checked, if it is within the verified volume,
+     * and it has already been verified (or it is being verified from an older snapshot)
+     */
+    private void markPositionChanged(int x, int y, int z)
+    {
+        if (y >= 0 && y < 256 && this.isPositionVerified(x, y, z) &&
+            this.requiredChunks.contains(ChunkPos.asLong(x >> 4, z >> 4)) == false)
+        {
+            this.recheckQueue.add(MismatchStorage.packPos(x, y, z));
+        }
+    }
+
+    public void markChunkChanged(int chunkX, int chunkZ)
+    {
+        long chunkKey = ChunkPos.asLong(chunkX, chunkZ);
+
+        if (Configs.Generic.VERIFIER_LIVE_UPDATES.getBooleanValue() &&
+            this.requiredChunks.contains(chunkKey) == false)
+        {
+            final int minX = chunkX << 4;
+            final int minZ = chunkZ << 4;
+
+            for (StructureBoundingBox box : this.verifiedBoxes)
             {
-                this.updateMismatchOverlays();
+                if (box.intersectsWith(minX, minZ, minX + 15, minZ + 15))
+                {
+                    this.recheckChunks.add(chunkKey);
+                    break;
+                }
             }
         }
     }
 
-    private ArrayListMultimap<Pair<IBlockState, IBlockState>, BlockPos> getMapForMismatchType(MismatchType mismatchType)
+    /**
+     * Re-checks the changed positions and chunks after the verification has finished.
+     * The changed chunks are first reduced to the positions that may have changed their result,
+     * and only those positions are verified again, within the per-tick time budget.
+     * Their old results are replaced with the new ones in the mismatches and the correct state counts.
+     */
+    private void checkChangedPositions()
     {
-        switch (mismatchType)
+        if (this.finished == false || (this.recheckQueue.isEmpty() && this.recheckChunks.isEmpty()))
         {
-            case MISSING:
-                return this.missingBlocksPositions;
-            case EXTRA:
-                return this.extraBlocksPositions;
-            case WRONG_BLOCK:
-                return this.wrongBlocksPositions;
-            case WRONG_STATE:
-                return this.wrongStatesPositions;
-            default:
-                return null;
+            return;
+        }
+
+        boolean checkedSome = false;
+        LongIterator iter = this.recheckChunks.iterator();
+
+        while (iter.hasNext() && (System.nanoTime() - DataManager.getClientTickStartTime()) < 45000000L)
+        {
+            long chunkKey = iter.nextLong();
+            final int chunkX = PositionUtils.getChunkKeyX(chunkKey);
+            final int chunkZ = PositionUtils.getChunkKeyZ(chunkKey);
+
+            if (this.areChunksLoaded(chunkX, chunkZ))
+            {
+                this.queueChangedPositionsInChunk(chunkX, chunkZ);
+                iter.remove();
+                checkedSome = true;
+            }
+        }
+
+        iter = this.recheckQueue.iterator();
+
+        while (iter.hasNext() && (System.nanoTime() - DataManager.getClientTickStartTime()) < 45000000L)
+        {
+            BlockPos pos = BlockPos.fromLong(iter.nextLong());
+
+            if (this.worldClient.isAreaLoaded(pos, 1, false) &&
+                this.worldSchematic.isBlockLoaded(pos, false))
+            {
+                this.recheckPosition(pos);
+                iter.remove();
+                checkedSome = true;
+            }
+        }
+
+        if (checkedSome && this.recheckQueue.isEmpty() && this.recheckChunks.isEmpty())
+        {
+            this.updateMismatchOverlays();
         }
     }
 
-    private boolean verifyChunks()
+    /**
+     * Queues the positions within the verified volume in the given chunk to be re-checked,
+     * if their raw block state differs between the client and the schematic world, if the actual state
+     * of their block may depend on the neighbors, or if they had a mismatch the last time.
+     * The other positions had the same invariant state in both worlds before and still do,
+     * so their results can't have changed, and the sections that are empty in both worlds
+     * don't need to be looked at at all.
+     */
+    private void queueChangedPositionsInChunk(int chunkX, int chunkZ)
     {
-        if (this.verificationActive)
+        Chunk chunkClient = this.worldClient.getChunk(chunkX, chunkZ);
+        Chunk chunkSchematic = this.worldSchematic.getChunk(chunkX, chunkZ);
+        final int chunkMinX = chunkX << 4;
+        final int chunkMinZ = chunkZ << 4;
+
+        for (StructureBoundingBox box : this.verifiedBoxes)
         {
-            Iterator<ChunkPos> iter = this.requiredChunks.iterator();
-            boolean checkedSome = false;
+            final int minX = Math.max(box.minX, chunkMinX);
+            final int minZ = Math.max(box.minZ, chunkMinZ);
+            final int maxX = Math.min(box.maxX, chunkMinX + 15);
+            final int maxZ = Math.min(box.maxZ, chunkMinZ + 15);
 
-            while (iter.hasNext())
+            if (minX > maxX || minZ > maxZ)
             {
-                if ((System.nanoTime() - DataManager.getClientTickStartTime()) >= 50000000L)
+                continue;
+            }
+
+            for (int sectionY = box.minY >> 4; sectionY <= (box.maxY >> 4); ++sectionY)
+            {
+                ExtendedBlockStorage storageClient = chunkClient.getBlockStorageArray()[sectionY];
+                ExtendedBlockStorage storageSchematic = chunkSchematic.getBlockStorageArray()[sectionY];
+                boolean emptyClient = storageClient == Chunk.NULL_BLOCK_STORAGE || storageClient.isEmpty();
+                boolean emptySchematic = storageSchematic == Chunk.NULL_BLOCK_STORAGE || storageSchematic.isEmpty();
+
+                if (emptyClient && emptySchematic)
                 {
-                    break;
+                    continue;
                 }
 
-                ChunkPos pos = iter.next();
-                int count = 0;
+                final int minY = Math.max(box.minY, sectionY << 4);
+                final int maxY = Math.min(box.maxY, (sectionY << 4) + 15);
 
-                for (int cx = pos.x - 1; cx <= pos.x + 1; ++cx)
+                for (int y = minY; y <= maxY; ++y)
                 {
-                    for (int cz = pos.z - 1; cz <= pos.z + 1; ++cz)
+                    for (int z = minZ; z <= maxZ; ++z)
                     {
-                        if (this.worldClient.getChunkProvider().isChunkGeneratedAt(cx, cz))
+                        for (int x = minX; x <= maxX; ++x)
                         {
-                            ++count;
+                            IBlockState stateClient = emptyClient ? AIR : storageClient.get(x & 0xF, y & 0xF, z & 0xF);
+                            IBlockState stateSchematic = emptySchematic ? AIR : storageSchematic.get(x & 0xF, y & 0xF, z & 0xF);
+
+                            if (stateClient != stateSchematic || BlockUtils.hasInvariantActualState(stateClient) == false)
+                            {
+                                this.recheckQueue.add(MismatchStorage.packPos(x, y, z));
+                            }
                         }
                     }
                 }
+            }
+        }
+
+        this.mismatches.addPositionsInChunk(chunkX, chunkZ, this.recheckQueue);
+    }
+
+    /**
+     * Verifies an already verified position again, and replaces its old results with the new ones.
+     * If there is no mismatch stored for the position, then it was correct the last time,
+     * ie. the client state was the same as the (assumed to be unchanged) schematic state.
+     */
+    private void recheckPosition(BlockPos pos)
+    {
+        final int x = pos.getX();
+        final int y = pos.getY();
+        final int z = pos.getZ();
+        IBlockState stateSchematic = this.worldSchematic.getBlockState(pos);
+        IBlockState stateClient = this.worldClient.getBlockState(pos).getActualState(this.worldClient, pos);
+        final int pairId = this.mismatches.remove(x, y, z);
+        IBlockState stateSchematicOld = stateSchematic;
+        IBlockState stateClientOld = stateSchematic;
+
+        if (pairId != -1)
+        {
+            stateSchematicOld = this.mismatches.getStateExpected(pairId);
+            stateClientOld = this.mismatches.getStateFound(pairId);
+        }
+        // Still correct, nothing changed
+        else if (stateClient == stateSchematic)
+        {
+            return;
+        }
+        else
+        {
+            if (this.correctStateCounts.addTo(stateSchematic, -1) <= 1)
+            {
+                this.correctStateCounts.removeInt(stateSchematic);
+            }
+
+            if (stateSchematic != AIR)
+            {
+                --this.correctStatesCount;
+            }
+        }
+
+        if (stateSchematicOld != AIR)
+        {
+            --this.schematicBlocks;
+        }
+
+        if (stateClientOld != AIR)
+        {
+            --this.clientBlocks;
+        }
+
+        this.checkBlockStates(x, y, z, stateSchematic, stateClient);
+
+        if (stateSchematic != AIR)
+        {
+            ++this.schematicBlocks;
+        }
+
+        if (stateClient != AIR)
+        {
+            ++this.clientBlocks;
+        }
+    }
+
+    /**
+     * Checks if the given chunk and the surrounding chunks are loaded in the client world,
+     * and the given chunk is loaded in the schematic world
+     */
+    private boolean areChunksLoaded(int chunkX, int chunkZ)
+    {
+        for (int cx = chunkX - 1; cx <= chunkX + 1; ++cx)
+        {
+            for (int cz = chunkZ - 1; cz <= chunkZ + 1; ++cz)
+            {
+                if (this.worldClient.getChunkProvider().isChunkGeneratedAt(cx, cz) == false)
+                {
+                    return false;
+                }
+            }
+        }
+
+        return this.worldSchematic.getChunkProvider().isChunkGeneratedAt(chunkX, chunkZ);
+    }
+
+    private boolean verifyChunks()
+    {
+        if (this.verificationActive)
+        {
+            boolean checkedSome = this.mergeCompletedTasks();
+            Long2ObjectOpenHashMap<SectionSnapshot> clientSections = new Long2ObjectOpenHashMap<>();
+            LongIterator iter = this.requiredChunks.iterator();
+
+            while (iter.hasNext())
+            {
+                if ((System.nanoTime() - DataManager.getClientTickStartTime()) >= 50000000L ||
+                    this.tasksInProgress.size() >= MAX_TASKS_IN_PROGRESS)
+                {
+                    break;
+                }
+
+                long chunkKey = iter.nextLong();
+                final int chunkX = PositionUtils.getChunkKeyX(chunkKey);
+                final int chunkZ = PositionUtils.getChunkKeyZ(chunkKey);
 
                 // Require the surrounding chunks in the client world to be loaded as well
-                if (count == 9 && this.worldSchematic.getChunkProvider().isChunkGeneratedAt(pos.x, pos.z))
+                if (this.areChunksLoaded(chunkX, chunkZ))
                 {
-                    Chunk chunkClient = this.worldClient.getChunk(pos.x, pos.z);
-                    Chunk chunkSchematic = this.worldSchematic.getChunk(pos.x, pos.z);
-                    Map<String, StructureBoundingBox> boxes = this.schematicPlacement.getBoxesWithinChunk(pos.x, pos.z);
+                    Chunk chunkClient = this.worldClient.getChunk(chunkX, chunkZ);
+                    Chunk chunkSchematic = this.worldSchematic.getChunk(chunkX, chunkZ);
 
-                    for (StructureBoundingBox box : boxes.values())
+                    for (StructureBoundingBox box : this.verifiedBoxes)
                     {
-                        this.verifyChunk(chunkClient, chunkSchematic, box);
+                        this.startVerifyTasks(chunkClient, chunkSchematic, box, clientSections);
                     }
 
                     iter.remove();
@@ -511,7 +849,7 @@ public class SchematicVerifier extends TaskBase implements IInfoHudRenderer
                 this.updateRequiredChunksStringList();
             }
 
-            if (this.requiredChunks.isEmpty())
+            if (this.requiredChunks.isEmpty() && this.tasksInProgress.isEmpty())
             {
                 this.verificationActive = false;
                 this.verificationStarted = false;
@@ -540,18 +878,13 @@ public class SchematicVerifier extends TaskBase implements IInfoHudRenderer
         if (this.ignoredMismatches.contains(ignore) == false)
         {
             this.ignoredMismatches.add(ignore);
-            this.getMapForMismatchType(mismatch.mismatchType).removeAll(ignore);
 
-            Iterator<Map.Entry<BlockPos, BlockMismatch>> iter = this.blockMismatches.entrySet().iterator();
+            final int pairId = this.mismatches.getPairId(mismatch.stateExpected, mismatch.stateFound);
 
-            while (iter.hasNext())
+            // The positions are kept, so that they can still be re-checked in the live updates
+            if (pairId != -1)
             {
-                Map.Entry<BlockPos, BlockMismatch> entry = iter.next();
-
-                if (entry.getValue().equals(mismatch))
-                {
-                    iter.remove();
-                }
+                this.mismatches.setPairIgnored(pairId, true);
             }
         }
 
@@ -574,6 +907,13 @@ public class SchematicVerifier extends TaskBase implements IInfoHudRenderer
     public void resetIgnoredStateMismatches()
     {
         this.ignoredMismatches.clear();
+
+        for (int pairId = 0; pairId < this.mismatches.getPairIdCount(); ++pairId)
+        {
+            this.mismatches.setPairIgnored(pairId, false);
+        }
+
+        this.updateMismatchOverlays();
     }
 
     public Set<Pair<IBlockState, IBlockState>> getIgnoredMismatches()
@@ -589,7 +929,14 @@ public class SchematicVerifier extends TaskBase implements IInfoHudRenderer
     @Nullable
     public BlockMismatch getMismatchForPosition(BlockPos pos)
     {
-        return this.blockMismatches.get(pos);
+        final int pairId = this.mismatches.getPairIdAt(pos.getX(), pos.getY(), pos.getZ());
+        return pairId != -1 && this.mismatches.isPairIgnored(pairId) == false ? this.createMismatch(pairId, 1) : null;
+    }
+
+    private BlockMismatch createMismatch(int pairId, int count)
+    {
+        return new BlockMismatch(this.mismatches.getMismatchType(pairId),
+                this.mismatches.getStateExpected(pairId), this.mismatches.getStateFound(pairId), count);
     }
 
     public List<BlockMismatch> getMismatchOverviewFor(MismatchType type)
@@ -602,7 +949,7 @@ public class SchematicVerifier extends TaskBase implements IInfoHudRenderer
         }
         else
         {
-            this.addCountFor(type, this.getMapForMismatchType(type), list);
+            this.addCountFor(type, list);
         }
 
         return list;
@@ -612,21 +959,29 @@ public class SchematicVerifier extends TaskBase implements IInfoHudRenderer
     {
         List<BlockMismatch> list = new ArrayList<>();
 
-        this.addCountFor(MismatchType.MISSING, this.missingBlocksPositions, list);
-        this.addCountFor(MismatchType.EXTRA, this.extraBlocksPositions, list);
-        this.addCountFor(MismatchType.WRONG_BLOCK, this.wrongBlocksPositions, list);
-        this.addCountFor(MismatchType.WRONG_STATE, this.wrongStatesPositions, list);
+        this.addCountFor(MismatchType.MISSING, list);
+        this.addCountFor(MismatchType.EXTRA, list);
+        this.addCountFor(MismatchType.WRONG_BLOCK, list);
+        this.addCountFor(MismatchType.WRONG_STATE, list);
 
         Collections.sort(list);
 
         return list;
     }
 
-    private void addCountFor(MismatchType mismatchType, ArrayListMultimap<Pair<IBlockState, IBlockState>, BlockPos> map, List<BlockMismatch> list)
+    private void addCountFor(MismatchType mismatchType, List<BlockMismatch> list)
     {
-        for (Pair<IBlockState, IBlockState> pair : map.keySet())
+        final int pairCount = this.mismatches.getPairIdCount();
+
+        for (int pairId = 0; pairId < pairCount; ++pairId)
         {
-            list.add(new BlockMismatch(mismatchType, pair.getLeft(), pair.getRight(), map.get(pair).size()));
+            final int count = this.mismatches.getCount(pairId);
+
+            if (count > 0 && this.mismatches.getMismatchType(pairId) == mismatchType &&
+                this.mismatches.isPairIgnored(pairId) == false)
+            {
+                list.add(this.createMismatch(pairId, count));
+            }
         }
     }
 
@@ -671,96 +1026,225 @@ public class SchematicVerifier extends TaskBase implements IInfoHudRenderer
         return list;
     }
 
-    private boolean verifyChunk(Chunk chunkClient, Chunk chunkSchematic, StructureBoundingBox box)
+    /**
+     * Takes the snapshots of the chunk sections of the part of the given verified box within the chunk,
+     * and starts verifying them on the verifier threads
+     * @param clientSections the client world section snapshots already taken on this tick, which are shared by the tasks
+     */
+    private void startVerifyTasks(Chunk chunkClient, Chunk chunkSchematic, StructureBoundingBox box,
+            Long2ObjectOpenHashMap<SectionSnapshot> clientSections)
     {
-        LayerRange range = DataManager.getRenderLayerRange();
-        EnumFacing.Axis axis = range.getAxis();
-        boolean ranged = this.schematicPlacement.getSchematicVerifierType() == BlockInfoListType.RENDER_LAYERS;
+        final int startX = Math.max(box.minX, chunkClient.x << 4);
+        final int startY = Math.max(box.minY, 0);
+        final int startZ = Math.max(box.minZ, chunkClient.z << 4);
+        final int endX = Math.min(box.maxX, (chunkClient.x << 4) + 15);
+        final int endY = Math.min(box.maxY, 255);
+        final int endZ = Math.min(box.maxZ, (chunkClient.z << 4) + 15);
 
-        final int startX = ranged && axis == EnumFacing.Axis.X ? Math.max(box.minX, range.getLayerMin()) : box.minX;
-        final int startY = ranged && axis == EnumFacing.Axis.Y ? Math.max(box.minY, range.getLayerMin()) : box.minY;
-        final int startZ = ranged && axis == EnumFacing.Axis.Z ? Math.max(box.minZ, range.getLayerMin()) : box.minZ;
-        final int endX = ranged && axis == EnumFacing.Axis.X ? Math.min(box.maxX, range.getLayerMax()) : box.maxX;
-        final int endY = ranged && axis == EnumFacing.Axis.Y ? Math.min(box.maxY, range.getLayerMax()) : box.maxY;
-        final int endZ = ranged && axis == EnumFacing.Axis.Z ? Math.min(box.maxZ, range.getLayerMax()) : box.maxZ;
+        if (startX > endX || startY > endY || startZ > endZ)
+        {
+            return;
+        }
 
-        for (int y = startY; y <= endY; ++y)
+        for (int sectionY = startY >> 4; sectionY <= (endY >> 4); ++sectionY)
         {
-            for (int z = startZ; z <= endZ; ++z)
+            final int minY = Math.max(startY, sectionY << 4);
+            final int maxY = Math.min(endY, (sectionY << 4) + 15);
+
+            if (sectionY < 0 || sectionY > 15)
             {
-                for (int x = startX; x <= endX; ++x)
-                {
-                    MUTABLE_POS.setPos(x, y, z);
-                    IBlockState stateClient = chunkClient.getBlockState(x, y, z).getActualState(chunkClient.getWorld(), MUTABLE_POS);
-                    IBlockState stateSchematic = chunkSchematic.getBlockState(x, y, z);
+                continue;
+            }
+
+            if (this.tryVerifySectionDirectly(chunkClient, chunkSchematic, sectionY, startX, minY, startZ, endX, maxY, endZ))
+            {
+                continue;
+            }
+
+            VerifierSectionTask task = new VerifierSectionTask(this.worldClient.getWorldType(),
+                    this.getClientSectionSnapshots(clientSections, startX, minY, startZ, endX, maxY, endZ),
+                    SectionSnapshot.of(chunkSchematic.getBlockStorageArray()[sectionY]),
+                    startX, minY, startZ, endX, maxY, endZ, this.completedTasks);
+            this.tasksInProgress.add(task);
+            VERIFIER_EXECUTOR.execute(task);
+        }
+    }
+
+    /**
+     * Returns the snapshots of the client world sections that the given volume within one chunk section
+     * and a one block border around it touch, as expected by the {@link VerifierSectionTask} constructor.
+     * Each section is only copied once per tick, the tasks started on the same tick share the copies.
+     */
+    private SectionSnapshot[] getClientSectionSnapshots(Long2ObjectOpenHashMap<SectionSnapshot> cache,
+            int minX, int minY, int minZ, int maxX, int maxY, int maxZ)
+    {
+        SectionSnapshot[] sections = new SectionSnapshot[27];
+        final int sectionX = minX >> 4;
+        final int sectionY = minY >> 4;
+        final int sectionZ = minZ >> 4;
+        final int minSectionY = Math.max(0, (minY - 1) >> 4);
+        final int maxSectionY = Math.min(15, (maxY + 1) >> 4);
 
-                    this.checkBlockStates(x, y, z, stateSchematic, stateClient);
+        for (int sy = minSectionY; sy <= maxSectionY; ++sy)
+        {
+            for (int sz = (minZ - 1) >> 4; sz <= ((maxZ + 1) >> 4); ++sz)
+            {
+                for (int sx = (minX - 1) >> 4; sx <= ((maxX + 1) >> 4); ++sx)
+                {
+                    long key = (new BlockPos(sx, sy, sz)).toLong();
+                    SectionSnapshot section;
 
-                    if (stateSchematic != AIR)
+                    if (cache.containsKey(key))
                     {
-                        this.schematicBlocks++;
+                        section = cache.get(key);
                     }
-
-                    if (stateClient != AIR)
+                    else
                     {
-                        this.clientBlocks++;
+                        Chunk chunk = this.worldClient.getChunkProvider().getLoadedChunk(sx, sz);
+                        section = chunk != null ? SectionSnapshot.of(chunk.getBlockStorageArray()[sy]) : null;
+                        cache.put(key, section);
                     }
+
+                    sections[VerifierSectionTask.getSectionIndex(sx - sectionX, sy - sectionY, sz - sectionZ)] = section;
                 }
             }
         }
 
-        return true;
+        return sections;
     }
 
-    private void checkBlockStates(int x, int y, int z, IBlockState stateSchematic, IBlockState stateClient)
+    /**
+     * Checks if the given volume within one chunk section is empty in both worlds.
+     * In that case the results are added directly, without taking snapshots or starting a task.
+     * The volumes with the exact same block states in both worlds are checked on the worker threads.
+     * @return true if the volume was verified, false if it needs a verifier task
+     */
+    private boolean tryVerifySectionDirectly(Chunk chunkClient, Chunk chunkSchematic, int sectionY,
+            int minX, int minY, int minZ, int maxX, int maxY, int maxZ)
     {
-        BlockPos pos = new BlockPos(x, y, z);
+        ExtendedBlockStorage storageClient = chunkClient.getBlockStorageArray()[sectionY];
+        ExtendedBlockStorage storageSchematic = chunkSchematic.getBlockStorageArray()[sectionY];
+        boolean emptyClient = storageClient == Chunk.NULL_BLOCK_STORAGE || storageClient.isEmpty();
+        boolean emptySchematic = storageSchematic == Chunk.NULL_BLOCK_STORAGE || storageSchematic.isEmpty();
 
-        if (stateClient != stateSchematic)
+        if (emptyClient && emptySchematic)
         {
-            MUTABLE_PAIR.setLeft(stateSchematic);
-            MUTABLE_PAIR.setRight(stateClient);
+            final int volume = (maxX - minX + 1) * (maxY - minY + 1) * (maxZ - minZ + 1);
+            this.correctStateCounts.addTo(AIR, volume);
+            ItemUtils.setItemForBlock(this.worldClient, new BlockPos(minX, minY, minZ), AIR);
+            return true;
+        }
+
+        return false;
+    }
 
-            if (this.ignoredMismatches.contains(MUTABLE_PAIR) == false)
+    /**
+     * Merges the results of the completed verifier tasks
+     * @return true if the results of any tasks were merged
+     */
+    private boolean mergeCompletedTasks()
+    {
+        VerifierSectionTask task;
+        boolean mergedSome = false;
+
+        while ((System.nanoTime() - DataManager.getClientTickStartTime()) < 45000000L &&
+               (task = this.completedTasks.poll()) != null)
+        {
+            // Discard the results of tasks from a previous verification run
+            if (this.tasksInProgress.remove(task) == false)
             {
-                BlockMismatch mismatch;
+                continue;
+            }
 
-                if (stateSchematic != AIR)
-                {
-                    if (stateClient == AIR)
-                    {
-                        mismatch = new BlockMismatch(MismatchType.MISSING, stateSchematic, stateClient, 1);
-                        this.missingBlocksPositions.put(Pair.of(stateSchematic, stateClient), pos);
-                    }
-                    else
-                    {
-                        if (stateSchematic.getBlock() != stateClient.getBlock())
-                        {
-                            mismatch = new BlockMismatch(MismatchType.WRONG_BLOCK, stateSchematic, stateClient, 1);
-                            this.wrongBlocksPositions.put(Pair.of(stateSchematic, stateClient), pos);
-                        }
-                        else
-                        {
-                            mismatch = new BlockMismatch(MismatchType.WRONG_STATE, stateSchematic, stateClient, 1);
-                            this.wrongStatesPositions.put(Pair.of(stateSchematic, stateClient), pos);
-                        }
-                    }
-                }
-                else
-                {
-                    mismatch = new BlockMismatch(MismatchType.EXTRA, stateSchematic, stateClient, 1);
-                    this.extraBlocksPositions.put(Pair.of(stateSchematic, stateClient), pos);
-                }
+            if (task.getException() != null)
+            {
+                LiteModLitematica.logger.warn("Exception while verifying a schematic chunk section", task.getException());
+            }
+
+            this.mergeTaskResults(task);
+            mergedSome = true;
+        }
+
+        return mergedSome;
+    }
+
+    private void mergeTaskResults(VerifierSectionTask task)
+    {
+        LongArrayList positions = task.getMismatchPositions();
+        List<IBlockState> statesExpected = task.getMismatchStatesExpected();
+        List<IBlockState> statesFound = task.getMismatchStatesFound();
+        final int mismatchCount = positions.size();
+
+        for (int i = 0; i < mismatchCount; ++i)
+        {
+            BlockPos pos = BlockPos.fromLong(positions.getLong(i));
+            this.checkBlockStates(pos.getX(), pos.getY(), pos.getZ(), statesExpected.get(i), statesFound.get(i));
+        }
+
+        for (Object2IntMap.Entry<IBlockState> entry : task.getCorrectStateCounts().object2IntEntrySet())
+        {
+            IBlockState state = entry.getKey();
+            this.correctStateCounts.addTo(state, entry.getIntValue());
+            ItemUtils.setItemForBlock(this.worldClient, task.getCorrectStatePositions().get(state), state);
+        }
+
+        this.correctStatesCount += task.getCorrectStatesCount();
+        this.schematicBlocks += task.getSchematicBlocks();
+        this.clientBlocks += task.getClientBlocks();
+
+        positions = task.getDeferredPositions();
+        statesExpected = task.getDeferredStatesExpected();
+        final int deferredCount = positions.size();
+
+        for (int i = 0; i < deferredCount; ++i)
+        {
+            BlockPos pos = BlockPos.fromLong(positions.getLong(i));
+            IBlockState stateSchematic = statesExpected.get(i);
+            IBlockState stateClient = this.worldClient.getBlockState(pos).getActualState(this.worldClient, pos);
+
+            this.checkBlockStates(pos.getX(), pos.getY(), pos.getZ(), stateSchematic, stateClient);
+
+            if (stateSchematic != AIR)
+            {
+                this.schematicBlocks++;
+            }
+
+            if (stateClient != AIR)
+            {
+                this.clientBlocks++;
+            }
+        }
+    }
 
-                this.blockMismatches.put(pos, mismatch);
+    private void checkBlockStates(int x, int y, int z, IBlockState stateSchematic, IBlockState stateClient)
+    {
+        if (stateClient != stateSchematic)
+        {
+            int pairId = this.mismatches.getPairId(stateSchematic, stateClient);
 
+            // The items only need to be cached once per state pair
+            if (pairId == -1)
+            {
+                BlockPos pos = new BlockPos(x, y, z);
                 ItemUtils.setItemForBlock(this.worldClient, pos, stateClient);
                 ItemUtils.setItemForBlock(this.worldSchematic, pos, stateSchematic);
+                pairId = this.mismatches.getOrCreatePairId(stateSchematic, stateClient);
+
+                MUTABLE_PAIR.setLeft(stateSchematic);
+                MUTABLE_PAIR.setRight(stateClient);
+
+                // Ignored mismatches are also stored, so that the last verified state of every position is known
+                if (this.ignoredMismatches.contains(MUTABLE_PAIR))
+                {
+                    this.mismatches.setPairIgnored(pairId, true);
+                }
             }
+
+            this.mismatches.add(x, y, z, pairId);
         }
         else
         {
-            ItemUtils.setItemForBlock(this.worldClient, pos, stateClient);
+            ItemUtils.setItemForBlock(this.worldClient, new BlockPos(x, y, z), stateClient);
             this.correctStateCounts.addTo(stateClient, 1);
 
             if (stateSchematic != AIR)
@@ -780,6 +1264,7 @@ public class SchematicVerifier extends TaskBase implements IInfoHudRenderer
 
             // This needs to happen first
             BlockPos centerPos = new BlockPos(mc.player.getPositionVector());
+            this.lastOverlayCenterPos = centerPos;
             this.updateClosestPositions(centerPos, maxEntries);
             this.combineClosestPositions(centerPos, maxEntries);
 
@@ -796,28 +1281,45 @@ public class SchematicVerifier extends TaskBase implements IInfoHudRenderer
         }
     }
 
-    private void updateClosestPositions(BlockPos centerPos, int maxEntries)
+    /**
+     * Updates the closest mismatch positions when the player has moved to another block,
+     * if there are any selected mismatches being shown
+     */
+    private void updateMismatchOverlaysIfMoved()
     {
-        PositionUtils.BLOCK_POS_COMPARATOR.setReferencePosition(centerPos);
-        PositionUtils.BLOCK_POS_COMPARATOR.setClosestFirst(true);
+        Minecraft mc = Minecraft.getMinecraft();
+
+        if (this.finished && mc.player != null && this.lastOverlayCenterPos != null &&
+            (this.selectedCategories.isEmpty() == false || this.selectedEntries.isEmpty() == false) &&
+            this.lastOverlayCenterPos.equals(new BlockPos(mc.player.getPositionVector())) == false)
+        {
+            this.updateMismatchOverlays();
+        }
+    }
 
-        this.addAndSortPositions(MismatchType.WRONG_BLOCK,  this.wrongBlocksPositions, this.mismatchedBlocksPositionsClosest, maxEntries);
-        this.addAndSortPositions(MismatchType.WRONG_STATE,  this.wrongStatesPositions, this.mismatchedStatesPositionsClosest, maxEntries);
-        this.addAndSortPositions(MismatchType.EXTRA,        this.extraBlocksPositions, this.extraBlocksPositionsClosest, maxEntries);
-        this.addAndSortPositions(MismatchType.MISSING,      this.missingBlocksPositions, this.missingBlocksPositionsClosest, maxEntries);
+    private void updateClosestPositions(BlockPos centerPos, int maxEntries)
+    {
+        this.addClosestPositions(MismatchType.WRONG_BLOCK,  this.mismatchedBlocksPositionsClosest, centerPos, maxEntries);
+        this.addClosestPositions(MismatchType.WRONG_STATE,  this.mismatchedStatesPositionsClosest, centerPos, maxEntries);
+        this.addClosestPositions(MismatchType.EXTRA,        this.extraBlocksPositionsClosest, centerPos, maxEntries);
+        this.addClosestPositions(MismatchType.MISSING,      this.missingBlocksPositionsClosest, centerPos, maxEntries);
     }
 
-    private void addAndSortPositions(MismatchType type,
-            ArrayListMultimap<Pair<IBlockState, IBlockState>, BlockPos> sourceMap,
-            List<BlockPos> listOut, int maxEntries)
+    private void addClosestPositions(MismatchType type, List<BlockPos> listOut, BlockPos centerPos, int maxEntries)
     {
         listOut.clear();
 
-        //List<BlockPos> tempList = new ArrayList<>();
+        boolean[] includedPairs = new boolean[this.mismatches.getPairIdCount()];
+        boolean includeAny = false;
 
         if (this.selectedCategories.contains(type))
         {
-            listOut.addAll(sourceMap.values());
+            for (int pairId = 0; pairId < includedPairs.length; ++pairId)
+            {
+                includedPairs[pairId] = this.mismatches.getMismatchType(pairId) == type &&
+                                        this.mismatches.isPairIgnored(pairId) == false;
+                includeAny |= includedPairs[pairId];
+            }
         }
         else
         {
@@ -825,22 +1327,20 @@ public class SchematicVerifier extends TaskBase implements IInfoHudRenderer
 
             for (BlockMismatch mismatch : mismatches)
             {
-                MUTABLE_PAIR.setLeft(mismatch.stateExpected);
-                MUTABLE_PAIR.setRight(mismatch.stateFound);
-                listOut.addAll(sourceMap.get(MUTABLE_PAIR));
+                final int pairId = this.mismatches.getPairId(mismatch.stateExpected, mismatch.stateFound);
+
+                if (pairId != -1 && this.mismatches.isPairIgnored(pairId) == false)
+                {
+                    includedPairs[pairId] = true;
+                    includeAny = true;
+                }
             }
         }
 
-        Collections.sort(listOut, PositionUtils.BLOCK_POS_COMPARATOR);
-
-        /*
-        final int max = Math.min(maxEntries, tempList.size());
-
-        for (int i = 0; i < max; ++i)
+        if (includeAny)
         {
-            listOut.add(tempList.get(i));
+            this.mismatches.getClosestPositions(centerPos, includedPairs, maxEntries, listOut);
         }
-        */
     }
 
     private void combineClosestPositions(BlockPos centerPos, int maxEntries)
@@ -929,6 +1429,13 @@ public class SchematicVerifier extends TaskBase implements IInfoHudRenderer
 
         EntityPlayer player = Minecraft.getMinecraft().player;
 
+        if (this.tasksInProgress.isEmpty() == false)
+        {
+            String pre = TextFormatting.WHITE.toString() + TextFormatting.BOLD.toString();
+            String title = I18n.format("litematica.gui.label.schematic_verifier.sections_in_progress", this.tasksInProgress.size());
+            this.infoLines.add(String.format("%s%s%s", pre, title, TextFormatting.RESET.toString()));
+        }
+
         if (this.requiredChunks.isEmpty() == false && player != null)
         {
             String pre = TextFormatting.WHITE.toString() + TextFormatting.BOLD.toString();
@@ -936,7 +1443,12 @@ public class SchematicVerifier extends TaskBase implements IInfoHudRenderer
             this.infoLines.add(String.format("%s%s%s", pre, title, TextFormatting.RESET.toString()));
 
             List<ChunkPos> list = new ArrayList<>();
-            list.addAll(this.requiredChunks);
+            LongIterator iter = this.requiredChunks.iterator();
+
+            while (iter.hasNext())
+            {
+                list.add(PositionUtils.getChunkPosFromKey(iter.nextLong()));
+            }
 
             PositionUtils.CHUNK_POS_COMPARATOR.setReferencePosition(new BlockPos(player.getPositionVector()));
             PositionUtils.CHUNK_POS_COMPARATOR.setClosestFirst(true);
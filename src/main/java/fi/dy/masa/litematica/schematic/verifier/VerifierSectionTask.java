@@ -0,0 +1,446 @@
+package fi.dy.masa.litematica.schematic.verifier;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import javax.annotation.Nullable;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import fi.dy.masa.litematica.mixin.IMixinBlockStateContainer;
+import fi.dy.masa.litematica.schematic.container.LitematicaBitArray;
+import fi.dy.masa.litematica.util.BlockUtils;
+import net.minecraft.block.Block;
+import net.minecraft.block.material.Material;
+import net.minecraft.block.state.IBlockState;
+import net.minecraft.init.Biomes;
+import net.minecraft.init.Blocks;
+import net.minecraft.tileentity.TileEntity;
+import net.minecraft.util.EnumFacing;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.IBlockAccess;
+import net.minecraft.world.WorldType;
+import net.minecraft.world.biome.Biome;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.chunk.IBlockStatePalette;
+import net.minecraft.world.chunk.storage.ExtendedBlockStorage;
+
+/**
+ * Verifies one chunk section (or a part of one) of a schematic placement on a worker thread.
+ * The block storage arrays of the involved chunk sections of both worlds are copied on the client thread
+ * before the task is created, so that the task itself never accesses the worlds, and the block states
+ * are read from the copies on the worker thread. The client world copies include the neighboring sections
+ * touched by a one block border around the volume, so that the actual states can be resolved from them.
+ * The results are merged into the verifier on the client thread.
+ */
+public class VerifierSectionTask implements Runnable
+{
+    private static final IBlockState AIR = Blocks.AIR.getDefaultState();
+
+    private final Queue<VerifierSectionTask> completionQueue;
+    private final ClientSnapshot clientSnapshot;
+    @Nullable private final SectionSnapshot schematicSection;
+    private final int minX;
+    private final int minY;
+    private final int minZ;
+    private final int maxX;
+    private final int maxY;
+    private final int maxZ;
+
+    private final LongArrayList mismatchPositions = new LongArrayList();
+    private final List<IBlockState> mismatchStatesExpected = new ArrayList<>();
+    private final List<IBlockState> mismatchStatesFound = new ArrayList<>();
+    private final LongArrayList deferredPositions = new LongArrayList();
+    private final List<IBlockState> deferredStatesExpected = new ArrayList<>();
+    private final Object2IntOpenHashMap<IBlockState> correctStateCounts = new Object2IntOpenHashMap<>();
+    private final Map<IBlockState, BlockPos> correctStatePositions = new HashMap<>();
+    private int correctStatesCount;
+    private int schematicBlocks;
+    private int clientBlocks;
+    @Nullable private Exception exception;
+
+    /**
+     * Creates the task for the given volume, which must be within one chunk section, and within the world height.
+     * @param clientSections the snapshots of the client world sections around the section of the volume,
+     * indexed by {@link #getSectionIndex(int, int, int)}. Only the sections that the one block border
+     * around the volume touches are needed, the others and the empty sections can be null.
+     * @param schematicSection the snapshot of the schematic world section of the volume, or null if it's empty
+     */
+    public VerifierSectionTask(WorldType worldType, SectionSnapshot[] clientSections, @Nullable SectionSnapshot schematicSection,
+            int minX, int minY, int minZ, int maxX, int maxY, int maxZ,
+            Queue<VerifierSectionTask> completionQueue)
+    {
+        this.minX = minX;
+        this.minY = minY;
+        this.minZ = minZ;
+        this.maxX = maxX;
+        this.maxY = maxY;
+        this.maxZ = maxZ;
+        this.completionQueue = completionQueue;
+        this.clientSnapshot = new ClientSnapshot(worldType, clientSections, minX >> 4, minY >> 4, minZ >> 4,
+                                                 minX - 1, Math.max(0, minY - 1), minZ - 1,
+                                                 maxX + 1, Math.min(255, maxY + 1), maxZ + 1);
+        this.schematicSection = schematicSection;
+    }
+
+    /**
+     * Returns the index of the section at the given offset (-1 to 1 on each axis)
+     * from the section of the volume, in the client section snapshot array
+     */
+    public static int getSectionIndex(int offsetX, int offsetY, int offsetZ)
+    {
+        return (offsetY + 1) * 9 + (offsetZ + 1) * 3 + offsetX + 1;
+    }
+
+    public LongArrayList getMismatchPositions()
+    {
+        return this.mismatchPositions;
+    }
+
+    public List<IBlockState> getMismatchStatesExpected()
+    {
+        return this.mismatchStatesExpected;
+    }
+
+    public List<IBlockState> getMismatchStatesFound()
+    {
+        return this.mismatchStatesFound;
+    }
+
+    /**
+     * Returns the positions that need to be verified on the client thread,
+     * because the actual state of the client block can't be resolved from the snapshot
+     */
+    public LongArrayList getDeferredPositions()
+    {
+        return this.deferredPositions;
+    }
+
+    public List<IBlockState> getDeferredStatesExpected()
+    {
+        return this.deferredStatesExpected;
+    }
+
+    public Object2IntOpenHashMap<IBlockState> getCorrectStateCounts()
+    {
+        return this.correctStateCounts;
+    }
+
+    /**
+     * Returns one position for each of the correct states, for caching the items of the states
+     */
+    public Map<IBlockState, BlockPos> getCorrectStatePositions()
+    {
+        return this.correctStatePositions;
+    }
+
+    public int getCorrectStatesCount()
+    {
+        return this.correctStatesCount;
+    }
+
+    public int getSchematicBlocks()
+    {
+        return this.schematicBlocks;
+    }
+
+    public int getClientBlocks()
+    {
+        return this.clientBlocks;
+    }
+
+    @Nullable
+    public Exception getException()
+    {
+        return this.exception;
+    }
+
+    @Override
+    public void run()
+    {
+        try
+        {
+            this.verify();
+        }
+        catch (Exception e)
+        {
+            this.exception = e;
+        }
+
+        this.completionQueue.add(this);
+    }
+
+    private void verify()
+    {
+        if (this.tryVerifyIdenticalVolume())
+        {
+            return;
+        }
+
+        BlockPos.MutableBlockPos posMutable = new BlockPos.MutableBlockPos();
+
+        for (int y = this.minY; y <= this.maxY; ++y)
+        {
+            for (int z = this.minZ; z <= this.maxZ; ++z)
+            {
+                for (int x = this.minX; x <= this.maxX; ++x)
+                {
+                    IBlockState stateSchematic = this.schematicSection != null ? this.schematicSection.get(x, y, z) : AIR;
+                    IBlockState stateClient = this.clientSnapshot.getBlockState(x, y, z);
+                    posMutable.setPos(x, y, z);
+
+                    // The actual state of blocks with tile entities may depend on the tile entity data
+                    if (stateClient.getBlock().hasTileEntity())
+                    {
+                        this.deferPosition(posMutable, stateSchematic);
+                        continue;
+                    }
+
+                    try
+                    {
+                        stateClient = stateClient.getActualState(this.clientSnapshot, posMutable);
+                    }
+                    catch (Exception e)
+                    {
+                        this.deferPosition(posMutable, stateSchematic);
+                        continue;
+                    }
+
+                    if (stateClient != stateSchematic)
+                    {
+                        this.mismatchPositions.add(posMutable.toLong());
+                        this.mismatchStatesExpected.add(stateSchematic);
+                        this.mismatchStatesFound.add(stateClient);
+                    }
+                    else
+                    {
+                        this.correctStateCounts.addTo(stateClient, 1);
+
+                        if (this.correctStatePositions.containsKey(stateClient) == false)
+                        {
+                            this.correctStatePositions.put(stateClient, posMutable.toImmutable());
+                        }
+
+                        if (stateSchematic != AIR)
+                        {
+                            ++this.correctStatesCount;
+                        }
+                    }
+
+                    if (stateSchematic != AIR)
+                    {
+                        this.schematicBlocks++;
+                    }
+
+                    if (stateClient != AIR)
+                    {
+                        this.clientBlocks++;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks if the volume contains the exact same block states in both worlds, and if the actual states
+     * of all of those states are invariant. In that case all the positions are correct, and the results
+     * are added directly without resolving the actual states.
+     * @return true if the volume was verified, false if it needs to be verified block by block
+     */
+    private boolean tryVerifyIdenticalVolume()
+    {
+        for (int y = this.minY; y <= this.maxY; ++y)
+        {
+            for (int z = this.minZ; z <= this.maxZ; ++z)
+            {
+                for (int x = this.minX; x <= this.maxX; ++x)
+                {
+                    IBlockState stateClient = this.clientSnapshot.getBlockState(x, y, z);
+                    IBlockState stateSchematic = this.schematicSection != null ? this.schematicSection.get(x, y, z) : AIR;
+
+                    // The same raw state can still have a different actual state, if the block
+                    // has properties that depend on the neighbors, such as fences or stairs
+                    if (stateClient != stateSchematic ||
+                        (this.correctStateCounts.addTo(stateClient, 1) == 0 && BlockUtils.hasInvariantActualState(stateClient) == false))
+                    {
+                        this.correctStateCounts.clear();
+                        this.correctStatePositions.clear();
+                        return false;
+                    }
+
+                    if (this.correctStatePositions.containsKey(stateClient) == false)
+                    {
+                        this.correctStatePositions.put(stateClient, new BlockPos(x, y, z));
+                    }
+                }
+            }
+        }
+
+        for (Object2IntMap.Entry<IBlockState> entry : this.correctStateCounts.object2IntEntrySet())
+        {
+            if (entry.getKey() != AIR)
+            {
+                final int count = entry.getIntValue();
+                this.correctStatesCount += count;
+                this.schematicBlocks += count;
+                this.clientBlocks += count;
+            }
+        }
+
+        return true;
+    }
+
+    private void deferPosition(BlockPos pos, IBlockState stateSchematic)
+    {
+        this.deferredPositions.add(pos.toLong());
+        this.deferredStatesExpected.add(stateSchematic);
+    }
+
+    /**
+     * A copy of the block storage of one chunk section. Only the packed palette id array and the palette
+     * are copied when the snapshot is taken on the client thread, the block states are read on the worker thread.
+     */
+    public static class SectionSnapshot
+    {
+        private final LitematicaBitArray storage;
+        @Nullable private final IBlockState[] palette;
+
+        private SectionSnapshot(LitematicaBitArray storage, @Nullable IBlockState[] palette)
+        {
+            this.storage = storage;
+            this.palette = palette;
+        }
+
+        /**
+         * Takes a snapshot of the given section. This must be called on the thread that owns the section.
+         * @return the snapshot, or null if the section is empty
+         */
+        @Nullable
+        public static SectionSnapshot of(@Nullable ExtendedBlockStorage section)
+        {
+            if (section == Chunk.NULL_BLOCK_STORAGE || section.isEmpty())
+            {
+                return null;
+            }
+
+            IMixinBlockStateContainer container = (IMixinBlockStateContainer) section.getData();
+            final int bits = container.getBits();
+            long[] data = container.getStorage().getBackingLongArray().clone();
+            IBlockState[] palette = null;
+
+            // The sections with more than 8 bits per entry use the global block state ids directly
+            if (bits <= 8)
+            {
+                IBlockStatePalette sectionPalette = container.getPalette();
+                palette = new IBlockState[1 << bits];
+
+                for (int i = 0; i < palette.length; ++i)
+                {
+                    palette[i] = sectionPalette.getBlockState(i);
+                }
+            }
+
+            return new SectionSnapshot(new LitematicaBitArray(bits, 4096, data), palette);
+        }
+
+        public IBlockState get(int x, int y, int z)
+        {
+            final int id = this.storage.getAt((y & 0xF) << 8 | (z & 0xF) << 4 | (x & 0xF));
+            IBlockState state = this.palette != null ? this.palette[id] : Block.BLOCK_STATE_IDS.getByValue(id);
+
+            return state != null ? state : AIR;
+        }
+    }
+
+    /**
+     * A read-only view of the client world block states within a small volume, backed by the section snapshots
+     */
+    private static class ClientSnapshot implements IBlockAccess
+    {
+        private final WorldType worldType;
+        private final SectionSnapshot[] sections;
+        private final int sectionX;
+        private final int sectionY;
+        private final int sectionZ;
+        private final int minX;
+        private final int minY;
+        private final int minZ;
+        private final int maxX;
+        private final int maxY;
+        private final int maxZ;
+
+        public ClientSnapshot(WorldType worldType, SectionSnapshot[] sections, int sectionX, int sectionY, int sectionZ,
+                int minX, int minY, int minZ, int maxX, int maxY, int maxZ)
+        {
+            this.worldType = worldType;
+            this.sections = sections;
+            this.sectionX = sectionX;
+            this.sectionY = sectionY;
+            this.sectionZ = sectionZ;
+            this.minX = minX;
+            this.minY = minY;
+            this.minZ = minZ;
+            this.maxX = maxX;
+            this.maxY = maxY;
+            this.maxZ = maxZ;
+        }
+
+        public IBlockState getBlockState(int x, int y, int z)
+        {
+            if (x < this.minX || y < this.minY || z < this.minZ ||
+                x > this.maxX || y > this.maxY || z > this.maxZ)
+            {
+                return AIR;
+            }
+
+            SectionSnapshot section = this.sections[getSectionIndex((x >> 4) - this.sectionX, (y >> 4) - this.sectionY, (z >> 4) - this.sectionZ)];
+
+            return section != null ? section.get(x, y, z) : AIR;
+        }
+
+        @Override
+        public IBlockState getBlockState(BlockPos pos)
+        {
+            return this.getBlockState(pos.getX(), pos.getY(), pos.getZ());
+        }
+
+        @Override
+        @Nullable
+        public TileEntity getTileEntity(BlockPos pos)
+        {
+            return null;
+        }
+
+        @Override
+        public int getCombinedLight(BlockPos pos, int lightValue)
+        {
+            return 15 << 20 | lightValue << 4;
+        }
+
+        @Override
+        public boolean isAirBlock(BlockPos pos)
+        {
+            return this.getBlockState(pos).getMaterial() == Material.AIR;
+        }
+
+        @Override
+        public Biome getBiome(BlockPos pos)
+        {
+            return Biomes.PLAINS;
+        }
+
+        @Override
+        public int getStrongPower(BlockPos pos, EnumFacing direction)
+        {
+            return this.getBlockState(pos).getStrongPower(this, pos, direction);
+        }
+
+        @Override
+        public WorldType getWorldType()
+        {
+            return this.worldType;
+        }
+    }
+}
@@ -4,7 +4,9 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import com.google.common.collect.UnmodifiableIterator;
+import net.minecraft.block.Block;
 import net.minecraft.block.properties.IProperty;
 import net.minecraft.block.properties.PropertyBool;
 import net.minecraft.block.properties.PropertyDirection;
@@ -18,6 +20,46 @@ public class BlockUtils
     private static final String GOLD = TextFormatting.GOLD.toString();
     private static final String GREEN = TextFormatting.GREEN.toString();
     private static final String RED = TextFormatting.RED.toString();
+    private static final Map<Block, Boolean> INVARIANT_ACTUAL_STATE_BLOCKS = new ConcurrentHashMap<>();
+
+    /**
+     * Returns true if the actual state of the given state is always the state itself, no matter
+     * what the surrounding blocks are. This is the case when all the valid states of the block
+     * survive a round trip through the block metadata, because the properties that getActualState()
+     * fills in (like the connections of fences, panes and redstone wire, or the shape of stairs)
+     * are never stored in the metadata. The results are cached per block, and this is safe
+     * to call from any thread.
+     */
+    public static boolean hasInvariantActualState(IBlockState state)
+    {
+        Block block = state.getBlock();
+        Boolean invariant = INVARIANT_ACTUAL_STATE_BLOCKS.get(block);
+
+        if (invariant == null)
+        {
+            invariant = Boolean.TRUE;
+
+            try
+            {
+                for (IBlockState validState : block.getBlockState().getValidStates())
+                {
+                    if (block.getStateFromMeta(block.getMetaFromState(validState)) != validState)
+                    {
+                        invariant = Boolean.FALSE;
+                        break;
+                    }
+                }
+            }
+            catch (Exception e)
+            {
+                invariant = Boolean.FALSE;
+            }
+
+            INVARIANT_ACTUAL_STATE_BLOCKS.put(block, invariant);
+        }
+
+        return invariant.booleanValue();
+    }
 
     public static List<String> getFormattedBlockStateProperties(IBlockState state)
     {
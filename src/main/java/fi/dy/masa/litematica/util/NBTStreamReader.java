@@ -0,0 +1,246 @@
+package fi.dy.masa.litematica.util;
+
+import java.io.DataInput;
+import java.io.IOException;
+import fi.dy.masa.malilib.util.Constants;
+import net.minecraft.nbt.NBTBase;
+import net.minecraft.nbt.NBTTagByte;
+import net.minecraft.nbt.NBTTagByteArray;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagDouble;
+import net.minecraft.nbt.NBTTagFloat;
+import net.minecraft.nbt.NBTTagInt;
+import net.minecraft.nbt.NBTTagIntArray;
+import net.minecraft.nbt.NBTTagList;
+import net.minecraft.nbt.NBTTagLong;
+import net.minecraft.nbt.NBTTagLongArray;
+import net.minecraft.nbt.NBTTagShort;
+import net.minecraft.nbt.NBTTagString;
+
+/**
+ * Reads the NBT binary format token by token from a stream, without building the full tag tree.
+ * The caller walks the compound tags via {@link #readTagType()} and {@link #readName()},
+ * and then either reads the payload of each tag as a tag object, reads it directly
+ * via the primitive read methods, or skips it.
+ */
+public class NBTStreamReader
+{
+    /** Same maximum nesting depth as in vanilla */
+    private static final int MAX_DEPTH = 512;
+
+    private final DataInput input;
+
+    public NBTStreamReader(DataInput input)
+    {
+        this.input = input;
+    }
+
+    public DataInput getInput()
+    {
+        return this.input;
+    }
+
+    /**
+     * Reads the type of the next tag. Returns {@link Constants.NBT#TAG_END} at the end of a compound tag.
+     */
+    public byte readTagType() throws IOException
+    {
+        return this.input.readByte();
+    }
+
+    /**
+     * Reads the name of a tag inside a compound tag. This must be called after
+     * {@link #readTagType()} for any tag type other than TAG_END.
+     */
+    public String readName() throws IOException
+    {
+        return this.input.readUTF();
+    }
+
+    public int readInt() throws IOException
+    {
+        return this.input.readInt();
+    }
+
+    /**
+     * Reads the length of an array tag's payload. The array elements follow this.
+     */
+    public int readArrayLength() throws IOException
+    {
+        int length = this.input.readInt();
+
+        if (length < 0)
+        {
+            throw new IOException("Negative NBT array length: " + length);
+        }
+
+        return length;
+    }
+
+    public long[] readLongArray() throws IOException
+    {
+        final int length = this.readArrayLength();
+        long[] arr = new long[length];
+
+        for (int i = 0; i < length; ++i)
+        {
+            arr[i] = this.input.readLong();
+        }
+
+        return arr;
+    }
+
+    /**
+     * Reads the payload of a tag of the given type into a new tag object.
+     */
+    public NBTBase readPayload(byte type) throws IOException
+    {
+        return this.readPayload(type, 0);
+    }
+
+    private NBTBase readPayload(byte type, int depth) throws IOException
+    {
+        if (depth > MAX_DEPTH)
+        {
+            throw new IOException("Tried to read NBT tag with too high complexity, depth > " + MAX_DEPTH);
+        }
+
+        switch (type)
+        {
+            case Constants.NBT.TAG_BYTE:        return new NBTTagByte(this.input.readByte());
+            case Constants.NBT.TAG_SHORT:       return new NBTTagShort(this.input.readShort());
+            case Constants.NBT.TAG_INT:         return new NBTTagInt(this.input.readInt());
+            case Constants.NBT.TAG_LONG:        return new NBTTagLong(this.input.readLong());
+            case Constants.NBT.TAG_FLOAT:       return new NBTTagFloat(this.input.readFloat());
+            case Constants.NBT.TAG_DOUBLE:      return new NBTTagDouble(this.input.readDouble());
+            case Constants.NBT.TAG_STRING:      return new NBTTagString(this.input.readUTF());
+            case Constants.NBT.TAG_LONG_ARRAY:  return new NBTTagLongArray(this.readLongArray());
+
+            case Constants.NBT.TAG_BYTE_ARRAY:
+            {
+                byte[] arr = new byte[this.readArrayLength()];
+                this.input.readFully(arr);
+                return new NBTTagByteArray(arr);
+            }
+
+            case Constants.NBT.TAG_INT_ARRAY:
+            {
+                final int length = this.readArrayLength();
+                int[] arr = new int[length];
+
+                for (int i = 0; i < length; ++i)
+                {
+                    arr[i] = this.input.readInt();
+                }
+
+                return new NBTTagIntArray(arr);
+            }
+
+            case Constants.NBT.TAG_LIST:
+            {
+                final byte listType = this.input.readByte();
+                final int length = this.input.readInt();
+                NBTTagList list = new NBTTagList();
+
+                if (listType == Constants.NBT.TAG_END && length > 0)
+                {
+                    throw new IOException("Missing type on a non-empty NBT list");
+                }
+
+                for (int i = 0; i < length; ++i)
+                {
+                    list.appendTag(this.readPayload(listType, depth + 1));
+                }
+
+                return list;
+            }
+
+            case Constants.NBT.TAG_COMPOUND:
+            {
+                NBTTagCompound tag = new NBTTagCompound();
+                byte childType;
+
+                while ((childType = this.input.readByte()) != Constants.NBT.TAG_END)
+                {
+                    String name = this.input.readUTF();
+                    tag.setTag(name, this.readPayload(childType, depth + 1));
+                }
+
+                return tag;
+            }
+
+            default:
+                throw new IOException("Invalid NBT tag type: " + type);
+        }
+    }
+
+    /**
+     * Skips over the payload of a tag of the given type, without creating any tag objects.
+     */
+    public void skipPayload(byte type) throws IOException
+    {
+        switch (type)
+        {
+            case Constants.NBT.TAG_BYTE:        this.skip(1); break;
+            case Constants.NBT.TAG_SHORT:       this.skip(2); break;
+            case Constants.NBT.TAG_INT:         this.skip(4); break;
+            case Constants.NBT.TAG_LONG:        this.skip(8); break;
+            case Constants.NBT.TAG_FLOAT:       this.skip(4); break;
+            case Constants.NBT.TAG_DOUBLE:      this.skip(8); break;
+            case Constants.NBT.TAG_STRING:      this.skip(this.input.readUnsignedShort()); break;
+            case Constants.NBT.TAG_BYTE_ARRAY:  this.skip(this.readArrayLength()); break;
+            case Constants.NBT.TAG_INT_ARRAY:   this.skip(this.readArrayLength() * 4L); break;
+            case Constants.NBT.TAG_LONG_ARRAY:  this.skip(this.readArrayLength() * 8L); break;
+
+            case Constants.NBT.TAG_LIST:
+            {
+                final byte listType = this.input.readByte();
+                final int length = this.input.readInt();
+
+                for (int i = 0; i < length; ++i)
+                {
+                    this.skipPayload(listType);
+                }
+
+                break;
+            }
+
+            case Constants.NBT.TAG_COMPOUND:
+            {
+                byte childType;
+
+                while ((childType = this.input.readByte()) != Constants.NBT.TAG_END)
+                {
+                    this.skip(this.input.readUnsignedShort());
+                    this.skipPayload(childType);
+                }
+
+                break;
+            }
+
+            default:
+                throw new IOException("Invalid NBT tag type: " + type);
+        }
+    }
+
+    /**
+     * Skips the given number of bytes. DataInput.skipBytes() is allowed to skip less
+     * than requested, so this keeps going until all the bytes have been skipped.
+     */
+    public void skip(long bytes) throws IOException
+    {
+        while (bytes > 0)
+        {
+            int skipped = this.input.skipBytes((int) Math.min(bytes, Integer.MAX_VALUE));
+
+            if (skipped <= 0)
+            {
+                // Make sure we either make progress or hit the end of the stream
+                this.input.readByte();
+                skipped = 1;
+            }
+
+            bytes -= skipped;
+        }
+    }
+}
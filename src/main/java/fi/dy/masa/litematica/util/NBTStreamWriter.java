@@ -0,0 +1,163 @@
+package fi.dy.masa.litematica.util;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import fi.dy.masa.litematica.mixin.IMixinNBTTagLongArray;
+import fi.dy.masa.malilib.util.Constants;
+import net.minecraft.nbt.NBTBase;
+import net.minecraft.nbt.NBTTagByte;
+import net.minecraft.nbt.NBTTagByteArray;
+import net.minecraft.nbt.NBTTagCompound;
+import net.minecraft.nbt.NBTTagDouble;
+import net.minecraft.nbt.NBTTagFloat;
+import net.minecraft.nbt.NBTTagInt;
+import net.minecraft.nbt.NBTTagIntArray;
+import net.minecraft.nbt.NBTTagList;
+import net.minecraft.nbt.NBTTagLong;
+import net.minecraft.nbt.NBTTagShort;
+import net.minecraft.nbt.NBTTagString;
+
+/**
+ * Writes NBT data in the same binary format as vanilla, but with the given keys of each compound tag
+ * written first, in the given order. The vanilla compound tags are backed by a HashMap,
+ * so their write order is arbitrary. This is used for writing the schematic files so that
+ * the tags that {@link NBTStreamReader} based readers need first (for example the palette
+ * and size of a region before its block state array) always come first in the stream.
+ */
+public class NBTStreamWriter
+{
+    private final DataOutput output;
+    private final String[] priorityKeys;
+
+    /**
+     * @param priorityKeys the keys to write first in every compound tag, if they exist in it
+     */
+    public NBTStreamWriter(DataOutput output, String... priorityKeys)
+    {
+        this.output = output;
+        this.priorityKeys = priorityKeys;
+    }
+
+    /**
+     * Writes the given tag as the named root tag, like CompressedStreamTools.write() does
+     */
+    public void writeRoot(NBTTagCompound tag) throws IOException
+    {
+        this.output.writeByte(Constants.NBT.TAG_COMPOUND);
+        this.output.writeUTF("");
+        this.writePayload(tag);
+    }
+
+    private void writePayload(NBTBase tag) throws IOException
+    {
+        switch (tag.getId())
+        {
+            case Constants.NBT.TAG_BYTE:        this.output.writeByte(((NBTTagByte) tag).getByte()); break;
+            case Constants.NBT.TAG_SHORT:       this.output.writeShort(((NBTTagShort) tag).getShort()); break;
+            case Constants.NBT.TAG_INT:         this.output.writeInt(((NBTTagInt) tag).getInt()); break;
+            case Constants.NBT.TAG_LONG:        this.output.writeLong(((NBTTagLong) tag).getLong()); break;
+            case Constants.NBT.TAG_FLOAT:       this.output.writeFloat(((NBTTagFloat) tag).getFloat()); break;
+            case Constants.NBT.TAG_DOUBLE:      this.output.writeDouble(((NBTTagDouble) tag).getDouble()); break;
+            case Constants.NBT.TAG_STRING:      this.output.writeUTF(((NBTTagString) tag).getString()); break;
+
+            case Constants.NBT.TAG_BYTE_ARRAY:
+            {
+                byte[] arr = ((NBTTagByteArray) tag).getByteArray();
+                this.output.writeInt(arr.length);
+                this.output.write(arr);
+                break;
+            }
+
+            case Constants.NBT.TAG_INT_ARRAY:
+            {
+                int[] arr = ((NBTTagIntArray) tag).getIntArray();
+                this.output.writeInt(arr.length);
+
+                for (int value : arr)
+                {
+                    this.output.writeInt(value);
+                }
+
+                break;
+            }
+
+            case Constants.NBT.TAG_LONG_ARRAY:
+            {
+                long[] arr = ((IMixinNBTTagLongArray) tag).getArray();
+                this.output.writeInt(arr.length);
+
+                for (long value : arr)
+                {
+                    this.output.writeLong(value);
+                }
+
+                break;
+            }
+
+            case Constants.NBT.TAG_LIST:
+            {
+                NBTTagList list = (NBTTagList) tag;
+                final int count = list.tagCount();
+
+                this.output.writeByte(count > 0 ? list.getTagType() : Constants.NBT.TAG_END);
+                this.output.writeInt(count);
+
+                for (int i = 0; i < count; ++i)
+                {
+                    this.writePayload(list.get(i));
+                }
+
+                break;
+            }
+
+            case Constants.NBT.TAG_COMPOUND:
+            {
+                NBTTagCompound compound = (NBTTagCompound) tag;
+
+                for (String key : this.priorityKeys)
+                {
+                    NBTBase child = compound.getTag(key);
+
+                    if (child != null)
+                    {
+                        this.writeNamedTag(key, child);
+                    }
+                }
+
+                for (String key : compound.getKeySet())
+                {
+                    if (this.isPriorityKey(key) == false)
+                    {
+                        this.writeNamedTag(key, compound.getTag(key));
+                    }
+                }
+
+                this.output.writeByte(Constants.NBT.TAG_END);
+                break;
+            }
+
+            default:
+                throw new IOException("Invalid NBT tag type: " + tag.getId());
+        }
+    }
+
+    private void writeNamedTag(String name, NBTBase tag) throws IOException
+    {
+        this.output.writeByte(tag.getId());
+        this.output.writeUTF(name);
+        this.writePayload(tag);
+    }
+
+    private boolean isPriorityKey(String key)
+    {
+        for (String priorityKey : this.priorityKeys)
+        {
+            if (priorityKey.equals(key))
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
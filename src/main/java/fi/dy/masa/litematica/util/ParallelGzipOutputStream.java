@@ -0,0 +1,290 @@
+package fi.dy.masa.litematica.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * A gzip output stream that compresses the data in independent blocks on multiple threads,
+ * in the same way as pigz does. Each block is deflated with the last 32 KiB of the previous
+ * block as the preset dictionary, and is ended with a sync flush, so that the compressed
+ * blocks can just be concatenated. The result is a single standard gzip member,
+ * which can be read by GZIPInputStream and any other gzip tools.
+ * The blocks can also be compressed on the calling thread, to just use the configurable compression level.
+ */
+public class ParallelGzipOutputStream extends OutputStream
+{
+    private static final int THREAD_COUNT = Math.max(1, Runtime.getRuntime().availableProcessors());
+    private static final ThreadFactory THREAD_FACTORY = (new ThreadFactoryBuilder()).setNameFormat("Litematica Compressor %d").setDaemon(true).build();
+    private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(THREAD_COUNT, THREAD_FACTORY);
+
+    /** The amount of uncompressed data per compressed block, same as the pigz default */
+    private static final int BLOCK_SIZE = 128 * 1024;
+    /** The size of the deflate window, ie. the maximum useful preset dictionary size */
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+    /** Maximum number of blocks being compressed or waiting to be written at once, to limit the memory use */
+    private static final int MAX_PENDING_BLOCKS = THREAD_COUNT * 2;
+
+    private final OutputStream out;
+    private final int level;
+    private final boolean parallel;
+    private final CRC32 crc = new CRC32();
+    private final ArrayDeque<Future<byte[]>> pendingBlocks = new ArrayDeque<>();
+    private byte[] buffer = new byte[BLOCK_SIZE];
+    private byte[] dictionary;
+    private int bufferPosition;
+    private long totalSize;
+    private boolean finished;
+    private boolean closed;
+
+    /**
+     * @param out the stream to write the compressed data to
+     * @param level the compression level, 0 - 9
+     * @param parallel whether to compress the blocks on the worker threads, or on the calling thread
+     */
+    public ParallelGzipOutputStream(OutputStream out, int level, boolean parallel) throws IOException
+    {
+        this.out = out;
+        this.level = level;
+        this.parallel = parallel;
+        this.writeHeader();
+    }
+
+    @Override
+    public void write(int b) throws IOException
+    {
+        this.ensureOpen();
+
+        this.buffer[this.bufferPosition++] = (byte) b;
+
+        if (this.bufferPosition == BLOCK_SIZE)
+        {
+            this.submitBlock(false);
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException
+    {
+        this.ensureOpen();
+
+        while (len > 0)
+        {
+            final int length = Math.min(len, BLOCK_SIZE - this.bufferPosition);
+            System.arraycopy(b, off, this.buffer, this.bufferPosition, length);
+            this.bufferPosition += length;
+            off += length;
+            len -= length;
+
+            if (this.bufferPosition == BLOCK_SIZE)
+            {
+                this.submitBlock(false);
+            }
+        }
+    }
+
+    /**
+     * Compresses and writes all the remaining data and the gzip trailer,
+     * without closing the underlying stream.
+     */
+    public void finish() throws IOException
+    {
+        if (this.finished == false)
+        {
+            this.ensureOpen();
+            this.submitBlock(true);
+
+            while (this.pendingBlocks.isEmpty() == false)
+            {
+                this.writeNextBlock();
+            }
+
+            this.writeTrailer();
+            this.out.flush();
+            this.finished = true;
+        }
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        if (this.closed == false)
+        {
+            try
+            {
+                this.finish();
+            }
+            finally
+            {
+                this.closed = true;
+
+                for (Future<byte[]> future : this.pendingBlocks)
+                {
+                    future.cancel(false);
+                }
+
+                this.pendingBlocks.clear();
+                this.out.close();
+            }
+        }
+    }
+
+    private void ensureOpen() throws IOException
+    {
+        if (this.closed || this.finished)
+        {
+            throw new IOException("Stream closed");
+        }
+    }
+
+    private void submitBlock(boolean last) throws IOException
+    {
+        final byte[] data = this.buffer;
+        final int length = this.bufferPosition;
+
+        this.crc.update(data, 0, length);
+        this.totalSize += length;
+
+        BlockCompressor compressor = new BlockCompressor(data, length, this.dictionary, this.level, last);
+
+        if (this.parallel)
+        {
+            this.pendingBlocks.add(EXECUTOR.submit(compressor));
+        }
+        else
+        {
+            this.pendingBlocks.add(Futures.immediateFuture(compressor.call()));
+        }
+
+        if (last == false)
+        {
+            // The end of this block is the preset dictionary for the next block
+            this.dictionary = Arrays.copyOfRange(data, Math.max(0, length - DICTIONARY_SIZE), length);
+            this.buffer = new byte[BLOCK_SIZE];
+            this.bufferPosition = 0;
+        }
+
+        while (this.pendingBlocks.size() >= MAX_PENDING_BLOCKS)
+        {
+            this.writeNextBlock();
+        }
+    }
+
+    private void writeNextBlock() throws IOException
+    {
+        Future<byte[]> future = this.pendingBlocks.poll();
+
+        try
+        {
+            this.out.write(future.get());
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while compressing", e);
+        }
+        catch (ExecutionException e)
+        {
+            throw new IOException("Exception while compressing", e.getCause());
+        }
+    }
+
+    private void writeHeader() throws IOException
+    {
+        // Magic number, compression method (deflate), flags, mtime (4 bytes), extra flags, OS (unknown)
+        this.out.write(new byte[] { 0x1F, (byte) 0x8B, 8, 0, 0, 0, 0, 0, 0, (byte) 0xFF });
+    }
+
+    private void writeTrailer() throws IOException
+    {
+        final long crc = this.crc.getValue();
+        final long size = this.totalSize;
+        byte[] trailer = new byte[8];
+
+        for (int i = 0; i < 4; ++i)
+        {
+            trailer[i] = (byte) (crc >>> (i * 8));
+            trailer[i + 4] = (byte) (size >>> (i * 8));
+        }
+
+        this.out.write(trailer);
+    }
+
+    private static class BlockCompressor implements Callable<byte[]>
+    {
+        private final byte[] data;
+        private final int length;
+        private final byte[] dictionary;
+        private final int level;
+        private final boolean last;
+
+        public BlockCompressor(byte[] data, int length, byte[] dictionary, int level, boolean last)
+        {
+            this.data = data;
+            this.length = length;
+            this.dictionary = dictionary;
+            this.level = level;
+            this.last = last;
+        }
+
+        @Override
+        public byte[] call()
+        {
+            Deflater deflater = new Deflater(this.level, true);
+            ByteArrayOutputStream bos = new ByteArrayOutputStream(this.length / 2 + 64);
+            byte[] buf = new byte[16384];
+
+            try
+            {
+                if (this.dictionary != null)
+                {
+                    deflater.setDictionary(this.dictionary);
+                }
+
+                deflater.setInput(this.data, 0, this.length);
+
+                if (this.last)
+                {
+                    deflater.finish();
+
+                    while (deflater.finished() == false)
+                    {
+                        int count = deflater.deflate(buf, 0, buf.length);
+                        bos.write(buf, 0, count);
+                    }
+                }
+                else
+                {
+                    int count;
+
+                    // A sync flush ends the block on a byte boundary, without marking it as the final block.
+                    // If the output buffer gets completely filled, then there may be more output pending.
+                    do
+                    {
+                        count = deflater.deflate(buf, 0, buf.length, Deflater.SYNC_FLUSH);
+                        bos.write(buf, 0, count);
+                    }
+                    while (count == buf.length);
+                }
+            }
+            finally
+            {
+                deflater.end();
+            }
+
+            return bos.toByteArray();
+        }
+    }
+}
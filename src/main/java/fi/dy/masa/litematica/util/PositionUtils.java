@@ -15,6 +15,7 @@ import fi.dy.masa.litematica.schematic.placement.SubRegionPlacement;
 import fi.dy.masa.litematica.selection.AreaSelection;
 import fi.dy.masa.litematica.selection.Box;
 import fi.dy.masa.malilib.util.PositionUtils.CoordinateType;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
 import net.minecraft.util.EnumFacing;
 import net.minecraft.util.Mirror;
 import net.minecraft.util.Rotation;
@@ -285,6 +286,58 @@ public class PositionUtils
         return set;
     }
 
+    /**
+     * Returns the chunks touched by the given boxes, as the <b>ChunkPos.asLong()</b> keys
+     */
+    public static LongOpenHashSet getTouchedChunkKeys(ImmutableMap<String, Box> boxes)
+    {
+        return getTouchedChunkKeysForBoxes(boxes.values());
+    }
+
+    public static LongOpenHashSet getTouchedChunkKeysForBoxes(Collection<Box> boxes)
+    {
+        LongOpenHashSet set = new LongOpenHashSet();
+
+        for (Box box : boxes)
+        {
+            final int boxXMin = Math.min(box.getPos1().getX(), box.getPos2().getX()) >> 4;
+            final int boxZMin = Math.min(box.getPos1().getZ(), box.getPos2().getZ()) >> 4;
+            final int boxXMax = Math.max(box.getPos1().getX(), box.getPos2().getX()) >> 4;
+            final int boxZMax = Math.max(box.getPos1().getZ(), box.getPos2().getZ()) >> 4;
+
+            for (int cz = boxZMin; cz <= boxZMax; ++cz)
+            {
+                for (int cx = boxXMin; cx <= boxXMax; ++cx)
+                {
+                    set.add(ChunkPos.asLong(cx, cz));
+                }
+            }
+        }
+
+        return set;
+    }
+
+    /**
+     * Returns the chunk x-coordinate from a <b>ChunkPos.asLong()</b> key
+     */
+    public static int getChunkKeyX(long chunkKey)
+    {
+        return (int) chunkKey;
+    }
+
+    /**
+     * Returns the chunk z-coordinate from a <b>ChunkPos.asLong()</b> key
+     */
+    public static int getChunkKeyZ(long chunkKey)
+    {
+        return (int) (chunkKey >>> 32);
+    }
+
+    public static ChunkPos getChunkPosFromKey(long chunkKey)
+    {
+        return new ChunkPos(getChunkKeyX(chunkKey), getChunkKeyZ(chunkKey));
+    }
+
     @Nullable
     public static StructureBoundingBox getBoundsWithinChunkForBox(Box box, int chunkX, int chunkZ)
     {
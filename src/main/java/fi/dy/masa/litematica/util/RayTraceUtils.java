@@ -2,15 +2,15 @@ package fi.dy.masa.litematica.util;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.ImmutableMap;
 import fi.dy.masa.litematica.config.Configs;
 import fi.dy.masa.litematica.config.Hotkeys;
 import fi.dy.masa.litematica.data.DataManager;
 import fi.dy.masa.litematica.schematic.placement.SchematicPlacement;
+import fi.dy.masa.litematica.schematic.placement.SchematicPlacementManager;
+import fi.dy.masa.litematica.schematic.placement.SchematicPlacementManager.PlacementPart;
 import fi.dy.masa.litematica.schematic.placement.SubRegionPlacement.RequiredEnabled;
 import fi.dy.masa.litematica.schematic.verifier.SchematicVerifier;
 import fi.dy.masa.litematica.selection.AreaSelection;
@@ -31,6 +31,7 @@ import net.minecraft.util.math.RayTraceResult;
 import net.minecraft.util.math.RayTraceResult.Type;
 import net.minecraft.util.math.Vec3d;
 import net.minecraft.world.World;
+import net.minecraft.world.gen.structure.StructureBoundingBox;
 
 public class RayTraceUtils
 {
@@ -81,11 +82,18 @@ public class RayTraceUtils
 
         if (DataManager.getToolMode().getUsesSchematic())
         {
-            for (SchematicPlacement placement : DataManager.getSchematicPlacementManager().getAllSchematicsPlacements())
+            SchematicPlacementManager manager = DataManager.getSchematicPlacementManager();
+
+            // Only the exact intercepts of the boxes that the spatial index finds along the ray need to be calculated
+            for (PlacementPart part : manager.getPlacementPartsIntersectingRay(eyesPos, lookEndPos, RequiredEnabled.PLACEMENT_ENABLED))
+            {
+                traceToPlacementBox(part, eyesPos, lookEndPos);
+            }
+
+            for (SchematicPlacement placement : manager.getAllSchematicsPlacements())
             {
                 if (placement.isEnabled())
                 {
-                    traceToPlacementBox(placement, eyesPos, lookEndPos);
                     traceToOrigin(placement.getOrigin(), eyesPos, lookEndPos, HitType.PLACEMENT_ORIGIN, placement);
                 }
             }
@@ -191,36 +199,25 @@ public class RayTraceUtils
         return false;
     }
 
-    private static boolean traceToPlacementBox(SchematicPlacement placement, Vec3d start, Vec3d end)
+    private static boolean traceToPlacementBox(PlacementPart part, Vec3d start, Vec3d end)
     {
-        ImmutableMap<String, Box> boxes = placement.getSubRegionBoxes(RequiredEnabled.PLACEMENT_ENABLED);
-        boolean hitSomething = false;
+        StructureBoundingBox box = part.getBox();
+        AxisAlignedBB bb = new AxisAlignedBB(box.minX, box.minY, box.minZ, box.maxX + 1, box.maxY + 1, box.maxZ + 1);
+        RayTraceResult trace = bb.calculateIntercept(start, end);
 
-        for (Map.Entry<String, Box> entry : boxes.entrySet())
+        if (trace != null)
         {
-            String boxName = entry.getKey();
-            Box box = entry.getValue();
+            double dist = trace.hitVec.distanceTo(start);
 
-            if (box.getPos1() != null && box.getPos2() != null)
+            if (closestBoxDistance < 0 || dist < closestBoxDistance)
             {
-                AxisAlignedBB bb = PositionUtils.createEnclosingAABB(box.getPos1(), box.getPos2());
-                RayTraceResult trace = bb.calculateIntercept(start, end);
-
-                if (trace != null)
-                {
-                    double dist = trace.hitVec.distanceTo(start);
-
-                    if (closestBoxDistance < 0 || dist < closestBoxDistance)
-                    {
-                        closestBoxDistance = dist;
-                        closestBox = new RayTraceWrapper(placement, trace.hitVec, boxName);
-                        hitSomething = true;
-                    }
-                }
+                closestBoxDistance = dist;
+                closestBox = new RayTraceWrapper(part.getPlacement(), trace.hitVec, part.getSubRegionName());
+                return true;
             }
         }
 
-        return hitSomething;
+        return false;
     }
 
     private static boolean traceToOrigin(BlockPos pos, Vec3d start, Vec3d end, HitType type, @Nullable SchematicPlacement placement)
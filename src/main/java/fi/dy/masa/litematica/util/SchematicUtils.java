@@ -24,7 +24,6 @@ import fi.dy.masa.malilib.gui.Message.MessageType;
 import fi.dy.masa.malilib.interfaces.IStringConsumerFeedback;
 import fi.dy.masa.malilib.util.InfoUtils;
 import fi.dy.masa.malilib.util.LayerRange;
-import fi.dy.masa.malilib.util.SubChunkPos;
 import net.minecraft.block.state.IBlockState;
 import net.minecraft.client.Minecraft;
 import net.minecraft.init.Blocks;
@@ -259,8 +258,7 @@ public class SchematicUtils
     {
         if (pos != null)
         {
-            SubChunkPos cpos = new SubChunkPos(pos);
-            List<PlacementPart> list = DataManager.getSchematicPlacementManager().getAllPlacementsTouchingSubChunk(cpos);
+            List<PlacementPart> list = DataManager.getSchematicPlacementManager().getPlacementPartsAt(pos, RequiredEnabled.RENDERING_ENABLED);
 
             if (list.isEmpty() == false)
             {
@@ -276,9 +274,11 @@ public class SchematicUtils
 
                         if (posSchematic != null)
                         {
+                            LitematicaSchematic schematic = DataManager.getSchematicPlacementManager().getSchematicForEditing(placement);
+                            container = schematic.getSubRegionContainer(regionName);
                             IBlockState stateOriginal = container.get(posSchematic.getX(), posSchematic.getY(), posSchematic.getZ());
 
-                            int totalBlocks = part.getPlacement().getSchematic().getMetadata().getTotalBlocks();
+                            int totalBlocks = schematic.getMetadata().getTotalBlocks();
                             int increment = 0;
 
                             if (stateOriginal.getBlock() != Blocks.AIR)
@@ -293,8 +293,8 @@ public class SchematicUtils
                             totalBlocks += increment;
 
                             container.set(posSchematic.getX(), posSchematic.getY(), posSchematic.getZ(), state);
-                            part.getPlacement().getSchematic().getMetadata().setTotalBlocks(totalBlocks);
-                            DataManager.getSchematicPlacementManager().markChunkForRebuild(new ChunkPos(cpos.getX(), cpos.getZ()));
+                            schematic.getMetadata().setTotalBlocks(totalBlocks);
+                            DataManager.getSchematicPlacementManager().markChunkForRebuild(new ChunkPos(pos));
 
                             return true;
                         }
@@ -312,8 +312,7 @@ public class SchematicUtils
     {
         if (posStart != null && posEnd != null)
         {
-            SubChunkPos cpos = new SubChunkPos(posStart);
-            List<PlacementPart> list = DataManager.getSchematicPlacementManager().getAllPlacementsTouchingSubChunk(cpos);
+            List<PlacementPart> list = DataManager.getSchematicPlacementManager().getPlacementPartsAt(posStart, RequiredEnabled.RENDERING_ENABLED);
 
             if (list.isEmpty() == false)
             {
@@ -331,6 +330,8 @@ public class SchematicUtils
 
                         if (posStartSchematic != null && posEndSchematic != null)
                         {
+                            LitematicaSchematic schematic = DataManager.getSchematicPlacementManager().getSchematicForEditing(placement);
+                            container = schematic.getSubRegionContainer(regionName);
                             BlockPos posMin = PositionUtils.getMinCorner(posStartSchematic, posEndSchematic);
                             BlockPos posMax = PositionUtils.getMaxCorner(posStartSchematic, posEndSchematic);
                             final int minX = Math.max(posMin.getX(), 0);
@@ -339,7 +340,7 @@ public class SchematicUtils
                             final int maxX = Math.min(posMax.getX(), container.getSize().getX() - 1);
                             final int maxY = Math.min(posMax.getY(), container.getSize().getY() - 1);
                             final int maxZ = Math.min(posMax.getZ(), container.getSize().getZ() - 1);
-                            int totalBlocks = part.getPlacement().getSchematic().getMetadata().getTotalBlocks();
+                            int totalBlocks = schematic.getMetadata().getTotalBlocks();
                             int increment = 0;
 
                             for (int y = minY; y <= maxY; ++y)
@@ -366,8 +367,8 @@ public class SchematicUtils
                                 }
                             }
 
-                            part.getPlacement().getSchematic().getMetadata().setTotalBlocks(totalBlocks);
-                            DataManager.getSchematicPlacementManager().markAllPlacementsOfSchematicForRebuild(placement.getSchematic());
+                            schematic.getMetadata().setTotalBlocks(totalBlocks);
+                            DataManager.getSchematicPlacementManager().markAllPlacementsOfSchematicForRebuild(schematic);
 
                             return true;
                         }
@@ -385,9 +386,8 @@ public class SchematicUtils
     {
         if (posStart != null)
         {
-            SubChunkPos cpos = new SubChunkPos(posStart);
             SchematicPlacementManager manager = DataManager.getSchematicPlacementManager();
-            List<PlacementPart> list = manager.getAllPlacementsTouchingSubChunk(cpos);
+            List<PlacementPart> list = manager.getPlacementPartsAt(posStart, RequiredEnabled.RENDERING_ENABLED);
 
             if (list.isEmpty() == false)
             {
@@ -435,8 +435,9 @@ public class SchematicUtils
         }
 
         LayerRange range = DataManager.getRenderLayerRange();
+        LitematicaSchematic schematic = manager.getSchematicForEditing(schematicPlacement);
 
-        int totalBlocks = schematicPlacement.getSchematic().getMetadata().getTotalBlocks();
+        int totalBlocks = schematic.getMetadata().getTotalBlocks();
         int increment = 0;
 
         if (stateOriginal.getBlock() != Blocks.AIR)
@@ -450,7 +451,7 @@ public class SchematicUtils
 
         for (String regionName : regions)
         {
-            LitematicaBlockStateContainer container = schematicPlacement.getSchematic().getSubRegionContainer(regionName);
+            LitematicaBlockStateContainer container = schematic.getSubRegionContainer(regionName);
             SubRegionPlacement placement = schematicPlacement.getRelativeSubRegionPlacement(regionName);
 
             if (container == null || placement == null)
@@ -468,9 +469,9 @@ public class SchematicUtils
             BlockPos posStart = new BlockPos(minX, minY, minZ);
             BlockPos posEnd = new BlockPos(maxX, maxY, maxZ);
 
-            BlockPos pos1 = getReverserTransformedWorldPosition(posStart, schematicPlacement.getSchematic(),
+            BlockPos pos1 = getReverserTransformedWorldPosition(posStart, schematic,
                     regionName, schematicPlacement, schematicPlacement.getRelativeSubRegionPlacement(regionName));
-            BlockPos pos2 = getReverserTransformedWorldPosition(posEnd, schematicPlacement.getSchematic(),
+            BlockPos pos2 = getReverserTransformedWorldPosition(posEnd, schematic,
                     regionName, schematicPlacement, schematicPlacement.getRelativeSubRegionPlacement(regionName));
 
             if (pos1 == null || pos2 == null)
@@ -505,13 +506,26 @@ public class SchematicUtils
             //System.out.printf("DEBUG == region: %s, sx: %d, sy: %s, sz: %d, ex: %d, ey: %d, ez: %d - size x: %d y: %d z: %d =============\n",
             //        regionName, startX, startY, startZ, endX, endY, endZ, size.getX(), size.getY(), size.getZ());
 
+            final int rowLength = endX - startX + 1;
+            final int[] rowIds = new int[rowLength];
+            final IBlockState[] rowStates = new IBlockState[rowLength];
+
             for (int y = startY; y <= endY; ++y)
             {
                 for (int z = startZ; z <= endZ; ++z)
                 {
+                    container.getIdsAlongX(startX, y, z, rowLength, rowIds);
+
+                    // Resolve the whole row before setting anything, because adding the new state
+                    // to the palette can resize the container and renumber the palette ids
+                    for (int i = 0; i < rowLength; ++i)
+                    {
+                        rowStates[i] = container.getStateForId(rowIds[i]);
+                    }
+
                     for (int x = startX; x <= endX; ++x)
                     {
-                        if (container.get(x, y, z) == stateOriginal)
+                        if (rowStates[x - startX] == stateOriginal)
                         {
                             container.set(x, y, z, stateNew);
                             totalBlocks += increment;
@@ -521,7 +535,7 @@ public class SchematicUtils
             }
         }
 
-        schematicPlacement.getSchematic().getMetadata().setTotalBlocks(totalBlocks);
+        schematic.getMetadata().setTotalBlocks(totalBlocks);
 
         return true;
     }
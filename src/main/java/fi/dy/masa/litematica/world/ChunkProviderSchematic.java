@@ -27,4 +27,15 @@ public class ChunkProviderSchematic extends ChunkProviderClient
 
         return chunk;
     }
+
+    /**
+     * Adds an already populated chunk to the loaded chunks, replacing any existing chunk
+     * at the same position. Any existing chunk should be unloaded first.
+     * This is used to swap in the chunks that were populated on a worker thread.
+     */
+    public void setLoadedChunk(ChunkSchematic chunk)
+    {
+        ((IMixinChunkProviderClient) (Object) this).getLoadedChunks().put(ChunkPos.asLong(chunk.x, chunk.z), chunk);
+        chunk.markLoaded(true);
+    }
 }
@@ -103,6 +103,37 @@ public class ChunkSchematic extends Chunk
         }
     }
 
+    /**
+     * Sets the block state directly into the block storage, without creating tile entities
+     * or marking the chunk dirty. This is meant for bulk-populating the chunk,
+     * the caller needs to handle the tile entities and call markDirty() afterwards.
+     * Only stale tile entities of replaced blocks are removed here.
+     * @param x the chunk-relative x-coordinate
+     * @param y the y-coordinate, 0 - 255
+     * @param z the chunk-relative z-coordinate
+     */
+    public void setBlockStateDirect(int x, int y, int z, IBlockState state)
+    {
+        ExtendedBlockStorage storage = this.getBlockStorageArray()[y >> 4];
+
+        if (storage == NULL_BLOCK_STORAGE)
+        {
+            storage = new ExtendedBlockStorage(y >> 4 << 4, false);
+            this.getBlockStorageArray()[y >> 4] = storage;
+        }
+        else if (this.getTileEntityMap().isEmpty() == false)
+        {
+            Block blockOld = storage.get(x, y & 15, z).getBlock();
+
+            if (blockOld != state.getBlock() && blockOld instanceof ITileEntityProvider)
+            {
+                this.getWorld().removeTileEntity(new BlockPos((this.x << 4) + x, y, (this.z << 4) + z));
+            }
+        }
+
+        storage.set(x, y & 15, z, state);
+    }
+
     @Override
     public int getLightFor(EnumSkyBlock type, BlockPos pos)
     {